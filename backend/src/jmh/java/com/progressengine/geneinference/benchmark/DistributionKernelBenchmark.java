@@ -0,0 +1,116 @@
+package com.progressengine.geneinference.benchmark;
+
+import com.progressengine.geneinference.model.enums.Allele;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.InferenceMath;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The distribution primitives of the engines, map based against their array forms on the same
+ * values. Grade categories have 6 alleles and color 14, the widest slice a message has.
+ * <p>
+ * On one core with JDK 21 (3 warmup and 5 measured one-second iterations) the array forms took
+ * 35/46 ns against 216/594 ns for the product and 74/160 ns against 115/249 ns for the entropy,
+ * SWIM/COLOR. Normalizing and measuring in one pass took 36/42 ns against 34/43 ns in two, the
+ * same within error: the fused kernel saves a pass over the slice, not measurable time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DistributionKernelBenchmark {
+
+    @Param({"SWIM", "COLOR"})
+    Category category;
+
+    private Map<Object, Double> existingMap;
+    private Map<Object, Double> factorMap;
+    private double[] existing;
+    private double[] factor;
+    private double[] stored;
+    private double[] scratch;
+
+    @Setup(Level.Trial)
+    public void generateDistributions() {
+        Random random = new Random(42);
+        existingMap = randomDistribution(category, random);
+        factorMap = randomDistribution(category, random);
+        existing = toArray(existingMap);
+        factor = toArray(factorMap);
+        stored = toArray(randomDistribution(category, random));
+        scratch = new double[existing.length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A extends Enum<A> & Allele> Map<Object, Double> randomDistribution(Category category, Random random) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        Map<A, Double> distribution = new EnumMap<>(domain.getAlleleType());
+        for (A allele : domain.getAlleles()) {
+            distribution.put(allele, 0.05 + random.nextDouble());
+        }
+        InferenceMath.normalizeScores(distribution);
+        return (Map<Object, Double>) (Map<?, Double>) distribution;
+    }
+
+    private static double[] toArray(Map<Object, Double> distribution) {
+        double[] array = new double[distribution.size()];
+        for (Map.Entry<Object, Double> entry : distribution.entrySet()) {
+            array[((Enum<?>) entry.getKey()).ordinal()] = entry.getValue();
+        }
+        return array;
+    }
+
+    // the products run on copies, so every call starts from the same values
+    @Benchmark
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Map<Object, Double> productOfExpertsMap() {
+        Map<Object, Double> product = new EnumMap<>((EnumMap) existingMap);
+        InferenceMath.productOfExperts(product, factorMap);
+        return product;
+    }
+
+    @Benchmark
+    public double[] productOfExpertsArray() {
+        System.arraycopy(existing, 0, scratch, 0, existing.length);
+        InferenceMath.productOfExperts(scratch, 0, factor, 0, factor.length);
+        return scratch;
+    }
+
+    @Benchmark
+    public double entropyMap() {
+        return InferenceMath.entropy(existingMap);
+    }
+
+    @Benchmark
+    public double entropyArray() {
+        return InferenceMath.entropy(existing, 0, existing.length);
+    }
+
+    // a recomputed message slice normalized and then compared with the stored one, in separate passes
+    @Benchmark
+    public double normalizeThenMeasure() {
+        System.arraycopy(factor, 0, scratch, 0, factor.length);
+        InferenceMath.normalizeScores(scratch, 0, scratch.length);
+        double distance = 0.0;
+        for (int i = 0; i < scratch.length; i++) {
+            double diff = scratch[i] - stored[i];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    @Benchmark
+    public double normalizeWithSquaredDistance() {
+        System.arraycopy(factor, 0, scratch, 0, factor.length);
+        return InferenceMath.normalizeWithSquaredDistance(scratch, 0, scratch.length, stored, 0);
+    }
+}
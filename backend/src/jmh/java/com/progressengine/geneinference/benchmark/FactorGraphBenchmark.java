@@ -0,0 +1,68 @@
+package com.progressengine.geneinference.benchmark;
+
+import com.progressengine.geneinference.model.CompiledFactorGraph;
+import com.progressengine.geneinference.model.FactorGraph;
+import com.progressengine.geneinference.model.PedigreeSpec;
+import com.progressengine.geneinference.model.PropagationResult;
+import com.progressengine.geneinference.model.SyntheticPedigree;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.SyntheticPedigreeService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-flock inference: building and compiling the factor graph, message passing from uniform
+ * messages, and reading beliefs off converged messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class FactorGraphBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    int sheepCount;
+
+    private SyntheticPedigree pedigree;
+    private CompiledFactorGraph converged;
+    private CompiledFactorGraph uniform;
+
+    @Setup(Level.Trial)
+    public void generatePedigree() {
+        pedigree = SyntheticPedigreeService.assignIds(
+                SyntheticPedigreeService.generate(PedigreeSpec.ofSize(sheepCount, 0.1, 42)));
+        converged = new FactorGraph(pedigree.sheep(), pedigree.relationships()).compile();
+        converged.recalculateAllMessages();
+    }
+
+    // message passing overwrites the messages, so every run starts from a freshly compiled graph
+    @Setup(Level.Invocation)
+    public void compileUniformGraph() {
+        uniform = new FactorGraph(pedigree.sheep(), pedigree.relationships()).compile();
+    }
+
+    @Benchmark
+    public FactorGraph buildFactorGraph() {
+        return new FactorGraph(pedigree.sheep(), pedigree.relationships());
+    }
+
+    @Benchmark
+    public CompiledFactorGraph buildAndCompileFactorGraph() {
+        return new FactorGraph(pedigree.sheep(), pedigree.relationships()).compile();
+    }
+
+    @Benchmark
+    public PropagationResult recalculateAllMessages() {
+        return uniform.recalculateAllMessages();
+    }
+
+    @Benchmark
+    public List<Map<Category, Map<String, Double>>> computeBeliefs() {
+        return converged.computeBeliefs();
+    }
+}
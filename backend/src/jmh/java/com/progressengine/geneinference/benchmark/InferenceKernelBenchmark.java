@@ -0,0 +1,69 @@
+package com.progressengine.geneinference.benchmark;
+
+import com.progressengine.geneinference.model.*;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.InferenceMath;
+import com.progressengine.geneinference.service.SyntheticPedigreeService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single computations inside message passing and prediction, taken from the busiest relationship
+ * of a synthetic flock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InferenceKernelBenchmark {
+
+    @Param({"1000"})
+    int sheepCount;
+
+    private FactorGraph graph;
+    private Message childMessage;
+    private Relationship relationship;
+    private BirthRecord birthRecord;
+
+    @Setup(Level.Trial)
+    public void generatePedigree() {
+        SyntheticPedigree pedigree = SyntheticPedigreeService.assignIds(
+                SyntheticPedigreeService.generate(PedigreeSpec.ofSize(sheepCount, 0.1, 42)));
+        graph = new FactorGraph(pedigree.sheep(), pedigree.relationships());
+
+        relationship = pedigree.relationships().stream()
+                .max(Comparator.comparingInt(candidate -> candidate.getBirthRecords().size()))
+                .orElseThrow();
+        birthRecord = relationship.getBirthRecords().iterator().next();
+
+        Sheep child = birthRecord.getChild();
+        childMessage = graph.incomingMessagesForSheep(child).stream()
+                .filter(ChildMessage.class::isInstance)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Benchmark
+    public Map<Category, Map<String, Double>> childMessageComputeMessage() {
+        return graph.computeMessage(childMessage);
+    }
+
+    // taking a birth out and putting it back updates the cached log scores in place, so each call
+    // pays for two incremental updates and one normalization of the joint
+    @Benchmark
+    public Map<Category, Map<AlleleCodePair, Double>> relationshipJointDistributions() {
+        relationship.removeBirthRecord(birthRecord);
+        relationship.addBirthRecord(birthRecord);
+        return relationship.getJointDistributions();
+    }
+
+    @Benchmark
+    public Map<Category, Map<String, Double>> predictChildrenDistributions() {
+        return InferenceMath.predictChildrenDistributions(relationship.getParent1(), relationship.getParent2());
+    }
+}
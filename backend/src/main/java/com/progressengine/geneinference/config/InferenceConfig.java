@@ -0,0 +1,31 @@
+package com.progressengine.geneinference.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+@Configuration
+public class InferenceConfig {
+
+    // message passing runs a worker per component and category, so a flock keeps every core busy;
+    // inference.parallelism above 0 overrides the core count
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool inferencePool(
+            @Value("${inference.parallelism:0}") int parallelism
+    ) {
+        int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(workers);
+    }
+
+    // runs background recalculations; each one parallelizes its message passing on the inference pool
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService recalculationExecutor(
+            @Value("${inference.jobs.concurrency:2}") int concurrency
+    ) {
+        return Executors.newFixedThreadPool(concurrency);
+    }
+}
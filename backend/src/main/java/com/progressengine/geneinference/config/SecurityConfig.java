@@ -1,16 +1,47 @@
 package com.progressengine.geneinference.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
 public class SecurityConfig {
 
+    // Prometheus cannot present a user's JWT, so the scrape endpoint takes a static basic auth
+    // credential from config instead; without a password it is closed
     @Bean
+    @Order(1)
+    SecurityFilterChain metricsSecurityFilterChain(
+            HttpSecurity http,
+            @Value("${metrics.scrape.username:prometheus}") String username,
+            @Value("${metrics.scrape.password:}") String password
+    ) throws Exception {
+        http
+                .securityMatcher("/actuator/prometheus")
+                .csrf(AbstractHttpConfigurer::disable)
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+        if (password.isBlank()) {
+            return http.authorizeHttpRequests(auth -> auth.anyRequest().denyAll()).build();
+        }
+        return http
+                .authorizeHttpRequests(auth -> auth.anyRequest().authenticated())
+                .httpBasic(Customizer.withDefaults())
+                .userDetailsService(new InMemoryUserDetailsManager(User.withUsername(username)
+                        .password("{noop}" + password)
+                        .build()))
+                .build();
+    }
+
+    @Bean
+    @Order(2)
     SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         return http
                 .csrf(AbstractHttpConfigurer::disable)
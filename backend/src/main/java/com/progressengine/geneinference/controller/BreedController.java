@@ -3,15 +3,22 @@ package com.progressengine.geneinference.controller;
 import com.progressengine.geneinference.dto.SheepBreedRequestDTO;
 import com.progressengine.geneinference.mapper.DomainMapper;
 import com.progressengine.geneinference.model.BirthRecord;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.Grade;
 import com.progressengine.geneinference.service.BreedingService;
+import com.progressengine.geneinference.service.RecalculationJobService;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.UUID;
 
 @RestController
@@ -19,9 +26,11 @@ import java.util.UUID;
 @RequestMapping(value = "/breed")
 public class BreedController {
     private  final BreedingService breedingService;
+    private final RecalculationJobService recalculationJobService;
 
-    public BreedController(BreedingService breedingService) {
+    public BreedController(BreedingService breedingService, RecalculationJobService recalculationJobService) {
         this.breedingService = breedingService;
+        this.recalculationJobService = recalculationJobService;
     }
 
     @PostMapping(value = "/{sheep1Id}/{sheep2Id}")
@@ -64,10 +73,46 @@ public class BreedController {
         return ResponseEntity.ok(breedingService.bestPredictions(userId));
     }
 
+    @GetMapping("/pairings")
+    public ResponseEntity<?> getPairings(@RequestParam(name = "category", required = false) List<Category> categories,
+                                         @PositiveOrZero @RequestParam(defaultValue = "0") int page,
+                                         @Positive @Max(100) @RequestParam(defaultValue = "20") int size,
+                                         @AuthenticationPrincipal Jwt jwt
+    ) {
+        UUID userId = UUID.fromString(jwt.getSubject());
+        return ResponseEntity.ok(breedingService.pairingLeaderboard(userId, categories == null ? List.of() : categories, page, size));
+    }
+
+    @GetMapping("/plans")
+    public ResponseEntity<?> getBreedingPlans(@RequestParam(name = "category") List<Category> categories,
+                                              @RequestParam(defaultValue = "S") Grade grade,
+                                              @Positive @Max(5) @RequestParam(defaultValue = "3") int generations,
+                                              @Positive @Max(50) @RequestParam(defaultValue = "10") int limit,
+                                              @Positive @Max(10_000) @RequestParam(defaultValue = "2000") long budgetMs,
+                                              @AuthenticationPrincipal Jwt jwt
+    ) {
+        UUID userId = UUID.fromString(jwt.getSubject());
+        return ResponseEntity.ok(breedingService.planBreeding(userId, categories, grade, generations, limit, Duration.ofMillis(budgetMs)));
+    }
+
     @PostMapping("/recalculate-beliefs")
-    public ResponseEntity<?> recalculateBeliefs(@AuthenticationPrincipal Jwt jwt) {
+    public ResponseEntity<?> recalculateBeliefs(@RequestParam(defaultValue = "false") boolean coldStart,
+                                                @AuthenticationPrincipal Jwt jwt
+    ) {
+        UUID userId = UUID.fromString(jwt.getSubject());
+        return ResponseEntity.accepted().body(DomainMapper.toResponseDTO(recalculationJobService.submit(userId, coldStart)));
+    }
+
+    @GetMapping("/recalculate-beliefs/{jobId}")
+    public ResponseEntity<?> getRecalculation(@PathVariable String jobId, @AuthenticationPrincipal Jwt jwt) {
+        UUID userId = UUID.fromString(jwt.getSubject());
+        return ResponseEntity.ok(DomainMapper.toResponseDTO(recalculationJobService.getJob(userId, jobId)));
+    }
+
+    @DeleteMapping("/recalculate-beliefs/{jobId}")
+    public ResponseEntity<?> cancelRecalculation(@PathVariable String jobId, @AuthenticationPrincipal Jwt jwt) {
         UUID userId = UUID.fromString(jwt.getSubject());
-        return ResponseEntity.ok(breedingService.recalculateAll(userId));
+        return ResponseEntity.ok(DomainMapper.toResponseDTO(recalculationJobService.cancel(userId, jobId)));
     }
 
 }
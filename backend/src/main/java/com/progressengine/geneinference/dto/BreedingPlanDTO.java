@@ -0,0 +1,27 @@
+package com.progressengine.geneinference.dto;
+
+import java.util.List;
+
+/**
+ * A plan of pairings over one or more generations, with the chance that its last child reaches the
+ * target grade in every target category.
+ */
+public record BreedingPlanDTO(
+        double probability,
+        int generations,
+        List<Step> steps
+) {
+    /**
+     * One pairing of the plan, made after the steps before it.
+     *
+     * @param probability the chance that this pairing's child reaches the target grade in every category
+     */
+    public record Step(Parent parent1, Parent parent2, double probability) {}
+
+    /**
+     * A sheep of the flock, or the child bred by an earlier step of the plan.
+     *
+     * @param step the index of that step, null for a sheep
+     */
+    public record Parent(SheepSummaryResponseDTO sheep, Integer step) {}
+}
@@ -0,0 +1,12 @@
+package com.progressengine.geneinference.dto;
+
+import java.util.List;
+
+/**
+ * The best breeding plans found, from the most likely. When the search ran out of time, later
+ * generations were not searched in full and better plans may exist.
+ */
+public record BreedingPlanResponseDTO(
+        List<BreedingPlanDTO> plans,
+        boolean complete
+) {}
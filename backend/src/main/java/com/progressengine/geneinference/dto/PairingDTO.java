@@ -0,0 +1,17 @@
+package com.progressengine.geneinference.dto;
+
+import com.progressengine.geneinference.model.enums.Category;
+
+import java.util.Map;
+
+/**
+ * One entry of the pairing leaderboard. Expected grades are ranks, from 0 for E to 5 for S, and the
+ * score is their average over the categories ranked by.
+ */
+public record PairingDTO(
+        SheepSummaryResponseDTO parent1,
+        SheepSummaryResponseDTO parent2,
+        double score,
+        Map<Category, Double> expectedGrades,
+        Map<Category, Map<String, Double>> phenotypeDistributions
+) {}
@@ -0,0 +1,27 @@
+package com.progressengine.geneinference.dto;
+
+import com.progressengine.geneinference.model.enums.RecalculationJobStatus;
+
+import java.time.Instant;
+
+/**
+ * Status of a background belief recalculation. The message passing outcome is set once the job
+ * has completed; the beliefs themselves are saved on the sheep.
+ */
+public record RecalculationJobDTO(
+        String jobId,
+        RecalculationJobStatus status,
+        boolean coldStart,
+        Instant submittedAt,
+        Instant finishedAt,
+        long updates,
+        double residual,
+        int componentsSolved,
+        int componentCount,
+        int sheepSaved,
+        int sheepCount,
+        boolean converged,
+        int unconvergedComponents,
+        int dampedMessages,
+        String error
+) {}
@@ -0,0 +1,17 @@
+package com.progressengine.geneinference.dto;
+
+import com.progressengine.geneinference.model.enums.Category;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Beliefs from a full recalculation, with whether message passing settled. When it did not,
+ * some of the beliefs come from messages that were still moving.
+ */
+public record RecalculationResponseDTO(
+        List<Map<Category, Map<String, Double>>> beliefs,
+        boolean converged,
+        int unconvergedComponents,
+        int dampedMessages
+) {}
@@ -0,0 +1,31 @@
+package com.progressengine.geneinference.maintenance;
+
+import com.progressengine.geneinference.service.DistributionVectorBackfillService;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+
+@Component
+public class DistributionVectorBackfillRunner implements CommandLineRunner {
+    private final DistributionVectorBackfillService backfillService;
+
+    public DistributionVectorBackfillRunner(DistributionVectorBackfillService backfillService) {
+        this.backfillService = backfillService;
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!Arrays.asList(args).contains("--backfill-distribution-vectors")) {
+            return;
+        }
+
+        System.out.println("RUNNING DISTRIBUTION VECTOR BACKFILL");
+
+        backfillService.backfillDistributionVectors();
+
+        System.out.println("DONE");
+
+        System.exit(0);
+    }
+}
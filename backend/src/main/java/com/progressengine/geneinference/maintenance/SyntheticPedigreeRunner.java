@@ -0,0 +1,67 @@
+package com.progressengine.geneinference.maintenance;
+
+import com.progressengine.geneinference.model.PedigreeSpec;
+import com.progressengine.geneinference.model.SyntheticPedigree;
+import com.progressengine.geneinference.service.SyntheticPedigreeService;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Seeds a user's flock with a synthetic pedigree, e.g.
+ * {@code --seed-synthetic-pedigree --user=<uuid> --founders=50 --generations=6 --litter=2 --partners=2 --inbreeding=0.1 --max-sheep=1000 --seed=42}.
+ * Without {@code --user} the flock is only generated and its size printed.
+ */
+@Component
+public class SyntheticPedigreeRunner implements CommandLineRunner {
+    private final SyntheticPedigreeService syntheticPedigreeService;
+
+    public SyntheticPedigreeRunner(SyntheticPedigreeService syntheticPedigreeService) {
+        this.syntheticPedigreeService = syntheticPedigreeService;
+    }
+
+    @Override
+    public void run(String... args) {
+        List<String> arguments = Arrays.asList(args);
+        if (!arguments.contains("--seed-synthetic-pedigree")) {
+            return;
+        }
+
+        PedigreeSpec spec = new PedigreeSpec(
+                Integer.parseInt(option(arguments, "founders", "20")),
+                Integer.parseInt(option(arguments, "generations", "5")),
+                Integer.parseInt(option(arguments, "litter", "2")),
+                Integer.parseInt(option(arguments, "partners", "1")),
+                Double.parseDouble(option(arguments, "inbreeding", "0.1")),
+                Integer.parseInt(option(arguments, "max-sheep", "0")),
+                Long.parseLong(option(arguments, "seed", "42"))
+        );
+        String user = option(arguments, "user", null);
+
+        SyntheticPedigree pedigree = SyntheticPedigreeService.generate(spec);
+        System.out.println("GENERATED " + pedigree.sheep().size() + " sheep, " + pedigree.relationships().size() + " relationships");
+
+        if (user == null) {
+            System.out.println("DRY RUN");
+        } else {
+            syntheticPedigreeService.persist(UUID.fromString(user), pedigree);
+            System.out.println("SAVED for user " + user);
+        }
+
+        System.out.println("DONE");
+
+        System.exit(0);
+    }
+
+    private static String option(List<String> arguments, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        return arguments.stream()
+                .filter(argument -> argument.startsWith(prefix))
+                .map(argument -> argument.substring(prefix.length()))
+                .findFirst()
+                .orElse(defaultValue);
+    }
+}
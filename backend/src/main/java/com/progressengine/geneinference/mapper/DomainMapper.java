@@ -4,6 +4,7 @@ import com.progressengine.geneinference.dto.*;
 import com.progressengine.geneinference.model.enums.Category;
 import org.springframework.data.domain.Page;
 import com.progressengine.geneinference.model.BirthRecord;
+import com.progressengine.geneinference.model.RecalculationJob;
 import com.progressengine.geneinference.model.Relationship;
 import com.progressengine.geneinference.model.Sheep;
 
@@ -81,6 +82,26 @@ public class DomainMapper {
         return dto;
     }
 
+    public static RecalculationJobDTO toResponseDTO(RecalculationJob job) {
+        return new RecalculationJobDTO(
+                job.getJobId(),
+                job.getStatus(),
+                job.isColdStart(),
+                job.getSubmittedAt(),
+                job.getFinishedAt(),
+                job.getUpdates(),
+                job.getResidual(),
+                job.getComponentsSolved(),
+                job.getComponentCount(),
+                job.getSheepSaved(),
+                job.getSheepCount(),
+                job.isConverged(),
+                job.getUnconvergedComponents(),
+                job.getDampedMessages(),
+                job.getError()
+        );
+    }
+
     public static <T> PageResponse<T> toResponseDTO(Page<T> page) {
         return new PageResponse<>(
                 page.getContent(),
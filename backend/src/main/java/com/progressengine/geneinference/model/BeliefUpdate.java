@@ -0,0 +1,20 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of propagating the changes since a {@link MessageSnapshot}.
+ *
+ * @param propagation the message passing work, per component that had changes
+ * @param changedSheep the sheep whose inferred distributions moved
+ * @param changedBeliefs the new inferred distributions of {@code changedSheep}, in the same order
+ */
+public record BeliefUpdate(
+        PropagationResult propagation,
+        List<Sheep> changedSheep,
+        List<Map<Category, Map<String, Double>>> changedBeliefs
+) {
+}
@@ -0,0 +1,60 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
+
+import java.util.Arrays;
+
+/**
+ * Allele ordinals of the phenotypes recorded at a sheep's birth, per category, resolved once so
+ * message updates do not re-parse the birth record codes.
+ */
+final class BirthEvidence {
+    private static final int MISSING = -1;
+    private static final BirthEvidence NONE = new BirthEvidence(null);
+
+    // [category.ordinal() * 3 + 0: parent1, 1: parent2, 2: child]
+    private final int[] ordinals = new int[Category.values().length * 3];
+
+    private BirthEvidence(BirthRecord birthRecord) {
+        Arrays.fill(ordinals, MISSING);
+        if (birthRecord == null) {
+            return;
+        }
+
+        for (BirthRecordPhenotype phenotype : birthRecord.getPhenotypesAtBirth()) {
+            Category category = phenotype.getCategory();
+            AlleleDomain<?> domain = CategoryDomains.domainFor(category);
+            int base = category.ordinal() * 3;
+            ordinals[base] = ordinal(domain, phenotype.getParent1PhenotypeCode());
+            ordinals[base + 1] = ordinal(domain, phenotype.getParent2PhenotypeCode());
+            ordinals[base + 2] = ordinal(domain, phenotype.getChildPhenotypeCode());
+        }
+    }
+
+    static BirthEvidence of(Sheep sheep) {
+        BirthRecord birthRecord = sheep.getBirthRecord();
+        return birthRecord == null ? NONE : new BirthEvidence(birthRecord);
+    }
+
+    private static int ordinal(AlleleDomain<?> domain, String code) {
+        return domain.parse(code).ordinal();
+    }
+
+    boolean has(Category category) {
+        return ordinals[category.ordinal() * 3] != MISSING;
+    }
+
+    int parent1(Category category) {
+        return ordinals[category.ordinal() * 3];
+    }
+
+    int parent2(Category category) {
+        return ordinals[category.ordinal() * 3 + 1];
+    }
+
+    int child(Category category) {
+        return ordinals[category.ordinal() * 3 + 2];
+    }
+}
@@ -4,9 +4,11 @@ import com.progressengine.geneinference.model.enums.Category;
 import com.progressengine.geneinference.model.enums.Allele;
 import com.progressengine.geneinference.service.InferenceMath;
 import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleKernel;
 import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 import com.progressengine.geneinference.service.SheepService;
 
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
@@ -15,14 +17,11 @@ import java.util.Map;
 public class ChildMessage extends RelationshipMessage {
     private final Node<Relationship> source;
     private final Node<Sheep> target;
+    private BirthEvidence targetBirthEvidence;
 
     public ChildMessage(Node<Relationship> source, Node<Sheep> target) {
         this.source = source;
         this.target = target;
-        this.distribution = new EnumMap<>(Category.class);
-        for (Category category : Category.values()) {
-            initializeUniform(category);
-        }
     }
 
     @Override
@@ -35,6 +34,11 @@ public class ChildMessage extends RelationshipMessage {
         return target;
     }
 
+    @Override
+    void prepareForConcurrentUpdates() {
+        targetBirthEvidence();
+    }
+
     @Override
     public Map<Category, Map<String, Double>> computeMessage(List<Message> messages) {
         Relationship relationship = source.getValue();
@@ -108,6 +112,62 @@ public class ChildMessage extends RelationshipMessage {
         return accumulateConditionalsForCategory(category, jointDistribution, child);
     }
 
+    @Override
+    void computeMessageForCategory(Category category, List<Message> messages, MessageWorkspace workspace) {
+        Relationship relationship = source.getValue();
+        AlleleKernel kernel = CategoryDomains.kernelFor(category);
+        int width = kernel.size();
+        int offset = offset(category);
+
+        double[] joint = workspace.joint;
+        System.arraycopy(relationship.getJointDistributionArray(category), 0, joint, 0, width * width);
+
+        // incorporate the parent messages into the joint distribution
+        double[] parent1Dist = messages.get(0).values();
+        double[] parent2Dist = messages.get(1).values();
+        for (int first = 0; first < width; first++) {
+            for (int second = 0; second < width; second++) {
+                joint[first * width + second] *= parent1Dist[offset + first] * parent2Dist[offset + second];
+            }
+        }
+        InferenceMath.normalizeScores(joint, 0, width * width);
+
+        for (int i = 2; i < messages.size(); i++) {
+            incorporateChildMessageForCategory(category, kernel, joint, messages.get(i));
+        }
+
+        // accumulate the conditional hidden distributions of the child, weighted by the joint
+        double[] out = workspace.result;
+        BirthEvidence evidence = targetBirthEvidence();
+        if (!evidence.has(category)) {
+            Arrays.fill(out, 0, width, 1.0 / width);
+            return;
+        }
+
+        double[] conditionals = kernel.childHiddenBlock(
+                evidence.parent1(category),
+                evidence.parent2(category),
+                evidence.child(category)
+        );
+
+        Arrays.fill(out, 0, width, 0.0);
+        for (int pair = 0; pair < width * width; pair++) {
+            double jointWeight = joint[pair];
+            int base = pair * width;
+            for (int allele = 0; allele < width; allele++) {
+                out[allele] += jointWeight * conditionals[base + allele];
+            }
+        }
+        InferenceMath.normalizeScores(out, 0, width);
+    }
+
+    private BirthEvidence targetBirthEvidence() {
+        if (targetBirthEvidence == null) {
+            targetBirthEvidence = BirthEvidence.of(target.getValue());
+        }
+        return targetBirthEvidence;
+    }
+
     private void incorporateParents(
         Map<Category, Map<AlleleCodePair, Double>> jointDistributions,
         Message parent1Message,
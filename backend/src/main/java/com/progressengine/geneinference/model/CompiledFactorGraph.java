@@ -0,0 +1,1382 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Allele;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import com.progressengine.geneinference.model.enums.MessageSchedule;
+import com.progressengine.geneinference.service.InferenceMath;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Index-based form of a {@link FactorGraph} used for message passing.
+ * <p>
+ * Sheep, relationships and directed edges get dense int ids. Adjacency, the operand list of
+ * every edge and the dependents of every edge are stored in compressed-sparse-row arrays, so
+ * a message update walks int slices instead of hashing {@link NodePair}s. Sheep occupy node ids
+ * {@code [0, sheepCount)} and relationships follow. A message update task is encoded as
+ * {@code edgeId * CATEGORY_COUNT + category.ordinal()}.
+ * <p>
+ * Nodes are also grouped into connected components, since separate breeding lines never exchange
+ * messages. Propagation runs per component, and a sheep with no relationships is a component of
+ * its own with no messages at all. A component without cycles is solved exactly in two passes,
+ * the others by loopy belief propagation.
+ * <p>
+ * The messages leaving a relationship are computed from a {@link RelationshipFactor} per category,
+ * which keeps the product of the child messages and is updated whenever one of them is stored, so
+ * the messages to a prolific pairing's lambs never pass over all of their siblings' messages again.
+ * The messages leaving a sheep with many relationships likewise share a {@link SheepVariable}.
+ * <p>
+ * Loopy propagation watches every message for oscillation: when the largest change of a message
+ * reverses direction on several consecutive updates, later updates of that message are damped
+ * towards its previous value, more strongly each time it keeps oscillating. A message that still
+ * oscillates at the strongest damping is frozen and its component reported as not converged,
+ * rather than spending the rest of the iteration cap on it.
+ */
+public class CompiledFactorGraph {
+    static final Category[] CATEGORIES = Category.values();
+    static final int CATEGORY_COUNT = CATEGORIES.length;
+
+    private static final long NO_KEY = Long.MIN_VALUE;
+
+    // consecutive reversals of a message's largest change before its damping is raised; a reversal
+    // only counts if the change shrank by less than REVERSAL_DECAY, since decaying swings converge anyway
+    private static final int OSCILLATION_REVERSALS = 3;
+    private static final double REVERSAL_DECAY = 0.9;
+    private static final double INITIAL_DAMPING = 0.5;
+    private static final double MAX_DAMPING = 0.875;
+    // damping of a frozen message, which is never recomputed again in the run
+    private static final double FROZEN = 1.0;
+    // recomputations between a worker's progress reports and cancellation checks, a power of two
+    private static final int PROGRESS_INTERVAL = 4096;
+
+    // sheep with fewer relationships compute each message directly, which is cheaper than taking logs
+    private static final int SHEEP_VARIABLE_MIN_DEGREE = 4;
+
+    // object headers and references around each message and node, for estimatedBytes()
+    private static final int MESSAGE_OVERHEAD_BYTES = 64;
+    private static final int NODE_OVERHEAD_BYTES = 48;
+
+    private final Node<?>[] nodes;
+    private final int sheepCount;
+    private final Map<Sheep, Integer> sheepIds;
+    // persisted identity of each node for message snapshots, NO_KEY if it has no id yet
+    private final long[] nodeKeys;
+
+    // adjacency CSR: slots [adjacencyOffsets[n], adjacencyOffsets[n + 1]) belong to node n
+    private final int[] adjacencyOffsets;
+    private final int[] adjacencyNodes;
+    private final int[] outgoingEdges;
+    private final int[] incomingEdges;
+    // messages into each node, in slot order
+    private final List<List<Message>> incomingLists;
+    // relationship nodes whose first two slots are both parents, so that all of their messages of a
+    // category are computed from one RelationshipFactor, indexed by node - sheepCount
+    private final boolean[] factorRelationships;
+    // the products kept for those relationships and for sheep with many relationships, indexed by
+    // node * CATEGORY_COUNT + category ordinal, counting relationships from sheepCount; created on
+    // first use, and per category so that workers of different categories never share one
+    private final RelationshipFactor[] relationshipFactors;
+    private final SheepVariable[] sheepVariables;
+    // the position of each edge among the messages into its target, in slot order
+    private final int[] targetPositions;
+
+    private final Message[] messages;
+    private final int[] edgeSources;
+    private final int[] edgeTargets;
+
+    // operands of edge e are the messages into its source, except the one coming back from its target
+    private final int[] operandOffsets;
+    private final int[] operandEdges;
+    private final List<List<Message>> operandLists;
+
+    // dependents of edge e are the messages out of its target, except the one going back to its source
+    private final int[] dependentOffsets;
+    private final int[] dependentEdges;
+
+    // connected components, numbered in order of their lowest node id; edges are grouped by component in CSR form
+    private final int componentCount;
+    private final int[] componentOfNode;
+    private final int[] componentSheepCounts;
+    private final int[] componentRelationshipCounts;
+    private final int[] componentEdgeOffsets;
+    private final int[] componentEdges;
+
+    // breadth-first order of each component from its lowest node, in slices [componentNodeOffsets[c], componentNodeOffsets[c + 1])
+    private final int[] spanningOrder;
+    private final int[] componentNodeOffsets;
+    // the edge from each node to the node it was reached from, -1 at a component's first node
+    private final int[] parentEdges;
+    // components without cycles, solved exactly by one pass up and one pass down the spanning order
+    private final boolean[] componentIsTree;
+
+    // receives each recomputed category slice before it is compared and stored
+    private final MessageWorkspace workspace = new MessageWorkspace();
+
+    CompiledFactorGraph(
+            Collection<Node<Sheep>> sheepNodes,
+            Collection<Node<Relationship>> relationshipNodes,
+            Map<Node<?>, List<Node<?>>> adjacencyMatrix,
+            Map<NodePair, Message> messageMap
+    ) {
+        this.sheepCount = sheepNodes.size();
+        this.nodes = new Node<?>[sheepCount + relationshipNodes.size()];
+        this.sheepIds = new HashMap<>();
+
+        Map<Node<?>, Integer> nodeIds = new IdentityHashMap<>();
+        int nextNodeId = 0;
+        for (Node<Sheep> sheepNode : sheepNodes) {
+            sheepIds.put(sheepNode.getValue(), nextNodeId);
+            nodeIds.put(sheepNode, nextNodeId);
+            nodes[nextNodeId++] = sheepNode;
+        }
+        for (Node<Relationship> relationshipNode : relationshipNodes) {
+            nodeIds.put(relationshipNode, nextNodeId);
+            nodes[nextNodeId++] = relationshipNode;
+        }
+
+        this.nodeKeys = new long[nodes.length];
+        for (int node = 0; node < nodes.length; node++) {
+            nodeKeys[node] = nodeKey(nodes[node]);
+        }
+
+        this.adjacencyOffsets = new int[nodes.length + 1];
+        for (int node = 0; node < nodes.length; node++) {
+            adjacencyOffsets[node + 1] = adjacencyOffsets[node] + adjacencyMatrix.get(nodes[node]).size();
+        }
+
+        int slotCount = adjacencyOffsets[nodes.length];
+        this.adjacencyNodes = new int[slotCount];
+        for (int node = 0; node < nodes.length; node++) {
+            int slot = adjacencyOffsets[node];
+            for (Node<?> neighbor : adjacencyMatrix.get(nodes[node])) {
+                adjacencyNodes[slot++] = nodeIds.get(neighbor);
+            }
+        }
+
+        // every adjacency slot is exactly one outgoing edge, numbered in slot order
+        this.messages = new Message[slotCount];
+        this.edgeSources = new int[slotCount];
+        this.edgeTargets = new int[slotCount];
+        this.outgoingEdges = new int[slotCount];
+        for (int node = 0; node < nodes.length; node++) {
+            for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+                Message message = messageMap.get(new NodePair(nodes[node], nodes[adjacencyNodes[slot]]));
+                if (message == null) {
+                    throw new IllegalStateException("Factor graph has an adjacency without a message");
+                }
+                messages[slot] = message;
+                edgeSources[slot] = node;
+                edgeTargets[slot] = adjacencyNodes[slot];
+                outgoingEdges[slot] = slot;
+            }
+        }
+
+        this.incomingEdges = new int[slotCount];
+        this.targetPositions = new int[messages.length];
+        for (int node = 0; node < nodes.length; node++) {
+            for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+                incomingEdges[slot] = edgeBetween(adjacencyNodes[slot], node);
+                targetPositions[incomingEdges[slot]] = slot - adjacencyOffsets[node];
+            }
+        }
+
+        this.incomingLists = new ArrayList<>(nodes.length);
+        this.factorRelationships = new boolean[nodes.length - sheepCount];
+        this.relationshipFactors = new RelationshipFactor[(nodes.length - sheepCount) * CATEGORY_COUNT];
+        this.sheepVariables = new SheepVariable[sheepCount * CATEGORY_COUNT];
+        for (int node = 0; node < nodes.length; node++) {
+            Message[] incoming = new Message[degree(node)];
+            for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+                incoming[slot - adjacencyOffsets[node]] = messages[incomingEdges[slot]];
+            }
+            incomingLists.add(List.of(incoming));
+
+            if (node >= sheepCount) {
+                int first = adjacencyOffsets[node];
+                factorRelationships[node - sheepCount] = incoming.length >= 2
+                        && !(messages[first] instanceof ChildMessage)
+                        && !(messages[first + 1] instanceof ChildMessage);
+            }
+        }
+
+        int edgeCount = messages.length;
+        this.operandOffsets = new int[edgeCount + 1];
+        this.dependentOffsets = new int[edgeCount + 1];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            operandOffsets[edge + 1] = operandOffsets[edge] + degree(edgeSources[edge]) - 1;
+            dependentOffsets[edge + 1] = dependentOffsets[edge] + degree(edgeTargets[edge]) - 1;
+        }
+
+        this.operandEdges = new int[operandOffsets[edgeCount]];
+        this.dependentEdges = new int[dependentOffsets[edgeCount]];
+        this.operandLists = new ArrayList<>(edgeCount);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int source = edgeSources[edge];
+            int target = edgeTargets[edge];
+
+            int operandIndex = operandOffsets[edge];
+            Message[] operands = new Message[operandOffsets[edge + 1] - operandIndex];
+            for (int slot = adjacencyOffsets[source]; slot < adjacencyOffsets[source + 1]; slot++) {
+                if (adjacencyNodes[slot] == target) continue;
+                operands[operandIndex - operandOffsets[edge]] = messages[incomingEdges[slot]];
+                operandEdges[operandIndex++] = incomingEdges[slot];
+            }
+            operandLists.add(List.of(operands));
+
+            int dependentIndex = dependentOffsets[edge];
+            for (int slot = adjacencyOffsets[target]; slot < adjacencyOffsets[target + 1]; slot++) {
+                if (adjacencyNodes[slot] == source) continue;
+                dependentEdges[dependentIndex++] = outgoingEdges[slot];
+            }
+        }
+
+        // every edge joins a relationship to one of its parents or children
+        UnionFind components = new UnionFind(nodes.length);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            components.union(edgeSources[edge], edgeTargets[edge]);
+        }
+
+        int[] componentOfRoot = new int[nodes.length];
+        Arrays.fill(componentOfRoot, -1);
+        this.componentOfNode = new int[nodes.length];
+        int nextComponent = 0;
+        for (int node = 0; node < nodes.length; node++) {
+            int root = components.find(node);
+            if (componentOfRoot[root] < 0) {
+                componentOfRoot[root] = nextComponent++;
+            }
+            componentOfNode[node] = componentOfRoot[root];
+        }
+        this.componentCount = nextComponent;
+
+        this.componentSheepCounts = new int[componentCount];
+        this.componentRelationshipCounts = new int[componentCount];
+        for (int node = 0; node < nodes.length; node++) {
+            if (node < sheepCount) {
+                componentSheepCounts[componentOfNode[node]]++;
+            } else {
+                componentRelationshipCounts[componentOfNode[node]]++;
+            }
+        }
+
+        this.componentEdgeOffsets = new int[componentCount + 1];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            componentEdgeOffsets[componentOfNode[edgeSources[edge]] + 1]++;
+        }
+        for (int component = 0; component < componentCount; component++) {
+            componentEdgeOffsets[component + 1] += componentEdgeOffsets[component];
+        }
+        this.componentEdges = new int[edgeCount];
+        int[] componentFill = Arrays.copyOf(componentEdgeOffsets, componentCount);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            componentEdges[componentFill[componentOfNode[edgeSources[edge]]]++] = edge;
+        }
+
+        this.componentNodeOffsets = new int[componentCount + 1];
+        for (int component = 0; component < componentCount; component++) {
+            componentNodeOffsets[component + 1] = componentNodeOffsets[component]
+                    + componentSheepCounts[component] + componentRelationshipCounts[component];
+        }
+
+        // components are numbered by their lowest node, so starting a search from every unvisited
+        // node in id order lays the components out in component order
+        this.spanningOrder = new int[nodes.length];
+        this.parentEdges = new int[nodes.length];
+        boolean[] visited = new boolean[nodes.length];
+        int position = 0;
+        for (int root = 0; root < nodes.length; root++) {
+            if (visited[root]) continue;
+
+            visited[root] = true;
+            parentEdges[root] = -1;
+            int head = position;
+            spanningOrder[position++] = root;
+            while (head < position) {
+                int node = spanningOrder[head++];
+                for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+                    int neighbor = adjacencyNodes[slot];
+                    if (!visited[neighbor]) {
+                        visited[neighbor] = true;
+                        parentEdges[neighbor] = incomingEdges[slot];
+                        spanningOrder[position++] = neighbor;
+                    }
+                }
+            }
+        }
+
+        // a connected component is a tree exactly when it has one undirected edge fewer than nodes
+        this.componentIsTree = new boolean[componentCount];
+        for (int component = 0; component < componentCount; component++) {
+            int nodeCount = componentNodeOffsets[component + 1] - componentNodeOffsets[component];
+            componentIsTree[component] = componentEdgeCount(component) / 2 == nodeCount - 1;
+        }
+    }
+
+    private int degree(int node) {
+        return adjacencyOffsets[node + 1] - adjacencyOffsets[node];
+    }
+
+    private int edgeBetween(int source, int target) {
+        for (int slot = adjacencyOffsets[source]; slot < adjacencyOffsets[source + 1]; slot++) {
+            if (adjacencyNodes[slot] == target) {
+                return outgoingEdges[slot];
+            }
+        }
+        throw new IllegalStateException("Factor graph adjacency is not symmetric");
+    }
+
+    public int nodeCount() {
+        return nodes.length;
+    }
+
+    public int sheepCount() {
+        return sheepCount;
+    }
+
+    public int edgeCount() {
+        return messages.length;
+    }
+
+    public int taskCount() {
+        return messages.length * CATEGORY_COUNT;
+    }
+
+    public Message message(int edge) {
+        return messages[edge];
+    }
+
+    static int task(int edge, Category category) {
+        return edge * CATEGORY_COUNT + category.ordinal();
+    }
+
+    static int edgeOf(int task) {
+        return task / CATEGORY_COUNT;
+    }
+
+    static Category categoryOf(int task) {
+        return CATEGORIES[task % CATEGORY_COUNT];
+    }
+
+    public int estimatedMaxIterations() {
+        return maxIterations(messages.length, CATEGORY_COUNT);
+    }
+
+    private static int maxIterations(int edgeCount, int categoryCount) {
+        return edgeCount * categoryCount * 20;
+    }
+
+    /**
+     * @return a rough size of this graph's messages and index arrays in bytes, not counting the
+     * sheep and relationships it was compiled from
+     */
+    public long estimatedBytes() {
+        long messageBytes = (long) messages.length * (Message.valuesLength() * Double.BYTES + MESSAGE_OVERHEAD_BYTES);
+        long indexBytes = (long) Integer.BYTES * (adjacencyNodes.length * 4L + operandEdges.length + dependentEdges.length
+                + componentEdges.length + messages.length * 3L + nodes.length * 6L);
+        return messageBytes + indexBytes + productBytes() + (long) nodes.length * NODE_OVERHEAD_BYTES;
+    }
+
+    // the products once every relationship and sheep that keeps one has been computed from
+    private long productBytes() {
+        long pairs = 0;
+        for (Category category : CATEGORIES) {
+            pairs += (long) Message.width(category) * Message.width(category);
+        }
+        long bytes = (long) Long.BYTES * (relationshipFactors.length + sheepVariables.length);
+        for (boolean factor : factorRelationships) {
+            if (factor) {
+                bytes += pairs * (Double.BYTES + Integer.BYTES) + CATEGORY_COUNT * (long) NODE_OVERHEAD_BYTES;
+            }
+        }
+        for (int node = 0; node < sheepCount; node++) {
+            if (degree(node) >= SHEEP_VARIABLE_MIN_DEGREE) {
+                bytes += (long) Message.valuesLength() * (Double.BYTES + Integer.BYTES) + CATEGORY_COUNT * (long) NODE_OVERHEAD_BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Sets every message back to uniform, as freshly compiled, so the graph can be run again from
+     * scratch.
+     */
+    public void resetMessages() {
+        for (Message message : messages) {
+            for (Category category : CATEGORIES) {
+                message.initializeUniform(category);
+            }
+        }
+        unloadProducts();
+    }
+
+    public int componentCount() {
+        return componentCount;
+    }
+
+    /**
+     * @return the components with at least one relationship, which are the ones message passing solves
+     */
+    public int relationshipComponentCount() {
+        int count = 0;
+        for (int component = 0; component < componentCount; component++) {
+            if (componentEdgeCount(component) > 0) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the connected component of the sheep; sheep without relationships are alone in theirs
+     */
+    public int componentOf(Sheep sheep) {
+        return componentOfNode[sheepId(sheep)];
+    }
+
+    private int componentEdgeCount(int component) {
+        return componentEdgeOffsets[component + 1] - componentEdgeOffsets[component];
+    }
+
+    /**
+     * Builds the starting frontier: every message leaving a relationship, for every category.
+     */
+    TaskFrontier initialFrontier() {
+        TaskFrontier frontier = new TaskFrontier(taskCount());
+        for (int edge = 0; edge < messages.length; edge++) {
+            if (nodes[edgeSources[edge]] instanceof RelationshipNode) {
+                for (int c = 0; c < CATEGORY_COUNT; c++) {
+                    frontier.offerLast(edge * CATEGORY_COUNT + c);
+                }
+            }
+        }
+        return frontier;
+    }
+
+    public <A extends Enum<A> & Allele> Map<A, Double> computeMessageForCategory(int edge, Category category) {
+        return messages[edge].computeMessageForCategory(category, operandLists.get(edge));
+    }
+
+    /**
+     * Recomputes the message of the given task into the workspace without storing it.
+     *
+     * @return the squared L2 distance between the recomputed and the stored message
+     */
+    private double recompute(int task, MessageWorkspace workspace) {
+        int edge = edgeOf(task);
+        Category category = categoryOf(task);
+        Message message = messages[edge];
+
+        int source = edgeSources[edge];
+        if (source >= sheepCount && factorRelationships[source - sheepCount]) {
+            int index = (source - sheepCount) * CATEGORY_COUNT + category.ordinal();
+            RelationshipFactor factor = relationshipFactors[index];
+            if (factor == null) {
+                factor = new RelationshipFactor((Relationship) nodes[source].getValue(), category, incomingLists.get(source));
+                relationshipFactors[index] = factor;
+            }
+            return factor.computeMessage(edge - adjacencyOffsets[source], workspace, message);
+        }
+        if (source < sheepCount && degree(source) >= SHEEP_VARIABLE_MIN_DEGREE) {
+            int index = source * CATEGORY_COUNT + category.ordinal();
+            SheepVariable variable = sheepVariables[index];
+            if (variable == null) {
+                variable = new SheepVariable(category, incomingLists.get(source));
+                sheepVariables[index] = variable;
+            }
+            return variable.computeMessage(edge - adjacencyOffsets[source], workspace, message);
+        }
+
+        message.computeMessageForCategory(category, operandLists.get(edge), workspace);
+        return message.squaredDistance(category, workspace.result);
+    }
+
+    private void store(int task, MessageWorkspace workspace) {
+        Message message = messages[edgeOf(task)];
+        keepPrevious(message, categoryOf(task), workspace);
+        message.setDistributionForCategory(categoryOf(task), workspace.result);
+        stored(task, workspace);
+    }
+
+    private static void keepPrevious(Message message, Category category, MessageWorkspace workspace) {
+        System.arraycopy(message.values(), Message.offset(category), workspace.previous, 0, Message.width(category));
+    }
+
+    // a changed message into a node moves the product kept for it from workspace.previous to the stored message
+    private void stored(int task, MessageWorkspace workspace) {
+        int edge = edgeOf(task);
+        int target = edgeTargets[edge];
+        int categoryOrdinal = task % CATEGORY_COUNT;
+        if (target >= sheepCount) {
+            RelationshipFactor factor = relationshipFactors[(target - sheepCount) * CATEGORY_COUNT + categoryOrdinal];
+            if (factor != null) {
+                factor.childChanged(targetPositions[edge], workspace.previous);
+            }
+        } else {
+            SheepVariable variable = sheepVariables[target * CATEGORY_COUNT + categoryOrdinal];
+            if (variable != null) {
+                variable.incomingChanged(targetPositions[edge], workspace.previous);
+            }
+        }
+    }
+
+    /**
+     * Drops every kept product, for when messages may have been changed from outside; each is
+     * built again on first use.
+     */
+    private void unloadProducts() {
+        for (RelationshipFactor factor : relationshipFactors) {
+            if (factor != null) {
+                factor.unload();
+            }
+        }
+        for (SheepVariable variable : sheepVariables) {
+            if (variable != null) {
+                variable.unload();
+            }
+        }
+    }
+
+    /**
+     * @return how many times the products kept for the relationship were built from all of its
+     * messages, over every category; for tests
+     */
+    int productLoads(Relationship relationship) {
+        int loads = 0;
+        for (int node = sheepCount; node < nodes.length; node++) {
+            if (nodes[node].getValue() != relationship) continue;
+            for (int category = 0; category < CATEGORY_COUNT; category++) {
+                RelationshipFactor factor = relationshipFactors[(node - sheepCount) * CATEGORY_COUNT + category];
+                loads += factor == null ? 0 : factor.loads();
+            }
+        }
+        return loads;
+    }
+
+    /**
+     * @return how many times the products kept for the sheep were built from all of its messages,
+     * over every category; for tests
+     */
+    int productLoads(Sheep sheep) {
+        int loads = 0;
+        for (int node = 0; node < sheepCount; node++) {
+            if (nodes[node].getValue() != sheep) continue;
+            for (int category = 0; category < CATEGORY_COUNT; category++) {
+                SheepVariable variable = sheepVariables[node * CATEGORY_COUNT + category];
+                loads += variable == null ? 0 : variable.loads();
+            }
+        }
+        return loads;
+    }
+
+    /**
+     * Recomputes the message of the given task and stores it if it moved past the convergence threshold.
+     *
+     * @return {@code true} if the stored message changed
+     */
+    boolean updateTask(int task) {
+        return updateTask(task, workspace);
+    }
+
+    private boolean updateTask(int task, MessageWorkspace workspace) {
+        if (recompute(task, workspace) <= FactorGraph.CONVERGENCE_THRESHOLD) {
+            return false;
+        }
+
+        store(task, workspace);
+        return true;
+    }
+
+    /**
+     * Queues the same category of every message that reads the message of the given task.
+     */
+    void enqueueDependents(int task, TaskFrontier frontier) {
+        int edge = edgeOf(task);
+        int categoryOrdinal = task % CATEGORY_COUNT;
+        for (int i = dependentOffsets[edge]; i < dependentOffsets[edge + 1]; i++) {
+            frontier.offerLast(dependentEdges[i] * CATEGORY_COUNT + categoryOrdinal);
+        }
+    }
+
+    public PropagationResult recalculateAllMessages() {
+        return recalculateAllMessages(MessageSchedule.FIFO);
+    }
+
+    /**
+     * Solves each connected component in turn. Components without cycles are solved exactly in two
+     * passes; the others run loopy belief propagation until no message changes or the component's
+     * iteration cap is hit. Components without a relationship have no messages and are skipped;
+     * their beliefs are their priors.
+     *
+     * @param schedule the order in which pending message updates are processed
+     * @return how many message categories were recomputed and how many of those changed, per component
+     */
+    public PropagationResult recalculateAllMessages(MessageSchedule schedule) {
+        TaskTables tables = new TaskTables(schedule, taskCount(), PropagationMonitor.NONE);
+        unloadProducts();
+        List<ComponentPropagation> results = new ArrayList<>();
+        for (int component = 0; component < componentCount; component++) {
+            if (componentEdgeCount(component) > 0) {
+                ComponentPropagation result = solveComponent(schedule, component, CATEGORIES, workspace, tables);
+                results.add(result);
+                tables.monitor.componentSolved(result);
+            }
+        }
+        return PropagationResult.of(schedule, results);
+    }
+
+    public PropagationResult recalculateAllMessages(MessageSchedule schedule, ForkJoinPool pool) {
+        return recalculateAllMessages(schedule, pool, PropagationMonitor.NONE);
+    }
+
+    /**
+     * Solves every connected component and category on its own worker of the given pool, exactly
+     * for components without cycles and by loopy belief propagation otherwise.
+     * <p>
+     * Messages of different components never meet, and a message category is computed only from
+     * the same category of its operands, so each (component, category) pair is an independent
+     * propagation problem. Each worker owns a frontier and a workspace and writes only its category
+     * slice of its component's messages. State that the message computations fill in lazily, and
+     * that may need the caller's persistence session, is loaded on the calling thread before the
+     * workers start.
+     *
+     * @param schedule the order in which each worker processes its pending message updates
+     * @param pool the pool that runs the workers
+     * @param monitor receives progress from the workers and can cancel the run
+     * @return the work summed over all categories, per component
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the run; like any
+     * failure of a worker, it is thrown only once every worker has stopped
+     */
+    public PropagationResult recalculateAllMessages(MessageSchedule schedule, ForkJoinPool pool, PropagationMonitor monitor) {
+        prepareForConcurrentUpdates();
+        unloadProducts();
+
+        TaskTables tables = new TaskTables(schedule, taskCount(), monitor);
+        List<ForkJoinTask<ComponentPropagation>> workers = new ArrayList<>();
+        for (int component = 0; component < componentCount; component++) {
+            if (componentEdgeCount(component) == 0) continue;
+            for (Category category : CATEGORIES) {
+                int workerComponent = component;
+                Category[] categories = {category};
+                workers.add(pool.submit(() ->
+                        solveComponent(schedule, workerComponent, categories, new MessageWorkspace(), tables)));
+            }
+        }
+
+        // workers were submitted component by component, CATEGORY_COUNT at a time
+        List<ComponentPropagation> results = new ArrayList<>(workers.size() / CATEGORY_COUNT);
+        try {
+            for (int first = 0; first < workers.size(); first += CATEGORY_COUNT) {
+                ComponentPropagation merged = workers.get(first).join();
+                for (int i = first + 1; i < first + CATEGORY_COUNT; i++) {
+                    merged = merged.plus(workers.get(i).join());
+                }
+                results.add(merged);
+                monitor.componentSolved(merged);
+            }
+        } catch (RuntimeException e) {
+            // the workers write the graph's messages, so none may outlive the run: cancelling a
+            // ForkJoinTask does not stop it once started, so stop them through the tables and wait
+            tables.stopped = true;
+            workers.forEach(ForkJoinTask::quietlyJoin);
+            throw e;
+        }
+
+        return PropagationResult.of(schedule, results);
+    }
+
+    /**
+     * Fills every piece of state that message computations load lazily, such as the relationships'
+     * joint distributions. Afterwards propagation reads only this graph's own state, so it can run
+     * on other threads, or after the persistence session that loaded the flock has closed.
+     */
+    public void prepareForConcurrentUpdates() {
+        for (int node = sheepCount; node < nodes.length; node++) {
+            Relationship relationship = (Relationship) nodes[node].getValue();
+            for (Category category : CATEGORIES) {
+                relationship.getJointDistributionArray(category);
+            }
+        }
+        for (Message message : messages) {
+            message.prepareForConcurrentUpdates();
+        }
+    }
+
+    private ComponentPropagation solveComponent(
+            MessageSchedule schedule,
+            int component,
+            Category[] categories,
+            MessageWorkspace workspace,
+            TaskTables tables
+    ) {
+        checkCancelled(tables);
+        if (componentIsTree[component]) {
+            return propagateExactly(component, categories, workspace, tables);
+        }
+        int[] seeds = seedTasks(component, categories);
+        return propagate(schedule, component, seeds, categories.length, workspace, tables, null);
+    }
+
+    /**
+     * Sum-product on a tree component. Every message is computed once, first from the leaves up to
+     * the component's first node and then back down, so each is computed after all of its operands
+     * are final and no convergence check is needed.
+     */
+    private ComponentPropagation propagateExactly(int component, Category[] categories, MessageWorkspace workspace, TaskTables tables) {
+        long start = System.nanoTime();
+        int first = componentNodeOffsets[component];
+        int end = componentNodeOffsets[component + 1];
+        Work work = new Work();
+        checkCancelled(tables);
+
+        // leaves to root: a node sends up once everything below it has sent
+        for (int i = end - 1; i > first; i--) {
+            int edge = parentEdges[spanningOrder[i]];
+            for (Category category : categories) {
+                solveTask(task(edge, category), workspace, work);
+            }
+        }
+
+        // root to leaves: a node sends down once its own parent has sent
+        for (int i = first; i < end; i++) {
+            int node = spanningOrder[i];
+            for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+                int edge = outgoingEdges[slot];
+                if (edge == parentEdges[node]) continue;
+                for (Category category : categories) {
+                    solveTask(task(edge, category), workspace, work);
+                }
+            }
+        }
+
+        reportProgress(work, tables);
+        return componentResult(component, true, work, start);
+    }
+
+    /**
+     * Stores the recomputed message of the task whether or not it moved, counting it as an update
+     * if it moved past the convergence threshold.
+     */
+    private void solveTask(int task, MessageWorkspace workspace, Work work) {
+        work.computations++;
+        double squaredChange = recompute(task, workspace);
+        if (squaredChange > FactorGraph.CONVERGENCE_THRESHOLD) {
+            work.countUpdate(task, Math.sqrt(squaredChange));
+        }
+        store(task, workspace);
+    }
+
+    /**
+     * Propagates one component from the given seed tasks.
+     *
+     * @param categoryCount how many categories the seeds and everything they reach span
+     * @param updatedTargets if not null, set for the target node of every message that changed
+     */
+    private ComponentPropagation propagate(
+            MessageSchedule schedule,
+            int component,
+            int[] seeds,
+            int categoryCount,
+            MessageWorkspace workspace,
+            TaskTables tables,
+            boolean[] updatedTargets
+    ) {
+        long start = System.nanoTime();
+        int capacity = componentEdgeCount(component) * categoryCount;
+        int maxIterations = maxIterations(componentEdgeCount(component), categoryCount);
+
+        Work work = switch (schedule) {
+            case FIFO -> propagateInFifoOrder(
+                    seeds,
+                    new TaskFrontier(capacity, tables.queued),
+                    workspace,
+                    tables,
+                    maxIterations,
+                    updatedTargets
+            );
+            case RESIDUAL -> propagateByResidual(
+                    seeds,
+                    new IndexedTaskHeap(capacity, tables.heapPositions, tables.priorities),
+                    workspace,
+                    tables,
+                    maxIterations,
+                    updatedTargets
+            );
+        };
+
+        return componentResult(component, false, work, start);
+    }
+
+    private ComponentPropagation componentResult(int component, boolean exact, Work work, long start) {
+        Map<Category, Integer> updatesByCategory = new EnumMap<>(Category.class);
+        for (Category category : CATEGORIES) {
+            if (work.categoryUpdates[category.ordinal()] > 0) {
+                updatesByCategory.put(category, work.categoryUpdates[category.ordinal()]);
+            }
+        }
+
+        return new ComponentPropagation(
+                component,
+                componentSheepCounts[component],
+                componentRelationshipCounts[component],
+                exact,
+                work.converged(),
+                work.computations,
+                work.updates,
+                Collections.unmodifiableMap(updatesByCategory),
+                work.dampedMessages,
+                work.peakPending,
+                System.nanoTime() - start
+        );
+    }
+
+    /**
+     * @return the starting tasks of a component: every message leaving one of its relationships,
+     * for each of the given categories
+     */
+    private int[] seedTasks(int component, Category[] categories) {
+        int[] seeds = new int[componentEdgeCount(component) * categories.length];
+        int count = 0;
+        for (int i = componentEdgeOffsets[component]; i < componentEdgeOffsets[component + 1]; i++) {
+            int edge = componentEdges[i];
+            if (nodes[edgeSources[edge]] instanceof RelationshipNode) {
+                for (Category category : categories) {
+                    seeds[count++] = task(edge, category);
+                }
+            }
+        }
+        return Arrays.copyOf(seeds, count);
+    }
+
+    private Work propagateInFifoOrder(
+            int[] seeds,
+            TaskFrontier frontier,
+            MessageWorkspace workspace,
+            TaskTables tables,
+            int maxIterations,
+            boolean[] updatedTargets
+    ) {
+        for (int task : seeds) {
+            frontier.offerLast(task);
+        }
+
+        Work work = new Work();
+        work.peakPending = frontier.size();
+        while (!frontier.isEmpty() && work.updates < maxIterations) {
+            int task = frontier.pollFirst();
+            if (step(task, workspace, tables, work) > 0.0) {
+                enqueueDependents(task, frontier);
+                markTarget(task, updatedTargets);
+                work.peakPending = Math.max(work.peakPending, frontier.size());
+            }
+            if ((work.computations & (PROGRESS_INTERVAL - 1)) == 0) {
+                reportProgress(work, tables);
+            }
+        }
+
+        work.capped = !frontier.isEmpty();
+        reportProgress(work, tables);
+        return work;
+    }
+
+    /**
+     * Residual belief propagation: a pending task's priority is the summed L2 change of its
+     * operands since the task was last computed, and the largest is recomputed first. Tasks whose
+     * operands moved less than the convergence epsilon in total are never recomputed.
+     */
+    private Work propagateByResidual(
+            int[] seeds,
+            IndexedTaskHeap pending,
+            MessageWorkspace workspace,
+            TaskTables tables,
+            int maxIterations,
+            boolean[] updatedTargets
+    ) {
+        for (int task : seeds) {
+            // never computed, so ahead of any finite residual
+            pending.upsert(task, Double.POSITIVE_INFINITY);
+        }
+
+        Work work = new Work();
+        work.peakPending = pending.size();
+        while (!pending.isEmpty() && work.updates < maxIterations
+                && pending.peekPriority() > FactorGraph.CONVERGENCE_EPSILON) {
+            int task = pending.poll();
+
+            double change = step(task, workspace, tables, work);
+            if ((work.computations & (PROGRESS_INTERVAL - 1)) == 0) {
+                reportProgress(work, tables);
+            }
+            if (change == 0.0) {
+                continue;
+            }
+
+            markTarget(task, updatedTargets);
+
+            int edge = edgeOf(task);
+            int categoryOrdinal = task % CATEGORY_COUNT;
+            for (int i = dependentOffsets[edge]; i < dependentOffsets[edge + 1]; i++) {
+                int dependent = dependentEdges[i] * CATEGORY_COUNT + categoryOrdinal;
+                double residual = pending.contains(dependent) ? pending.priorityOf(dependent) : 0.0;
+                pending.upsert(dependent, residual + change);
+            }
+            work.peakPending = Math.max(work.peakPending, pending.size());
+        }
+
+        work.capped = !pending.isEmpty() && pending.peekPriority() > FactorGraph.CONVERGENCE_EPSILON;
+        reportProgress(work, tables);
+        return work;
+    }
+
+    /**
+     * One loopy update: recomputes the task and, if it moved past the convergence threshold,
+     * stores it damped by the task's current damping. Frozen tasks are skipped.
+     *
+     * @return the L2 distance the stored message moved, or 0 if it was not stored
+     */
+    private double step(int task, MessageWorkspace workspace, TaskTables tables, Work work) {
+        double damping = tables.damping[task];
+        if (damping == FROZEN) {
+            return 0.0;
+        }
+
+        work.computations++;
+        double squaredChange = recompute(task, workspace);
+        if (squaredChange <= FactorGraph.CONVERGENCE_THRESHOLD) {
+            return 0.0;
+        }
+
+        Message message = messages[edgeOf(task)];
+        Category category = categoryOf(task);
+        double change = Math.sqrt(squaredChange);
+        damping = trackOscillation(task, message.largestChange(category, workspace.result), change, tables, work);
+        if (damping == FROZEN) {
+            return 0.0;
+        }
+
+        work.countUpdate(task, change);
+        keepPrevious(message, category, workspace);
+        if (damping == 0.0) {
+            message.setDistributionForCategory(category, workspace.result);
+        } else {
+            message.setDampedDistributionForCategory(category, workspace.result, damping);
+        }
+        stored(task, workspace);
+        return (1.0 - damping) * change;
+    }
+
+    /**
+     * Records the direction of the task's largest change and raises its damping once that
+     * direction has reversed, without decaying, {@link #OSCILLATION_REVERSALS} updates in a row.
+     *
+     * @param largestChange the signed position of the largest change, see {@link Message#largestChange}
+     * @param change the L2 distance of the undamped update
+     * @return the damping to apply to this update, {@link #FROZEN} if the task gives up
+     */
+    private double trackOscillation(int task, int largestChange, double change, TaskTables tables, Work work) {
+        boolean reversed = largestChange != 0 && largestChange == -tables.lastChanges[task]
+                && change >= REVERSAL_DECAY * tables.lastMagnitudes[task];
+        tables.lastChanges[task] = largestChange;
+        tables.lastMagnitudes[task] = change;
+        tables.reversals[task] = reversed ? (byte) (tables.reversals[task] + 1) : 0;
+
+        double damping = tables.damping[task];
+        if (tables.reversals[task] < OSCILLATION_REVERSALS) {
+            return damping;
+        }
+
+        tables.reversals[task] = 0;
+        if (damping == 0.0) {
+            work.dampedMessages++;
+            damping = INITIAL_DAMPING;
+        } else if (damping < MAX_DAMPING) {
+            damping = (1.0 + damping) / 2.0;
+        } else {
+            work.frozenMessages++;
+            damping = FROZEN;
+        }
+        tables.damping[task] = damping;
+        return damping;
+    }
+
+    /**
+     * Passes the worker's updates since its last report to the run's monitor, then stops the run if
+     * the monitor asks to.
+     */
+    private static void reportProgress(Work work, TaskTables tables) {
+        if (work.updates > work.reportedUpdates || work.largestChange > 0.0) {
+            tables.monitor.progressed(work.updates - work.reportedUpdates, work.largestChange);
+            work.reportedUpdates = work.updates;
+            work.largestChange = 0.0;
+        }
+        checkCancelled(tables);
+    }
+
+    private static void checkCancelled(TaskTables tables) {
+        if (tables.stopped || tables.monitor.isCancelled()) {
+            throw new CancellationException("Message passing was cancelled");
+        }
+    }
+
+    private void markTarget(int task, boolean[] updatedTargets) {
+        if (updatedTargets != null) {
+            updatedTargets[edgeTargets[edgeOf(task)]] = true;
+        }
+    }
+
+    // counters of one worker
+    private static final class Work {
+        int computations;
+        int updates;
+        final int[] categoryUpdates = new int[CATEGORY_COUNT];
+        int peakPending;
+        int dampedMessages;
+        int frozenMessages;
+        boolean capped;
+        // progress not yet passed to the monitor: updates already reported and the largest change since
+        int reportedUpdates;
+        double largestChange;
+
+        void countUpdate(int task, double change) {
+            updates++;
+            categoryUpdates[task % CATEGORY_COUNT]++;
+            largestChange = Math.max(largestChange, change);
+        }
+
+        boolean converged() {
+            return !capped && frozenMessages == 0;
+        }
+    }
+
+    /**
+     * Per-task tables for one propagation run, shared by the frontiers of all its workers. Every
+     * task belongs to exactly one worker, so workers touch disjoint entries.
+     */
+    private static final class TaskTables {
+        final boolean[] queued;
+        final int[] heapPositions;
+        final double[] priorities;
+        // oscillation state: the last signed largest change and its size, consecutive reversals and damping per task
+        final int[] lastChanges;
+        final double[] lastMagnitudes;
+        final byte[] reversals;
+        final double[] damping;
+        final PropagationMonitor monitor;
+        // set when another worker of the run failed, so the rest stop at their next check
+        volatile boolean stopped;
+
+        TaskTables(MessageSchedule schedule, int taskCount, PropagationMonitor monitor) {
+            boolean residual = schedule == MessageSchedule.RESIDUAL;
+            this.queued = residual ? null : new boolean[taskCount];
+            this.heapPositions = residual ? IndexedTaskHeap.newPositionTable(taskCount) : null;
+            this.priorities = residual ? new double[taskCount] : null;
+            this.lastChanges = new int[taskCount];
+            this.lastMagnitudes = new double[taskCount];
+            this.reversals = new byte[taskCount];
+            this.damping = new double[taskCount];
+            this.monitor = monitor;
+        }
+    }
+
+    /**
+     * Captures the current messages and node fingerprints, for {@link #propagateChangesSince}.
+     * Nodes that are not persisted yet are left out.
+     */
+    public MessageSnapshot snapshot() {
+        Map<MessageSnapshot.EdgeKey, double[]> snapshotMessages = new HashMap<>();
+        for (int edge = 0; edge < messages.length; edge++) {
+            long sourceKey = nodeKeys[edgeSources[edge]];
+            long targetKey = nodeKeys[edgeTargets[edge]];
+            if (sourceKey != NO_KEY && targetKey != NO_KEY) {
+                snapshotMessages.put(
+                        new MessageSnapshot.EdgeKey(sourceKey, targetKey),
+                        messages[edge].values().clone()
+                );
+            }
+        }
+
+        Map<Long, Long> fingerprints = new HashMap<>();
+        for (int node = 0; node < nodes.length; node++) {
+            if (nodeKeys[node] != NO_KEY) {
+                fingerprints.put(nodeKeys[node], fingerprint(node));
+            }
+        }
+
+        return new MessageSnapshot(snapshotMessages, fingerprints);
+    }
+
+    /**
+     * Copies the messages of the snapshot into the edges between the same persisted nodes. Edges
+     * that are not in the snapshot keep their current messages. Running
+     * {@link #recalculateAllMessages(MessageSchedule, ForkJoinPool, PropagationMonitor)} afterwards
+     * is a full run that starts close to its fixed point instead of from uniform messages.
+     */
+    public void restoreMessages(MessageSnapshot previous) {
+        for (int edge = 0; edge < messages.length; edge++) {
+            long sourceKey = nodeKeys[edgeSources[edge]];
+            long targetKey = nodeKeys[edgeTargets[edge]];
+            double[] values = sourceKey == NO_KEY || targetKey == NO_KEY ? null : previous.message(sourceKey, targetKey);
+            if (values != null) {
+                System.arraycopy(values, 0, messages[edge].values(), 0, values.length);
+            }
+        }
+        unloadProducts();
+    }
+
+    /**
+     * Brings the messages and beliefs up to date after the flock changed since the given snapshot,
+     * for example after a birth was recorded.
+     * <p>
+     * Messages are restored from the snapshot, and propagation is seeded only with the messages
+     * leaving nodes whose neighbours or birth records changed, so the work follows the affected
+     * region. Beliefs are recomputed for the sheep that received a changed message, and returned
+     * only where they moved past the convergence threshold; the sheep themselves are not modified.
+     *
+     * @param previous the snapshot of the last converged run, or {@link MessageSnapshot#EMPTY}
+     */
+    public BeliefUpdate propagateChangesSince(MessageSnapshot previous) {
+        return propagateChangesSince(previous, PropagationMonitor.NONE);
+    }
+
+    /**
+     * Same as {@link #propagateChangesSince(MessageSnapshot)}, reporting to the given monitor.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the run
+     */
+    public BeliefUpdate propagateChangesSince(MessageSnapshot previous, PropagationMonitor monitor) {
+        boolean[] changedNodes = new boolean[nodes.length];
+        for (int node = 0; node < nodes.length; node++) {
+            long key = nodeKeys[node];
+            changedNodes[node] = key == NO_KEY || !previous.hasFingerprint(key, fingerprint(node));
+        }
+
+        restoreMessages(previous);
+
+        // seeds grouped by component, every category of every message leaving a changed node
+        int[] seedCounts = new int[componentCount];
+        int[][] seeds = new int[componentCount][];
+        for (int edge = 0; edge < messages.length; edge++) {
+            if (changedNodes[edgeSources[edge]]) {
+                seedCounts[componentOfNode[edgeSources[edge]]] += CATEGORY_COUNT;
+            }
+        }
+        for (int component = 0; component < componentCount; component++) {
+            seeds[component] = new int[seedCounts[component]];
+            seedCounts[component] = 0;
+        }
+        for (int edge = 0; edge < messages.length; edge++) {
+            if (changedNodes[edgeSources[edge]]) {
+                int component = componentOfNode[edgeSources[edge]];
+                for (Category category : CATEGORIES) {
+                    seeds[component][seedCounts[component]++] = task(edge, category);
+                }
+            }
+        }
+
+        TaskTables tables = new TaskTables(MessageSchedule.FIFO, taskCount(), monitor);
+        unloadProducts();
+        boolean[] updatedTargets = new boolean[nodes.length];
+        List<ComponentPropagation> results = new ArrayList<>();
+        for (int component = 0; component < componentCount; component++) {
+            if (seeds[component].length > 0) {
+                ComponentPropagation result = propagate(
+                        MessageSchedule.FIFO,
+                        component,
+                        seeds[component],
+                        CATEGORY_COUNT,
+                        workspace,
+                        tables,
+                        updatedTargets
+                );
+                results.add(result);
+                monitor.componentSolved(result);
+            }
+        }
+
+        List<Sheep> changedSheep = new ArrayList<>();
+        List<Map<Category, Map<String, Double>>> changedBeliefs = new ArrayList<>();
+        for (int node = 0; node < sheepCount; node++) {
+            if (!changedNodes[node] && !updatedTargets[node]) continue;
+
+            Sheep sheep = (Sheep) nodes[node].getValue();
+            Map<Category, Map<String, Double>> belief = beliefOf(node);
+            if (beliefMoved(sheep.getAllDistributionsByType(DistributionType.INFERRED), belief)) {
+                changedSheep.add(sheep);
+                changedBeliefs.add(belief);
+            }
+        }
+
+        return new BeliefUpdate(PropagationResult.of(MessageSchedule.FIFO, results), changedSheep, changedBeliefs);
+    }
+
+    private static boolean beliefMoved(Map<Category, Map<String, Double>> stored, Map<Category, Map<String, Double>> belief) {
+        for (Category category : CATEGORIES) {
+            Map<String, Double> storedCategory = stored.getOrDefault(category, Map.of());
+            double distance = 0.0;
+            for (Map.Entry<String, Double> entry : belief.get(category).entrySet()) {
+                double diff = entry.getValue() - storedCategory.getOrDefault(entry.getKey(), 0.0);
+                distance += diff * diff;
+            }
+            if (distance > FactorGraph.CONVERGENCE_THRESHOLD) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long nodeKey(Node<?> node) {
+        if (node.getValue() instanceof Sheep sheep) {
+            return sheep.getId() == null ? NO_KEY : MessageSnapshot.EdgeKey.sheepKey(sheep.getId());
+        }
+        Relationship relationship = (Relationship) node.getValue();
+        return relationship.getId() == null ? NO_KEY : MessageSnapshot.EdgeKey.relationshipKey(relationship.getId());
+    }
+
+    /**
+     * Digests what the outgoing messages of the node depend on: its neighbours, and for a
+     * relationship the phenotypes recorded at each of its births. The first eight bytes of a
+     * SHA-256 over a canonical encoding are kept, so an edit that leaves the fingerprint unchanged,
+     * and with it stale messages in use, is as unlikely as a collision of a 64-bit random value.
+     */
+    private long fingerprint(int node) {
+        long[] neighborKeys = new long[degree(node)];
+        for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+            neighborKeys[slot - adjacencyOffsets[node]] = nodeKeys[adjacencyNodes[slot]];
+        }
+        Arrays.sort(neighborKeys);
+
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        digest.update(buffer.putLong(neighborKeys.length).array());
+        for (long neighborKey : neighborKeys) {
+            digest.update(buffer.clear().putLong(neighborKey).array());
+        }
+
+        if (nodes[node].getValue() instanceof Relationship relationship) {
+            // sorted so that the order of the birth record set does not matter
+            List<String> births = new ArrayList<>();
+            for (BirthRecord birthRecord : relationship.getBirthRecords()) {
+                StringBuilder birth = new StringBuilder()
+                        .append(birthRecord.getChild() == null ? null : birthRecord.getChild().getId());
+                for (Map.Entry<Category, PhenotypeAtBirth> phenotype : birthRecord.getPhenotypesAtBirthOrganized().entrySet()) {
+                    PhenotypeAtBirth codes = phenotype.getValue();
+                    birth.append('|').append(phenotype.getKey())
+                            .append('|').append(codes.parent1Code())
+                            .append('|').append(codes.parent2Code())
+                            .append('|').append(codes.childCode());
+                }
+                births.add(birth.toString());
+            }
+            Collections.sort(births);
+
+            digest.update(buffer.clear().putLong(births.size()).array());
+            for (String birth : births) {
+                byte[] bytes = birth.getBytes(StandardCharsets.UTF_8);
+                digest.update(buffer.clear().putLong(bytes.length).array());
+                digest.update(bytes);
+            }
+        }
+
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public List<Map<Category, Map<String, Double>>> computeBeliefs() {
+        List<Map<Category, Map<String, Double>>> beliefs = new ArrayList<>(sheepCount);
+        for (int node = 0; node < sheepCount; node++) {
+            beliefs.add(computeBelief(node));
+        }
+        return beliefs;
+    }
+
+    /**
+     * Same as {@link #computeBeliefs()} without writing the beliefs to the sheep, so that managed
+     * entities stay clean and the beliefs can be written in bulk instead.
+     *
+     * @return the belief of each sheep, in the order of {@link #sheep()}
+     */
+    public List<Map<Category, Map<String, Double>>> inferBeliefs() {
+        List<Map<Category, Map<String, Double>>> beliefs = new ArrayList<>(sheepCount);
+        for (int node = 0; node < sheepCount; node++) {
+            beliefs.add(beliefOf(node));
+        }
+        return beliefs;
+    }
+
+    /**
+     * @return the sheep of the graph, in the order their beliefs are computed
+     */
+    public List<Sheep> sheep() {
+        List<Sheep> sheep = new ArrayList<>(sheepCount);
+        for (int node = 0; node < sheepCount; node++) {
+            sheep.add((Sheep) nodes[node].getValue());
+        }
+        return sheep;
+    }
+
+    public Map<Category, Map<String, Double>> computeBeliefForSheep(Sheep sheep) {
+        return computeBelief(sheepId(sheep));
+    }
+
+    /**
+     * Same as {@link #computeBeliefForSheep(Sheep)} without writing the belief to the sheep.
+     */
+    public Map<Category, Map<String, Double>> inferBeliefForSheep(Sheep sheep) {
+        return beliefOf(sheepId(sheep));
+    }
+
+    private Map<Category, Map<String, Double>> computeBelief(int node) {
+        Map<Category, Map<String, Double>> belief = beliefOf(node);
+        ((Sheep) nodes[node].getValue()).setDistributionByType(belief, DistributionType.INFERRED);
+        return belief;
+    }
+
+    // the prior times every incoming message, multiplied as ordinal arrays
+    private Map<Category, Map<String, Double>> beliefOf(int node) {
+        Sheep sheep = (Sheep) nodes[node].getValue();
+        Map<Category, Map<String, Double>> priors = sheep.getAllDistributionsByType(DistributionType.PRIOR);
+        Map<Category, Map<String, Double>> belief = new EnumMap<>(Category.class);
+
+        for (Category category : CATEGORIES) {
+            int width = Message.width(category);
+            int offset = Message.offset(category);
+            double[] product = DistributionVectors.pack(category, priors.get(category));
+            for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+                InferenceMath.productOfExperts(product, 0, messages[incomingEdges[slot]].values(), offset, width);
+            }
+            belief.put(category, DistributionVectors.unpack(category, product));
+        }
+
+        return belief;
+    }
+
+    public List<Message> incomingMessagesForSheep(Sheep sheep) {
+        int node = sheepId(sheep);
+        List<Message> incoming = new ArrayList<>(degree(node));
+        for (int slot = adjacencyOffsets[node]; slot < adjacencyOffsets[node + 1]; slot++) {
+            incoming.add(messages[incomingEdges[slot]]);
+        }
+        return incoming;
+    }
+
+    private int sheepId(Sheep sheep) {
+        Integer id = sheepIds.get(sheep);
+        if (id == null) {
+            throw new IllegalArgumentException("Sheep is not in factor graph");
+        }
+        return id;
+    }
+}
@@ -0,0 +1,60 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Work done on one connected component of the factor graph during a message passing run.
+ *
+ * @param component the component index, ordered by the component's first sheep
+ * @param sheepCount the sheep in the component
+ * @param relationshipCount the relationships in the component
+ * @param exact whether the component is a tree solved exactly in two passes, rather than by loopy propagation
+ * @param converged whether every message settled, rather than the run hitting the iteration cap or
+ *                  freezing a message that kept oscillating
+ * @param computations the number of message categories recomputed
+ * @param updates the number of recomputations that changed a stored message
+ * @param updatesByCategory the updates split by category, leaving out categories without any
+ * @param dampedMessages the number of message categories damped after they started to oscillate
+ * @param peakPending the most message updates waiting at once, 0 for the exact two-pass schedule
+ * @param elapsedNanos the time spent propagating the component, summed over its workers
+ */
+public record ComponentPropagation(
+        int component,
+        int sheepCount,
+        int relationshipCount,
+        boolean exact,
+        boolean converged,
+        int computations,
+        int updates,
+        Map<Category, Integer> updatesByCategory,
+        int dampedMessages,
+        int peakPending,
+        long elapsedNanos
+) {
+    /**
+     * Combines the work of two workers on the same component, such as separate categories.
+     */
+    ComponentPropagation plus(ComponentPropagation other) {
+        Map<Category, Integer> combinedUpdates = new EnumMap<>(Category.class);
+        combinedUpdates.putAll(updatesByCategory);
+        other.updatesByCategory.forEach((category, count) -> combinedUpdates.merge(category, count, Integer::sum));
+
+        return new ComponentPropagation(
+                component,
+                sheepCount,
+                relationshipCount,
+                exact,
+                converged && other.converged,
+                computations + other.computations,
+                updates + other.updates,
+                Collections.unmodifiableMap(combinedUpdates),
+                dampedMessages + other.dampedMessages,
+                Math.max(peakPending, other.peakPending),
+                elapsedNanos + other.elapsedNanos
+        );
+    }
+}
@@ -0,0 +1,48 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Allele;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts one category's distribution between allele codes and the packed form stored in
+ * {@code sheep_distribution_vector}: one probability per allele of the category's domain, indexed by
+ * allele ordinal, the same layout as a category slice of {@link Message}.
+ */
+public final class DistributionVectors {
+
+    private DistributionVectors() {}
+
+    /**
+     * @return a vector over the whole domain, with 0 for alleles missing from the distribution
+     */
+    public static <A extends Enum<A> & Allele> double[] pack(Category category, Map<String, Double> distributionByCode) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        double[] vector = new double[domain.getAlleles().size()];
+        for (A allele : domain.getAlleles()) {
+            vector[allele.ordinal()] = distributionByCode.getOrDefault(allele.code(), 0.0);
+        }
+        return vector;
+    }
+
+    /**
+     * @return the distribution keyed by allele code, with an entry for every allele of the domain
+     * @throws IllegalArgumentException if the vector does not match the size of the domain
+     */
+    public static <A extends Enum<A> & Allele> Map<String, Double> unpack(Category category, double[] vector) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        if (vector.length != domain.getAlleles().size()) {
+            throw new IllegalArgumentException("Expected " + domain.getAlleles().size() + " probabilities for category "
+                    + category + ", got " + vector.length);
+        }
+        Map<String, Double> distributionByCode = new HashMap<>();
+        for (A allele : domain.getAlleles()) {
+            distributionByCode.put(allele.code(), vector[allele.ordinal()]);
+        }
+        return distributionByCode;
+    }
+}
@@ -15,6 +15,8 @@ import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 import java.util.*;
 
 public class FactorGraph {
+    static final double CONVERGENCE_EPSILON = 1e-3;
+    static final double CONVERGENCE_THRESHOLD = CONVERGENCE_EPSILON * CONVERGENCE_EPSILON;
 
     private final Map<Node<?>, List<Node<?>>> adjacencyMatrix;
     private final Map<NodePair, Message> messageMap;
@@ -27,14 +29,14 @@ public class FactorGraph {
         messageMap = new HashMap<>();
         relationshipEdgeRoles = new HashMap<>();
 
-        this.sheepToNode = new HashMap<>();
+        this.sheepToNode = new LinkedHashMap<>();
         for (Sheep sheep : allSheep) {
             Node<Sheep> sheepNode = new SheepNode(sheep);
             adjacencyMatrix.put(sheepNode, new ArrayList<>());
             sheepToNode.put(sheep, sheepNode);
         }
 
-        this.relationshipToNode = new HashMap<>();
+        this.relationshipToNode = new LinkedHashMap<>();
         for (Relationship relationship : allRelationships) {
             Node<Relationship> relationshipNode = new RelationshipNode(relationship);
             relationshipToNode.put(relationship, relationshipNode);
@@ -84,6 +86,15 @@ public class FactorGraph {
         }
     }
 
+    /**
+     * Compiles the current topology and messages into dense index form for message passing.
+     * The compiled graph shares this graph's {@link Message} instances, so updates made through
+     * either are visible to both.
+     */
+    public CompiledFactorGraph compile() {
+        return new CompiledFactorGraph(sheepToNode.values(), relationshipToNode.values(), adjacencyMatrix, messageMap);
+    }
+
     public VisualizationScope buildScope(Sheep targetSheep) {
         Node<Sheep> targetNode = sheepToNode.get(targetSheep);
         if (targetNode == null) {
@@ -671,13 +682,12 @@ public class FactorGraph {
         return incoming;
     }
 
-    public <A extends Enum<A> & Allele> boolean reachedConvergence(
+    public static <A extends Enum<A> & Allele> boolean reachedConvergence(
             Message message,
             Category category,
             Map<A, Double> newDistribution
     ) {
-        double epsilon = 1e-3;
-        double threshold = epsilon * epsilon;
+        double threshold = CONVERGENCE_THRESHOLD;
 
         AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
         Map<A, Double> oldDistribution = message.getDistributionByCategory(category);
@@ -1,7 +1,6 @@
 package com.progressengine.geneinference.model;
 
 import com.progressengine.geneinference.model.enums.Category;
-import com.progressengine.geneinference.model.enums.Grade;
 import com.progressengine.geneinference.model.enums.MessageWaveType;
 import com.progressengine.geneinference.model.enums.RunStage;
 
@@ -10,9 +9,10 @@ import java.util.*;
 public class FactorGraphRunner {
     private final String userId;
     private final FactorGraph graph;
-    private final Deque<MessageCategoryTask> frontier;
-    private final Set<MessageCategoryTask> queued;
+    private final CompiledFactorGraph compiled;
+    private final TaskFrontier frontier;
     private final VisualizationScope scope;
+    private final boolean[] edgeTouchesScope;
     private final int maxIterations;
 
     private int iterations;
@@ -26,16 +26,16 @@ public class FactorGraphRunner {
     public FactorGraphRunner(FactorGraph graph, Sheep observedSheep, String userId) {
         this.userId = userId;
         this.graph = graph;
-        this.frontier = new ArrayDeque<>();
-        this.queued = new HashSet<>();
+        this.compiled = graph.compile();
+        this.frontier = compiled.initialFrontier();
         this.scope = graph.buildScope(observedSheep);
 
-        for (MessageCategoryTask task : graph.initialFrontierTasks()) {
-            frontier.add(task);
-            queued.add(task);
+        this.edgeTouchesScope = new boolean[compiled.edgeCount()];
+        for (int edge = 0; edge < edgeTouchesScope.length; edge++) {
+            edgeTouchesScope[edge] = scope.touches(compiled.message(edge));
         }
 
-        this.maxIterations = graph.estimatedMaxIterations();
+        this.maxIterations = compiled.estimatedMaxIterations();
         this.iterations = 0;
         this.stepIndex = 0;
         this.stage = RunStage.MESSAGE_PASSING;
@@ -63,15 +63,12 @@ public class FactorGraphRunner {
             List<String> activeFullEdgeIds = new ArrayList<>();
             List<String> activeStubEdgeIds = new ArrayList<>();
             Set<String> seenEdgeIds = new HashSet<>();
-            List<MessageCategoryTask> visibleWaveTasks = new ArrayList<>();
+            int visibleWaveTaskCount = 0;
             MessageWaveType currentWaveType = null;
 
             while (!frontier.isEmpty() && iterations < maxIterations) {
-                MessageCategoryTask task = frontier.pollFirst();
-                queued.remove(task);
-
-                Message message = task.message();
-                Category category = task.category();
+                int task = frontier.pollFirst();
+                Message message = compiled.message(CompiledFactorGraph.edgeOf(task));
 
                 boolean visible = isVisible(task);
                 MessageWaveType taskWaveType = visible ? waveTypeOf(message) : null;
@@ -80,14 +77,13 @@ public class FactorGraphRunner {
                     if (currentWaveType == null) {
                         currentWaveType = taskWaveType;
                     } else if (taskWaveType != currentWaveType) {
-                        frontier.addFirst(task);
-                        queued.add(task);
+                        frontier.pushFirst(task);
 
                         stepIndex++;
                         return new LbpStepResult(
                                 stepIndex,
                                 RunStage.MESSAGE_PASSING,
-                                describeWave(currentWaveType, visibleWaveTasks.size()),
+                                describeWave(currentWaveType, visibleWaveTaskCount),
                                 false,
                                 currentWaveType,
                                 visibleCategory.name(),
@@ -97,27 +93,18 @@ public class FactorGraphRunner {
                     }
                 }
 
-                Map<Grade, Double> newDistribution = graph.computeMessageForCategory(message, category);
-
-                if (graph.reachedConvergence(message, category, newDistribution)) {
+                if (!compiled.updateTask(task)) {
                     continue;
                 }
 
-                message.setDistributionForCategory(category, newDistribution);
-
-                for (MessageCategoryTask dependent : graph.dependentsOf(task)) {
-                    if (queued.add(dependent)) {
-                        frontier.addLast(dependent);
-                    }
-                }
-
+                compiled.enqueueDependents(task, frontier);
                 iterations++;
 
                 if (!visible) {
                     continue;
                 }
 
-                visibleWaveTasks.add(task);
+                visibleWaveTaskCount++;
 
                 String edgeId = graph.visualEdgeIdForMessage(message, scope);
                 if (edgeId != null && seenEdgeIds.add(edgeId)) {
@@ -132,12 +119,12 @@ public class FactorGraphRunner {
                 }
             }
             stage = RunStage.BELIEF_UPDATE;
-            if (!visibleWaveTasks.isEmpty()) {
+            if (visibleWaveTaskCount > 0) {
                 stepIndex++;
                 return new LbpStepResult(
                         stepIndex,
                         RunStage.MESSAGE_PASSING,
-                        describeWave(currentWaveType, visibleWaveTasks.size()),
+                        describeWave(currentWaveType, visibleWaveTaskCount),
                         false,
                         currentWaveType,
                         visibleCategory.name(),
@@ -151,13 +138,13 @@ public class FactorGraphRunner {
             if (beliefIndex < scopedBeliefSheep.size()) {
                 Sheep sheep = scopedBeliefSheep.get(beliefIndex);
 
-                Map<Category, Map<String, Double>> belief = graph.computeBeliefForSheep(sheep);
+                Map<Category, Map<String, Double>> belief = compiled.inferBeliefForSheep(sheep);
 
                 List<String> activeFullEdgeIds = new ArrayList<>();
                 List<String> activeStubEdgeIds = new ArrayList<>();
                 Set<String> seenEdgeIds = new HashSet<>();
 
-                for (Message message : graph.incomingMessagesForSheep(sheep)) {
+                for (Message message : compiled.incomingMessagesForSheep(sheep)) {
                     String edgeId = graph.visualEdgeIdForMessage(message, scope);
                     if (edgeId == null || !seenEdgeIds.add(edgeId)) {
                         continue;
@@ -210,6 +197,10 @@ public class FactorGraphRunner {
         return userId;
     }
 
+    public int getSheepCount() {
+        return compiled.sheepCount();
+    }
+
     public RunStage getStage() {
         return stage;
     }
@@ -249,8 +240,9 @@ public class FactorGraphRunner {
         throw new IllegalStateException("Unknown message source node type");
     }
 
-    private boolean isVisible(MessageCategoryTask task) {
-        return scope.touches(task.message()) && task.category() == visibleCategory;
+    private boolean isVisible(int task) {
+        return edgeTouchesScope[CompiledFactorGraph.edgeOf(task)]
+                && CompiledFactorGraph.categoryOf(task) == visibleCategory;
     }
 
     private String describeWave(MessageWaveType waveType, int affectedCount) {
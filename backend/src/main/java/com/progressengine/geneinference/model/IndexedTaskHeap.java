@@ -0,0 +1,135 @@
+package com.progressengine.geneinference.model;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary max-heap of message update tasks keyed by residual. Each task id has a fixed
+ * slot in the position table, so changing the priority of a queued task is a sift in place
+ * rather than a remove and re-insert.
+ */
+final class IndexedTaskHeap {
+    private static final int ABSENT = -1;
+
+    private final int[] heap;
+    private final int[] positions;
+    private final double[] priorities;
+    private int size;
+
+    IndexedTaskHeap(int taskCount) {
+        this(taskCount, newPositionTable(taskCount), new double[taskCount]);
+    }
+
+    /**
+     * Creates a heap for at most {@code capacity} tasks that keeps its per-task entries in the given
+     * tables. Heaps may share tables as long as they never hold the same task.
+     *
+     * @param positions a table from {@link #newPositionTable(int)}
+     */
+    IndexedTaskHeap(int capacity, int[] positions, double[] priorities) {
+        this.heap = new int[capacity];
+        this.positions = positions;
+        this.priorities = priorities;
+    }
+
+    static int[] newPositionTable(int taskCount) {
+        int[] positions = new int[taskCount];
+        Arrays.fill(positions, ABSENT);
+        return positions;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int task) {
+        return positions[task] != ABSENT;
+    }
+
+    double priorityOf(int task) {
+        return priorities[task];
+    }
+
+    /**
+     * Inserts the task or moves it to its new priority if it is already queued.
+     */
+    void upsert(int task, double priority) {
+        if (positions[task] == ABSENT) {
+            heap[size] = task;
+            positions[task] = size;
+            priorities[task] = priority;
+            siftUp(size++);
+            return;
+        }
+
+        double previous = priorities[task];
+        priorities[task] = priority;
+        if (priority > previous) {
+            siftUp(positions[task]);
+        } else if (priority < previous) {
+            siftDown(positions[task]);
+        }
+    }
+
+    double peekPriority() {
+        if (size == 0) {
+            throw new IllegalStateException("Heap is empty");
+        }
+        return priorities[heap[0]];
+    }
+
+    int poll() {
+        if (size == 0) {
+            throw new IllegalStateException("Heap is empty");
+        }
+        int top = heap[0];
+        size--;
+        if (size > 0) {
+            move(heap[size], 0);
+            siftDown(0);
+        }
+        positions[top] = ABSENT;
+        return top;
+    }
+
+    private void siftUp(int index) {
+        int task = heap[index];
+        double priority = priorities[task];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (priorities[heap[parent]] >= priority) {
+                break;
+            }
+            move(heap[parent], index);
+            index = parent;
+        }
+        move(task, index);
+    }
+
+    private void siftDown(int index) {
+        int task = heap[index];
+        double priority = priorities[task];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && priorities[heap[right]] > priorities[heap[child]]) {
+                child = right;
+            }
+            if (priority >= priorities[heap[child]]) {
+                break;
+            }
+            move(heap[child], index);
+            index = child;
+        }
+        move(task, index);
+    }
+
+    private void move(int task, int index) {
+        heap[index] = task;
+        positions[task] = index;
+    }
+}
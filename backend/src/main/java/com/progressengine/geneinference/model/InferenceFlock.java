@@ -0,0 +1,16 @@
+package com.progressengine.geneinference.model;
+
+import java.util.List;
+
+/**
+ * A user's flock built for inference only: the sheep and relationships are plain objects that no
+ * persistence context manages, carrying what the factor graph reads and nothing else.
+ *
+ * @param sheep every sheep of the user, by id
+ * @param relationships every relationship of the user, by id, with its birth records
+ */
+public record InferenceFlock(
+        List<Sheep> sheep,
+        List<Relationship> relationships
+) {
+}
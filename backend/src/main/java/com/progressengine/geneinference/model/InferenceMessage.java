@@ -0,0 +1,118 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.MessageDirection;
+import jakarta.persistence.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+import org.springframework.data.domain.Persistable;
+
+import java.util.UUID;
+
+/**
+ * One category of a converged factor graph message, stored so the next recalculation can start
+ * from it. {@code sourceVersion} is the fingerprint of the sending node when the message was
+ * stored; see {@link MessageSnapshot}.
+ */
+@Entity
+@IdClass(InferenceMessageKey.class)
+@Table(name = "inference_message")
+public class InferenceMessage implements Persistable<InferenceMessageKey> {
+
+    @Id
+    @Column(name = "user_id")
+    private UUID userId;
+
+    @Id
+    @Column(name = "sheep_id")
+    private Integer sheepId;
+
+    @Id
+    @Column(name = "relationship_id")
+    private Integer relationshipId;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    private MessageDirection direction;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    private Category category;
+
+    @Column(name = "source_version", nullable = false)
+    private long sourceVersion;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "probabilities", nullable = false)
+    private double[] probabilities;
+
+    @Transient
+    // rows created by a snapshot diff are inserted without first looking them up
+    private boolean newRow;
+
+    public InferenceMessage() {}
+
+    public InferenceMessage(UUID userId, Integer sheepId, Integer relationshipId, MessageDirection direction, Category category) {
+        this.userId = userId;
+        this.sheepId = sheepId;
+        this.relationshipId = relationshipId;
+        this.direction = direction;
+        this.category = category;
+    }
+
+    @Override
+    public InferenceMessageKey getId() {
+        return new InferenceMessageKey(userId, sheepId, relationshipId, direction, category);
+    }
+
+    @Override
+    public boolean isNew() {
+        return newRow;
+    }
+
+    void markNew() {
+        this.newRow = true;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markStored() {
+        this.newRow = false;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public Integer getSheepId() {
+        return sheepId;
+    }
+
+    public Integer getRelationshipId() {
+        return relationshipId;
+    }
+
+    public MessageDirection getDirection() {
+        return direction;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    public long getSourceVersion() {
+        return sourceVersion;
+    }
+
+    public void setSourceVersion(long sourceVersion) {
+        this.sourceVersion = sourceVersion;
+    }
+
+    public double[] getProbabilities() {
+        return probabilities;
+    }
+
+    public void setProbabilities(double[] probabilities) {
+        this.probabilities = probabilities;
+    }
+}
@@ -0,0 +1,63 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.MessageDirection;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.UUID;
+
+public class InferenceMessageKey implements Serializable {
+
+    private UUID userId;
+    private Integer sheepId;
+    private Integer relationshipId;
+    private MessageDirection direction;
+    private Category category;
+
+    public InferenceMessageKey() {}
+
+    public InferenceMessageKey(UUID userId, Integer sheepId, Integer relationshipId, MessageDirection direction, Category category) {
+        this.userId = userId;
+        this.sheepId = sheepId;
+        this.relationshipId = relationshipId;
+        this.direction = direction;
+        this.category = category;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public Integer getSheepId() {
+        return sheepId;
+    }
+
+    public Integer getRelationshipId() {
+        return relationshipId;
+    }
+
+    public MessageDirection getDirection() {
+        return direction;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof InferenceMessageKey that)) return false;
+        return Objects.equals(userId, that.userId)
+                && Objects.equals(sheepId, that.sheepId)
+                && Objects.equals(relationshipId, that.relationshipId)
+                && direction == that.direction
+                && category == that.category;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, sheepId, relationshipId, direction, category);
+    }
+}
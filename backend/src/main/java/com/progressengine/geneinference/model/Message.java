@@ -2,7 +2,7 @@ package com.progressengine.geneinference.model;
 
 import com.progressengine.geneinference.model.enums.Category;
 import com.progressengine.geneinference.model.enums.Allele;
-import com.progressengine.geneinference.service.SheepService;
+import com.progressengine.geneinference.service.InferenceMath;
 import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
 import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 
@@ -10,27 +10,47 @@ import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
+/**
+ * A message on a directed edge of the factor graph. The distributions are kept in one flat
+ * {@code double[]} holding a contiguous slice per category, indexed by allele ordinal, so the
+ * propagation loop can read, compare and overwrite them without building maps. The map based
+ * accessors are views over that array for callers that work with allele codes.
+ */
 public abstract class Message {
+    private static final Category[] CATEGORIES = Category.values();
+    private static final int[] CATEGORY_OFFSETS = new int[CATEGORIES.length];
+    private static final int[] CATEGORY_WIDTHS = new int[CATEGORIES.length];
+    private static final int VALUES_LENGTH;
+    private static final int MAX_WIDTH;
+
+    static {
+        int offset = 0;
+        int maxWidth = 0;
+        for (Category category : CATEGORIES) {
+            int width = CategoryDomains.domainFor(category).getAlleles().size();
+            CATEGORY_OFFSETS[category.ordinal()] = offset;
+            CATEGORY_WIDTHS[category.ordinal()] = width;
+            offset += width;
+            maxWidth = Math.max(maxWidth, width);
+        }
+        VALUES_LENGTH = offset;
+        MAX_WIDTH = maxWidth;
+    }
+
     protected final Node<?> source;
     protected final Node<?> target;
-    protected Map<Category, Map<String, Double>> distribution;
+    protected final double[] values;
 
     public Message() {
-        this.source = null;
-        this.target = null;
-        this.distribution = new EnumMap<>(Category.class);
-        for (Category category : Category.values()) {
-            initializeUniform(category);
-        }
+        this(null, null);
     }
 
     public Message(Node<?> source, Node<?> target) {
         this.source = source;
         this.target = target;
-        this.distribution = new EnumMap<>(Category.class);
-        for (Category category : Category.values()) {
+        this.values = new double[VALUES_LENGTH];
+        for (Category category : CATEGORIES) {
             initializeUniform(category);
         }
     }
@@ -38,29 +58,55 @@ public abstract class Message {
     public Message(Node<?> source, Node<?> target, Map<Category, Map<String, Double>> distribution) {
         this.source = source;
         this.target = target;
-        this.distribution = distribution;
+        this.values = new double[VALUES_LENGTH];
+        setDistribution(distribution);
     }
 
-    protected <A extends Enum<A> & Allele> void initializeUniform(Category category) {
-        Map<A, Double> uniformDist = SheepService.createUniformDistribution(category);
-        Map<String, Double> uniformStrDist = uniformDist.entrySet().stream()
-            .collect(Collectors.toMap(
-                entry -> entry.getKey().code(), 
-                Map.Entry::getValue
-            ));
-        this.distribution.put(category, uniformStrDist);
+    static int offset(Category category) {
+        return CATEGORY_OFFSETS[category.ordinal()];
     }
 
-    public <A extends Enum<A> & Allele> Map<A, Double> getDistributionByCategory(Category category) {
-        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
-        Map<String, Double> alleleCodeMap = distribution.get(category);
-        if (alleleCodeMap == null) {
-            return new EnumMap<>(domain.getAlleleType());
+    static int width(Category category) {
+        return CATEGORY_WIDTHS[category.ordinal()];
+    }
+
+    /**
+     * @return the length of the backing array, every category slice together
+     */
+    static int valuesLength() {
+        return VALUES_LENGTH;
+    }
+
+    /**
+     * @return the size of the largest category slice, for sizing scratch buffers
+     */
+    static int maxWidth() {
+        return MAX_WIDTH;
+    }
+
+    /**
+     * @return the backing array; category slices start at {@link #offset(Category)}
+     */
+    double[] values() {
+        return values;
+    }
+
+    protected void initializeUniform(Category category) {
+        int offset = offset(category);
+        int width = width(category);
+        double uniform = 1.0 / width;
+        for (int i = 0; i < width; i++) {
+            values[offset + i] = uniform;
         }
+    }
 
+    public <A extends Enum<A> & Allele> Map<A, Double> getDistributionByCategory(Category category) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
         Map<A, Double> alleleMap = new EnumMap<>(domain.getAlleleType());
-        for (Map.Entry<String, Double> entry : alleleCodeMap.entrySet()) {
-            alleleMap.put(domain.parse(entry.getKey()), entry.getValue());
+
+        int offset = offset(category);
+        for (A allele : domain.getAlleles()) {
+            alleleMap.put(allele, values[offset + allele.ordinal()]);
         }
 
         return alleleMap;
@@ -74,23 +120,130 @@ public abstract class Message {
         return target;
     }
 
+    /**
+     * Builds a snapshot of every category keyed by allele code. Changes to the returned maps are
+     * not written back; use {@link #setDistribution(Map)} for that.
+     */
     public Map<Category, Map<String, Double>> getDistribution() {
+        Map<Category, Map<String, Double>> distribution = new EnumMap<>(Category.class);
+        for (Category category : CATEGORIES) {
+            distribution.put(category, getCodeDistributionByCategory(category));
+        }
         return distribution;
     }
 
+    private <A extends Enum<A> & Allele> Map<String, Double> getCodeDistributionByCategory(Category category) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        Map<String, Double> codeMap = new HashMap<>();
+
+        int offset = offset(category);
+        for (A allele : domain.getAlleles()) {
+            codeMap.put(allele.code(), values[offset + allele.ordinal()]);
+        }
+
+        return codeMap;
+    }
+
     public void setDistribution(Map<Category, Map<String, Double>> distribution) {
-        this.distribution =  distribution;
+        for (Category category : CATEGORIES) {
+            Map<String, Double> codeMap = distribution.get(category);
+            if (codeMap == null) {
+                initializeUniform(category);
+            } else {
+                setCodeDistributionForCategory(category, codeMap);
+            }
+        }
+    }
+
+    private <A extends Enum<A> & Allele> void setCodeDistributionForCategory(Category category, Map<String, Double> codeMap) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        int offset = offset(category);
+        for (A allele : domain.getAlleles()) {
+            values[offset + allele.ordinal()] = codeMap.getOrDefault(allele.code(), 0.0);
+        }
     }
 
     public <A extends Enum<A> & Allele> void setDistributionForCategory(Category category, Map<A, Double> distribution) {
-        Map<String, Double> result = new HashMap<>();
-        for (Map.Entry<A, Double> entry : distribution.entrySet()) {
-            result.put(entry.getKey().code(), entry.getValue());
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        int offset = offset(category);
+        for (A allele : domain.getAlleles()) {
+            values[offset + allele.ordinal()] = distribution.getOrDefault(allele, 0.0);
+        }
+    }
+
+    /**
+     * Overwrites the category slice with the first {@link #width(Category)} entries of the given array.
+     */
+    void setDistributionForCategory(Category category, double[] distribution) {
+        System.arraycopy(distribution, 0, values, offset(category), width(category));
+    }
+
+    /**
+     * @return the squared L2 distance between the stored category slice and the given candidate
+     */
+    double squaredDistance(Category category, double[] candidate) {
+        int offset = offset(category);
+        int width = width(category);
+        double distance = 0.0;
+        for (int i = 0; i < width; i++) {
+            double diff = values[offset + i] - candidate[i];
+            distance += diff * diff;
         }
-        this.distribution.put(category, result);
+        return distance;
+    }
+
+    /**
+     * Overwrites the category slice with {@code (1 - damping) * candidate + damping * stored}. Both
+     * are normalized, so the result is too.
+     */
+    void setDampedDistributionForCategory(Category category, double[] candidate, double damping) {
+        int offset = offset(category);
+        int width = width(category);
+        for (int i = 0; i < width; i++) {
+            values[offset + i] = (1.0 - damping) * candidate[i] + damping * values[offset + i];
+        }
+    }
+
+    /**
+     * @return the allele ordinal with the largest change from the stored category slice to the
+     * candidate, plus one, and negated if that entry decreases
+     */
+    int largestChange(Category category, double[] candidate) {
+        int offset = offset(category);
+        int width = width(category);
+        int largest = 0;
+        double largestMagnitude = 0.0;
+        for (int i = 0; i < width; i++) {
+            double diff = candidate[i] - values[offset + i];
+            if (Math.abs(diff) > largestMagnitude) {
+                largestMagnitude = Math.abs(diff);
+                largest = diff > 0 ? i + 1 : -(i + 1);
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Fills any state the array computation loads lazily, so that workers updating different
+     * categories of this message only read shared state.
+     */
+    void prepareForConcurrentUpdates() {
     }
 
     abstract Map<Category, Map<String, Double>> computeMessage(List<Message> operands);
 
     abstract <A extends Enum<A> & Allele> Map<A, Double> computeMessageForCategory(Category category, List<Message> operands);
+
+    /**
+     * Computes the category into {@code workspace.result}, indexed by allele ordinal. Subclasses
+     * with an array form override this; the default goes through the map based computation.
+     */
+    void computeMessageForCategory(Category category, List<Message> operands, MessageWorkspace workspace) {
+        copyComputedMessageForCategory(category, operands, workspace.result);
+    }
+
+    private <A extends Enum<A> & Allele> void copyComputedMessageForCategory(Category category, List<Message> operands, double[] out) {
+        Map<A, Double> distribution = computeMessageForCategory(category, operands);
+        InferenceMath.copyToOrdinalArray(distribution, out, width(category));
+    }
 }
@@ -0,0 +1,189 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.MessageDirection;
+
+import java.util.*;
+
+/**
+ * Messages of a converged {@link CompiledFactorGraph}, keyed by the persisted ids of their end
+ * nodes so that a graph compiled later over the same flock can start from them.
+ * <p>
+ * Alongside the messages it keeps a fingerprint of every node: its neighbours, and for a
+ * relationship also its birth records. Those are everything the messages depend on, so a node
+ * whose fingerprint is unchanged still has valid outgoing messages, and only the messages of
+ * changed nodes need to be recomputed. When stored, each message row carries the fingerprint of
+ * its source node as its version.
+ */
+public final class MessageSnapshot {
+    public static final MessageSnapshot EMPTY = new MessageSnapshot(Map.of(), Map.of());
+
+    private static final Category[] CATEGORIES = Category.values();
+
+    private final Map<EdgeKey, double[]> messages;
+    private final Map<Long, Long> fingerprints;
+    // the categories still stored for edges that were not restored, since their rows exist all the same
+    private final Map<EdgeKey, Set<Category>> droppedRows;
+
+    MessageSnapshot(Map<EdgeKey, double[]> messages, Map<Long, Long> fingerprints) {
+        this(messages, fingerprints, Map.of());
+    }
+
+    private MessageSnapshot(Map<EdgeKey, double[]> messages, Map<Long, Long> fingerprints, Map<EdgeKey, Set<Category>> droppedRows) {
+        this.messages = messages;
+        this.fingerprints = fingerprints;
+        this.droppedRows = droppedRows;
+    }
+
+    /**
+     * Rebuilds a snapshot from stored rows. An edge is only restored if every category was stored
+     * with the same source version, so a partially written edge starts from uniform instead. The
+     * rows of an edge that is not restored are still remembered, so that saving over them updates
+     * them instead of inserting them again.
+     */
+    public static MessageSnapshot fromStoredMessages(List<InferenceMessage> rows) {
+        Map<EdgeKey, double[]> messages = new HashMap<>();
+        Map<EdgeKey, Integer> restoredCategories = new HashMap<>();
+        Map<EdgeKey, Set<Category>> storedCategories = new HashMap<>();
+        Map<Long, Long> fingerprints = new HashMap<>();
+        Set<Long> conflictingNodes = new HashSet<>();
+
+        for (InferenceMessage row : rows) {
+            Category category = row.getCategory();
+            EdgeKey key = EdgeKey.of(row.getSheepId(), row.getRelationshipId(), row.getDirection());
+            storedCategories.computeIfAbsent(key, k -> EnumSet.noneOf(Category.class)).add(category);
+            if (row.getProbabilities().length != Message.width(category)) continue;
+
+            Long previousVersion = fingerprints.putIfAbsent(key.source(), row.getSourceVersion());
+            if (previousVersion != null && previousVersion != row.getSourceVersion()) {
+                conflictingNodes.add(key.source());
+            }
+
+            double[] values = messages.computeIfAbsent(key, k -> new double[Message.valuesLength()]);
+            System.arraycopy(row.getProbabilities(), 0, values, Message.offset(category), Message.width(category));
+            restoredCategories.merge(key, 1, Integer::sum);
+        }
+
+        messages.keySet().removeIf(key ->
+                restoredCategories.get(key) != CATEGORIES.length || conflictingNodes.contains(key.source()));
+        fingerprints.keySet().removeAll(conflictingNodes);
+        storedCategories.keySet().removeAll(messages.keySet());
+
+        return new MessageSnapshot(messages, fingerprints, storedCategories);
+    }
+
+    public int messageCount() {
+        return messages.size();
+    }
+
+    double[] message(long sourceKey, long targetKey) {
+        return messages.get(new EdgeKey(sourceKey, targetKey));
+    }
+
+    /**
+     * @return {@code true} if the node was in the snapshot with the given fingerprint
+     */
+    boolean hasFingerprint(long nodeKey, long fingerprint) {
+        Long previous = fingerprints.get(nodeKey);
+        return previous != null && previous == fingerprint;
+    }
+
+    /**
+     * @return a row for every message category that is new, differs from the previous snapshot,
+     * or whose source node changed version
+     */
+    public List<InferenceMessage> messagesChangedSince(MessageSnapshot previous, UUID userId) {
+        List<InferenceMessage> changed = new ArrayList<>();
+        for (Map.Entry<EdgeKey, double[]> entry : messages.entrySet()) {
+            EdgeKey key = entry.getKey();
+            double[] values = entry.getValue();
+            long version = fingerprints.get(key.source());
+
+            double[] previousValues = previous.messages.get(key);
+            boolean sameVersion = previous.hasFingerprint(key.source(), version);
+
+            for (Category category : CATEGORIES) {
+                int offset = Message.offset(category);
+                int end = offset + Message.width(category);
+                if (sameVersion && previousValues != null
+                        && Arrays.equals(values, offset, end, previousValues, offset, end)) {
+                    continue;
+                }
+
+                InferenceMessage row = key.toRow(userId, category);
+                row.setSourceVersion(version);
+                row.setProbabilities(Arrays.copyOfRange(values, offset, end));
+                if (!previous.stores(key, category)) {
+                    row.markNew();
+                }
+                changed.add(row);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the keys of every message category stored in the previous snapshot whose edge is gone
+     */
+    public List<InferenceMessageKey> messagesRemovedSince(MessageSnapshot previous, UUID userId) {
+        List<InferenceMessageKey> removed = new ArrayList<>();
+        for (EdgeKey key : previous.messages.keySet()) {
+            if (messages.containsKey(key)) continue;
+            for (Category category : CATEGORIES) {
+                removed.add(key.toRow(userId, category).getId());
+            }
+        }
+        for (Map.Entry<EdgeKey, Set<Category>> entry : previous.droppedRows.entrySet()) {
+            if (messages.containsKey(entry.getKey())) continue;
+            for (Category category : entry.getValue()) {
+                removed.add(entry.getKey().toRow(userId, category).getId());
+            }
+        }
+        return removed;
+    }
+
+    // whether a row of the edge's category exists where this snapshot was loaded from
+    private boolean stores(EdgeKey key, Category category) {
+        if (messages.containsKey(key)) {
+            return true;
+        }
+        Set<Category> dropped = droppedRows.get(key);
+        return dropped != null && dropped.contains(category);
+    }
+
+    /**
+     * A directed edge between two node keys. Sheep keys are {@code id << 1} and relationship keys
+     * {@code (id << 1) | 1}, so both id spaces fit in one key space.
+     */
+    record EdgeKey(long source, long target) {
+
+        static long sheepKey(int sheepId) {
+            return (long) sheepId << 1;
+        }
+
+        static long relationshipKey(int relationshipId) {
+            return ((long) relationshipId << 1) | 1;
+        }
+
+        static EdgeKey of(int sheepId, int relationshipId, MessageDirection direction) {
+            long sheep = sheepKey(sheepId);
+            long relationship = relationshipKey(relationshipId);
+            return direction == MessageDirection.SHEEP_TO_RELATIONSHIP
+                    ? new EdgeKey(sheep, relationship)
+                    : new EdgeKey(relationship, sheep);
+        }
+
+        InferenceMessage toRow(UUID userId, Category category) {
+            boolean fromSheep = (source & 1) == 0;
+            long sheep = fromSheep ? source : target;
+            long relationship = fromSheep ? target : source;
+            return new InferenceMessage(
+                    userId,
+                    (int) (sheep >> 1),
+                    (int) (relationship >> 1),
+                    fromSheep ? MessageDirection.SHEEP_TO_RELATIONSHIP : MessageDirection.RELATIONSHIP_TO_SHEEP,
+                    category
+            );
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.progressengine.geneinference.model;
+
+/**
+ * Reusable buffers for computing a message category without allocating. One workspace must only
+ * be used by one thread at a time.
+ */
+final class MessageWorkspace {
+    // the computed category slice, indexed by allele ordinal
+    final double[] result = new double[Message.maxWidth()];
+
+    // a stored category slice as it was before the store, indexed by allele ordinal
+    final double[] previous = new double[Message.maxWidth()];
+
+    // a joint hidden allele distribution, indexed by first * width + second
+    final double[] joint = new double[Message.maxWidth() * Message.maxWidth()];
+
+    // log weights of the hidden pairs, indexed like joint
+    final double[] pairWeights = new double[Message.maxWidth() * Message.maxWidth()];
+}
@@ -0,0 +1,43 @@
+package com.progressengine.geneinference.model;
+
+/**
+ * Shape of a synthetic flock.
+ *
+ * @param founders the number of unrelated sheep with random genotypes in the first generation
+ * @param generations the number of bred generations after the founders
+ * @param litterSize the children each pairing produces per generation
+ * @param partnersPerSheep the partners each sheep of a generation is paired with
+ * @param inbreedingRate the chance that a partner is picked from the sheep's siblings or parents,
+ *                       closing a loop in the pedigree, instead of from unrelated sheep
+ * @param maxSheep a cap on the flock size, or 0 for none
+ * @param seed the seed of every random choice, so a spec always produces the same flock
+ */
+public record PedigreeSpec(
+        int founders,
+        int generations,
+        int litterSize,
+        int partnersPerSheep,
+        double inbreedingRate,
+        int maxSheep,
+        long seed
+) {
+    public PedigreeSpec {
+        if (founders < 2) {
+            throw new IllegalArgumentException("A pedigree needs at least two founders");
+        }
+        if (generations < 0 || litterSize < 1 || partnersPerSheep < 1 || maxSheep < 0) {
+            throw new IllegalArgumentException("Generations and the size cap must not be negative, litter size and partners must be positive");
+        }
+        if (inbreedingRate < 0.0 || inbreedingRate > 1.0) {
+            throw new IllegalArgumentException("Inbreeding rate must be between 0 and 1. Actual: " + inbreedingRate);
+        }
+    }
+
+    /**
+     * A spec for roughly the given number of sheep: one partner per sheep and litters of two keep
+     * each generation about as large as the last, so the founders are a sixth of the flock.
+     */
+    public static PedigreeSpec ofSize(int sheepCount, double inbreedingRate, long seed) {
+        return new PedigreeSpec(Math.max(2, sheepCount / 6), 8, 2, 1, inbreedingRate, sheepCount, seed);
+    }
+}
@@ -0,0 +1,24 @@
+package com.progressengine.geneinference.model;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A user's flock loaded and compiled for message passing, with everything the propagation reads
+ * already loaded, so it can run after the loading transaction has ended.
+ *
+ * @param userId the owner of the flock
+ * @param sheep every sheep of the user
+ * @param graph the compiled factor graph over the sheep and their relationships
+ * @param previous the user's stored messages, {@link MessageSnapshot#EMPTY} if there are none
+ * @param coldStart whether to propagate from uniform messages even if stored ones exist; the
+ *                  stored messages are still what the new ones are saved against
+ */
+public record PreparedRecalculation(
+        UUID userId,
+        List<Sheep> sheep,
+        CompiledFactorGraph graph,
+        MessageSnapshot previous,
+        boolean coldStart
+) {
+}
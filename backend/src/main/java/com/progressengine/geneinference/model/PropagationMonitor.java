@@ -0,0 +1,32 @@
+package com.progressengine.geneinference.model;
+
+/**
+ * Observes a message passing run of a {@link CompiledFactorGraph} and can stop it. Workers of a
+ * parallel run call it concurrently, so implementations must be thread-safe.
+ */
+public interface PropagationMonitor {
+    PropagationMonitor NONE = new PropagationMonitor() {};
+
+    /**
+     * Called every few thousand recomputations of a worker, and when it finishes.
+     *
+     * @param updates the message updates of the worker since its last call
+     * @param residual the largest change of a stored message since its last call
+     */
+    default void progressed(int updates, double residual) {
+    }
+
+    /**
+     * Called once per component, after every worker on it has finished.
+     */
+    default void componentSolved(ComponentPropagation component) {
+    }
+
+    /**
+     * Polled with every progress call; once it returns {@code true} the run stops by throwing a
+     * {@link java.util.concurrent.CancellationException}, leaving the messages part way.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.MessageSchedule;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Work done by one message passing run.
+ *
+ * @param schedule the order pending message updates were processed in
+ * @param computations the number of message categories recomputed
+ * @param updates the number of recomputations that changed a stored message
+ * @param components the work per connected component, for components with at least one relationship
+ */
+public record PropagationResult(
+        MessageSchedule schedule,
+        int computations,
+        int updates,
+        List<ComponentPropagation> components
+) {
+    static PropagationResult of(MessageSchedule schedule, List<ComponentPropagation> components) {
+        int computations = 0;
+        int updates = 0;
+        for (ComponentPropagation component : components) {
+            computations += component.computations();
+            updates += component.updates();
+        }
+        return new PropagationResult(schedule, computations, updates, List.copyOf(components));
+    }
+
+    /**
+     * @return {@code true} if every component settled; see {@link ComponentPropagation#converged()}
+     */
+    public boolean converged() {
+        return components.stream().allMatch(ComponentPropagation::converged);
+    }
+
+    /**
+     * @return the updates of every component split by category
+     */
+    public Map<Category, Integer> updatesByCategory() {
+        Map<Category, Integer> updates = new EnumMap<>(Category.class);
+        for (ComponentPropagation component : components) {
+            component.updatesByCategory().forEach((category, count) -> updates.merge(category, count, Integer::sum));
+        }
+        return updates;
+    }
+
+    /**
+     * @return the most message updates pending at once in any component
+     */
+    public int peakPending() {
+        return components.stream().mapToInt(ComponentPropagation::peakPending).max().orElse(0);
+    }
+}
@@ -0,0 +1,243 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.RecalculationJobStatus;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A background recalculation of one user's beliefs. The worker moves it through its statuses and
+ * reports message passing progress to it; request threads read its progress and may cancel it.
+ * Cancellation takes effect while the job is queued or propagating; once beliefs are being saved
+ * the job runs to the end, so stored beliefs and messages stay consistent.
+ */
+public class RecalculationJob implements PropagationMonitor {
+    private final String jobId;
+    private final UUID userId;
+    // propagates from uniform messages instead of the stored ones
+    private final boolean coldStart;
+    private final Instant submittedAt = Instant.now();
+
+    private volatile RecalculationJobStatus status = RecalculationJobStatus.QUEUED;
+    private volatile boolean cancelRequested;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    // progress of message passing
+    private final AtomicLong updates = new AtomicLong();
+    private volatile double residual;
+    private final AtomicInteger componentsSolved = new AtomicInteger();
+    private volatile int componentCount;
+
+    // progress of saving the beliefs, in sheep
+    private final AtomicInteger sheepSaved = new AtomicInteger();
+    private volatile int sheepCount;
+
+    // outcome of message passing, set when the job completes
+    private volatile boolean converged;
+    private volatile int unconvergedComponents;
+    private volatile int dampedMessages;
+
+    public RecalculationJob(String jobId, UUID userId) {
+        this(jobId, userId, false);
+    }
+
+    public RecalculationJob(String jobId, UUID userId, boolean coldStart) {
+        this.jobId = jobId;
+        this.userId = userId;
+        this.coldStart = coldStart;
+    }
+
+    /**
+     * Moves a queued job to message passing.
+     *
+     * @return {@code false} if the job was cancelled before it started
+     */
+    public synchronized boolean start(int componentCount) {
+        if (status != RecalculationJobStatus.QUEUED) {
+            return false;
+        }
+        this.componentCount = componentCount;
+        status = RecalculationJobStatus.PROPAGATING;
+        return true;
+    }
+
+    /**
+     * Moves a saving job back to message passing, for a new run over a flock that changed during
+     * the last one. Progress starts over, and the job can be cancelled again.
+     */
+    public synchronized void restart(int componentCount) {
+        updates.set(0);
+        residual = 0.0;
+        componentsSolved.set(0);
+        sheepSaved.set(0);
+        this.componentCount = componentCount;
+        status = RecalculationJobStatus.PROPAGATING;
+    }
+
+    /**
+     * Moves the job to saving, after which it can no longer be cancelled.
+     *
+     * @return {@code false} if the job was cancelled during message passing
+     */
+    public synchronized boolean startSaving(int sheepCount) {
+        if (cancelRequested) {
+            return false;
+        }
+        this.sheepCount = sheepCount;
+        status = RecalculationJobStatus.SAVING;
+        return true;
+    }
+
+    public void sheepSaved(int count) {
+        sheepSaved.addAndGet(count);
+    }
+
+    public synchronized void complete(PropagationResult propagation) {
+        int unconverged = 0;
+        int damped = 0;
+        for (ComponentPropagation component : propagation.components()) {
+            if (!component.converged()) unconverged++;
+            damped += component.dampedMessages();
+        }
+        this.converged = propagation.converged();
+        this.unconvergedComponents = unconverged;
+        this.dampedMessages = damped;
+        finish(RecalculationJobStatus.COMPLETED);
+    }
+
+    public synchronized void cancelled() {
+        finish(RecalculationJobStatus.CANCELLED);
+    }
+
+    public synchronized void failed(String error) {
+        this.error = error;
+        finish(RecalculationJobStatus.FAILED);
+    }
+
+    private void finish(RecalculationJobStatus finalStatus) {
+        status = finalStatus;
+        finishedAt = Instant.now();
+        notifyAll();
+    }
+
+    /**
+     * Blocks until the job is completed, cancelled or failed.
+     */
+    public synchronized void awaitFinished() throws InterruptedException {
+        while (!isFinished()) {
+            wait();
+        }
+    }
+
+    /**
+     * Asks the job to stop. A queued job is cancelled at once, a propagating one at its workers'
+     * next progress check.
+     *
+     * @return {@code false} if the job is already saving or finished and will not be cancelled
+     */
+    public synchronized boolean cancel() {
+        if (status == RecalculationJobStatus.QUEUED) {
+            cancelRequested = true;
+            finish(RecalculationJobStatus.CANCELLED);
+            return true;
+        }
+        if (status == RecalculationJobStatus.PROPAGATING) {
+            cancelRequested = true;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void progressed(int updates, double residual) {
+        this.updates.addAndGet(updates);
+        this.residual = residual;
+    }
+
+    @Override
+    public void componentSolved(ComponentPropagation component) {
+        componentsSolved.incrementAndGet();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelRequested;
+    }
+
+    public boolean isFinished() {
+        return status.isFinished();
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public UUID getUserId() {
+        return userId;
+    }
+
+    public boolean isColdStart() {
+        return coldStart;
+    }
+
+    public RecalculationJobStatus getStatus() {
+        return status;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * @return the largest message change in the latest progress report of a worker
+     */
+    public double getResidual() {
+        return residual;
+    }
+
+    public int getComponentsSolved() {
+        return componentsSolved.get();
+    }
+
+    /**
+     * @return the components with relationships, each of which the run solves
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    public int getSheepSaved() {
+        return sheepSaved.get();
+    }
+
+    public int getSheepCount() {
+        return sheepCount;
+    }
+
+    public boolean isConverged() {
+        return converged;
+    }
+
+    public int getUnconvergedComponents() {
+        return unconvergedComponents;
+    }
+
+    public int getDampedMessages() {
+        return dampedMessages;
+    }
+}
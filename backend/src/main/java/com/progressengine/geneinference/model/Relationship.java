@@ -35,13 +35,29 @@ public class Relationship {
     private Map<Category, Map<AlleleCodePair, Double>> jointDistributionCache;
 
     @Transient
+    // set when the joint caches must be normalized again from the log scores
     private boolean jointCacheDirty = true;
 
+    @Transient
+    // Ordinal indexed copy of the joint cache per category, [first * alleleCount + second]
+    private double[][] jointArrayCache;
+
+    @Transient
+    // Unnormalized log likelihood of every parent hidden pair per category, summed over the births
+    // the pair can produce, indexed as the joint arrays
+    private double[][] jointLogScores;
+
+    @Transient
+    // Births per category and parent hidden pair that the pair cannot produce
+    private int[][] impossibleBirths;
+
     @Transient
     // Stores by category, then parent phenotypes at time of birth, and then phenotype frequency
     private Map<Category, Map<AlleleCodePair, Map<String, Integer>>> phenotypeFrequencyCache;
 
     @Transient
+    // set when the frequencies and log scores must be rebuilt from every birth record; once built,
+    // adding or removing a birth updates them in place
     private boolean frequencyCacheDirty = true;
 
     @OneToMany(mappedBy = "parentRelationship", cascade = CascadeType.ALL, orphanRemoval = true)
@@ -90,8 +106,7 @@ public class Relationship {
     private BirthRecord recordBirth(Sheep child) {
         BirthRecord birthRecord = BirthRecord.create(this, child.getGenotypes(), child);
         birthRecords.add(birthRecord);
-        frequencyCacheDirty = true;
-        jointCacheDirty = true;
+        countBirth(birthRecord, 1);
         return birthRecord;
     }
 
@@ -99,8 +114,7 @@ public class Relationship {
     private BirthRecord recordBirth(Map<Category, SheepGenotypeDTO> childGenotypes) {
         BirthRecord birthRecord = BirthRecord.create(this, childGenotypes, null);
         birthRecords.add(birthRecord);
-        frequencyCacheDirty = true;
-        jointCacheDirty = true;
+        countBirth(birthRecord, 1);
         return birthRecord;
     }
 
@@ -118,84 +132,64 @@ public class Relationship {
 
 
     private void checkDirtyJointCache() {
+        checkDirtyFrequencyCache();
         if (jointCacheDirty || jointDistributionCache == null) {
-            jointDistributionCache = computeJointCache();
+            Map<Category, Map<AlleleCodePair, Double>> joints = new EnumMap<>(Category.class);
+            double[][] jointArrays = new double[Category.values().length][];
+            for (Category category : Category.values()) {
+                double[] joint = normalizeJoint(category);
+                jointArrays[category.ordinal()] = joint;
+                joints.put(category, toJointMap(category, joint));
+            }
+            jointDistributionCache = joints;
+            jointArrayCache = jointArrays;
             jointCacheDirty = false;
         }
     }
 
-
-    private Map<Category, Map<AlleleCodePair, Double>> computeJointCache() {
-        Map<Category, Map<AlleleCodePair, Double>> result = new EnumMap<>(Category.class);
-        Map<Category, Map<AlleleCodePair, Map<String, Integer>>> phenotypeRecordFrequencies = copyFrequencyCache();
-
-        for (Category category : Category.values()) {
-            Map<AlleleCodePair, Double> jointEpoch = uniformJointDistribution(category);
-            Map<AlleleCodePair, Map<String, Integer>> epochFrequencies = phenotypeRecordFrequencies.get(category);
-
-            if (epochFrequencies == null || epochFrequencies.isEmpty()) {
-                result.put(category, jointEpoch); // uniform
-                continue;
-            }
-
-            computeJointCacheForCategory(category, jointEpoch, epochFrequencies);
-            result.put(category, jointEpoch);
+    /**
+     * Normalizes the category's log scores into its joint distribution, subtracting the largest
+     * score first so relationships with long birth histories do not underflow. Without births the
+     * joint stays uniform.
+     * <p>
+     * Births that no hidden pair can explain, such as a mistyped phenotype, would leave every pair
+     * impossible. The joint is then taken over the pairs that contradict the fewest births, as if
+     * those births had not been recorded.
+     */
+    private double[] normalizeJoint(Category category) {
+        double[] logScores = jointLogScores[category.ordinal()];
+        int[] impossible = impossibleBirths[category.ordinal()];
+
+        int fewestImpossible = Integer.MAX_VALUE;
+        for (int count : impossible) {
+            fewestImpossible = Math.min(fewestImpossible, count);
         }
 
-        return result;
-    }
-
-    private <A extends Enum<A> & Allele> void computeJointCacheForCategory(
-        Category category,
-        Map<AlleleCodePair, Double> jointEpoch,
-        Map<AlleleCodePair, Map<String, Integer>> epochFrequencies
-    ) {
-        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
-
-        for (Map.Entry<AlleleCodePair, Map<String, Integer>> entry : epochFrequencies.entrySet()) {
-            AlleleCodePair pair = entry.getKey();
-            Map<String, Integer> phenotypeFreq = entry.getValue();
-
-            A parent1 = domain.parse(pair.first());
-            A parent2 = domain.parse(pair.second());
-
-            Map<A, Integer> typedPhenotypeFreq = new EnumMap<>(domain.getAlleleType());
-            for (Map.Entry<String, Integer> freqEntry : phenotypeFreq.entrySet()) {
-                A phenotype = domain.parse(freqEntry.getKey());
-                typedPhenotypeFreq.put(phenotype, freqEntry.getValue());
-            }
-
-            Map<AllelePair<A>, Double> currentJoint =
-                    InferenceMath.multinomialJointScores(parent1, parent2, typedPhenotypeFreq, domain);
-
-            Map<AlleleCodePair, Double> currentJointCodes = new HashMap<>();
-            for (Map.Entry<AllelePair<A>, Double> jointEntry : currentJoint.entrySet()) {
-                currentJointCodes.put(
-                        AlleleCodePair.fromAllelePair(jointEntry.getKey()),
-                        jointEntry.getValue()
-                );
-            }
-
-            InferenceMath.productOfExperts(jointEpoch, currentJointCodes);
+        double[] joint = new double[logScores.length];
+        for (int pair = 0; pair < joint.length; pair++) {
+            joint[pair] = impossible[pair] > fewestImpossible ? Double.NEGATIVE_INFINITY : logScores[pair];
         }
+
+        InferenceMath.normalizeLogScores(joint, 0, joint.length);
+        InferenceMath.validateDistribution(joint, 0, joint.length);
+        return joint;
     }
 
 
-    private Map<AlleleCodePair, Double> uniformJointDistribution(Category category) {
-        AlleleDomain<?> domain = CategoryDomains.domainFor(category);
+    private <A extends Enum<A> & Allele> Map<AlleleCodePair, Double> toJointMap(Category category, double[] joint) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        int alleleCount = domain.getAlleles().size();
 
         Map<AlleleCodePair, Double> result = new HashMap<>();
-
-        for (Allele a1 : domain.getAlleles()) {
-            for (Allele a2 : domain.getAlleles()) {
+        for (A a1 : domain.getAlleles()) {
+            for (A a2 : domain.getAlleles()) {
                 result.put(
                         new AlleleCodePair(a1.code(), a2.code()),
-                        1.0
+                        joint[a1.ordinal() * alleleCount + a2.ordinal()]
                 );
             }
         }
 
-        InferenceMath.normalizeScores(result);
         return result;
     }
 
@@ -249,8 +243,73 @@ public class Relationship {
     private void checkDirtyFrequencyCache() {
         if (frequencyCacheDirty || phenotypeFrequencyCache == null) {
             phenotypeFrequencyCache = aggregateFrequenciesFromBirthRecords();
+
+            jointLogScores = new double[Category.values().length][];
+            impossibleBirths = new int[Category.values().length][];
+            for (Category category : Category.values()) {
+                int alleleCount = CategoryDomains.domainFor(category).getAlleles().size();
+                jointLogScores[category.ordinal()] = new double[alleleCount * alleleCount];
+                impossibleBirths[category.ordinal()] = new int[alleleCount * alleleCount];
+
+                Map<AlleleCodePair, Map<String, Integer>> epochs = phenotypeFrequencyCache.getOrDefault(category, Map.of());
+                for (Map.Entry<AlleleCodePair, Map<String, Integer>> epoch : epochs.entrySet()) {
+                    for (Map.Entry<String, Integer> frequency : epoch.getValue().entrySet()) {
+                        addLogScores(category, epoch.getKey(), frequency.getKey(), frequency.getValue());
+                    }
+                }
+            }
+
             frequencyCacheDirty = false;
+            jointCacheDirty = true;
+        }
+    }
+
+
+    /**
+     * Adds one birth to the frequencies and log scores, or takes it back out with {@code births} of
+     * -1, at the cost of one kernel block per category instead of a pass over every birth. Does
+     * nothing until the caches are first built, since that reads every birth record anyway, so a
+     * birth record's phenotypes must be complete by the time it is added.
+     */
+    private void countBirth(BirthRecord birthRecord, int births) {
+        if (frequencyCacheDirty || phenotypeFrequencyCache == null) {
+            return;
         }
+
+        for (BirthRecordPhenotype p : birthRecord.getPhenotypesAtBirth()) {
+            AlleleCodePair parents = new AlleleCodePair(
+                    p.getParent1PhenotypeCode(),
+                    p.getParent2PhenotypeCode()
+            );
+            String childPhenotypeCode = p.getChildPhenotypeCode();
+
+            Map<AlleleCodePair, Map<String, Integer>> epochs =
+                    phenotypeFrequencyCache.computeIfAbsent(p.getCategory(), c -> new HashMap<>());
+            Map<String, Integer> frequencies = epochs.computeIfAbsent(parents, k -> new HashMap<>());
+            if (frequencies.merge(childPhenotypeCode, births, Integer::sum) == 0) {
+                frequencies.remove(childPhenotypeCode);
+                if (frequencies.isEmpty() && epochs.remove(parents) != null && epochs.isEmpty()) {
+                    phenotypeFrequencyCache.remove(p.getCategory());
+                }
+            }
+
+            addLogScores(p.getCategory(), parents, childPhenotypeCode, births);
+        }
+        jointCacheDirty = true;
+    }
+
+
+    private <A extends Enum<A> & Allele> void addLogScores(Category category, AlleleCodePair parents, String childPhenotypeCode, int births) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        InferenceMath.addBirthLogScores(
+                CategoryDomains.kernelFor(domain),
+                domain.parse(parents.first()).ordinal(),
+                domain.parse(parents.second()).ordinal(),
+                domain.parse(childPhenotypeCode).ordinal(),
+                births,
+                jointLogScores[category.ordinal()],
+                impossibleBirths[category.ordinal()]
+        );
     }
 
 
@@ -297,23 +356,19 @@ public class Relationship {
     }
 
 
-    private void invalidateCaches() {
-        jointCacheDirty = true;
-        frequencyCacheDirty = true;
-    }
-
-
     public void addBirthRecord(BirthRecord birthRecord) {
-        birthRecords.add(birthRecord);
+        if (birthRecords.add(birthRecord)) {
+            countBirth(birthRecord, 1);
+        }
         birthRecord.setParentRelationship(this);
-        invalidateCaches();
     }
 
 
     public void removeBirthRecord(BirthRecord br) {
-        birthRecords.remove(br);
+        if (birthRecords.remove(br)) {
+            countBirth(br, -1);
+        }
         br.setParentRelationship(null); // helps orphanRemoval trigger reliably
-        invalidateCaches();
     }
 
 
@@ -340,6 +395,18 @@ public class Relationship {
     }
 
 
+    /**
+     * Returns the joint hidden allele distribution of the category as a flat array indexed by
+     * {@code first.ordinal() * alleleCount + second.ordinal()}. The array is the cached copy and must
+     * not be modified.
+     */
+    double[] getJointDistributionArray(Category category) {
+        checkDirtyJointCache();
+
+        return jointArrayCache[category.ordinal()];
+    }
+
+
     @Transactional
     public void setJointDistribution(Category category, Map<AllelePair<Grade>, Double> jointDistribution) {
         // no op
@@ -395,7 +462,6 @@ public class Relationship {
         }
 
         checkForExcessAllelesExperimental(child.getGenotypes());
-        invalidateCaches();
         return recordBirth(child);
     }
 
@@ -406,7 +472,6 @@ public class Relationship {
         }
 
         checkForExcessAllelesExperimental(child.getGenotypes());
-        invalidateCaches();
         return recordBirth(child.getGenotypes());
     }
 
@@ -418,11 +483,12 @@ public class Relationship {
             throw new IllegalStateException("Sheep is not a child of this relationship, id: " + this.id);
         }
 
-        birthRecords.remove(birthRecord);
+        if (birthRecords.remove(birthRecord)) {
+            countBirth(birthRecord, -1);
+        }
         child.setBirthRecord(null);
         birthRecord.setChild(null);
         birthRecord.setParentRelationship(null);
-        invalidateCaches();
     }
 
 
@@ -0,0 +1,219 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.InferenceMath;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleKernel;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes every message leaving one relationship for one category from a product kept over its
+ * children. Each child's message scales the parents' hidden pairs, and a message to one child needs
+ * the product of every other child's scale. The product of all scales is kept as a sum of logs per
+ * hidden pair, with the zero scales counted apart, so a child's own scale can be taken back out of
+ * it; the messages of a relationship with k children then cost O(k) joint passes instead of the
+ * O(k²) of computing each {@link ChildMessage} on its own.
+ * <p>
+ * The product is built from the child messages on first use and then kept up to date as each of
+ * them is stored, so messages of other nodes computed in between do not cost a rebuild. The parent
+ * messages are read each time a message is computed. One instance must only be used by one thread
+ * at a time.
+ */
+final class RelationshipFactor {
+    private final Relationship relationship;
+    private final Category category;
+    private final AlleleKernel kernel;
+    private final List<Message> incoming;
+    private final int width;
+    private final int pairs;
+    private final int offset;
+
+    // per hidden pair, the sum of the logs of the children's nonzero scales and the number of
+    // children whose scale is zero
+    private final double[] logScales;
+    private final int[] zeroScales;
+    private boolean loaded;
+    private int loads;
+
+    /**
+     * @param incoming the messages into the relationship in adjacency order: its parents first, then its children
+     */
+    RelationshipFactor(Relationship relationship, Category category, List<Message> incoming) {
+        this.relationship = relationship;
+        this.category = category;
+        this.kernel = CategoryDomains.kernelFor(category);
+        this.incoming = incoming;
+        this.width = kernel.size();
+        this.pairs = width * width;
+        this.offset = Message.offset(category);
+        this.logScales = new double[pairs];
+        this.zeroScales = new int[pairs];
+    }
+
+    /**
+     * Drops the product, for when the child messages may have been changed without
+     * {@link #childChanged}; it is built again on next use.
+     */
+    void unload() {
+        loaded = false;
+    }
+
+    /**
+     * @return how many times the product was built from every child message
+     */
+    int loads() {
+        return loads;
+    }
+
+    private void load() {
+        Arrays.fill(logScales, 0.0);
+        Arrays.fill(zeroScales, 0);
+        for (int position = 2; position < incoming.size(); position++) {
+            double[] expectedChildHidden = expectedChildHidden(position);
+            if (expectedChildHidden != null) {
+                add(expectedChildHidden, incoming.get(position).values(), offset, 1);
+            }
+        }
+        loaded = true;
+        loads++;
+    }
+
+    /**
+     * Moves the product from the previous message of the neighbour at the given adjacency position
+     * to its stored one. Parent messages are not part of the product.
+     *
+     * @param previous the category slice as it was before the message was stored, from index 0
+     */
+    void childChanged(int position, double[] previous) {
+        if (!loaded || position < 2) {
+            return;
+        }
+        double[] expectedChildHidden = expectedChildHidden(position);
+        if (expectedChildHidden != null) {
+            add(expectedChildHidden, previous, 0, -1);
+            add(expectedChildHidden, incoming.get(position).values(), offset, 1);
+        }
+    }
+
+    // adds the child's scales to the product, or takes them out with a sign of -1
+    private void add(double[] expectedChildHidden, double[] childDistribution, int childOffset, int sign) {
+        for (int pair = 0; pair < pairs; pair++) {
+            double scale = scale(expectedChildHidden, pair, childDistribution, childOffset);
+            if (scale == 0.0) {
+                zeroScales[pair] += sign;
+            } else {
+                logScales[pair] += sign * Math.log(scale);
+            }
+        }
+    }
+
+    // the hidden distribution a child's birth evidence implies per parent pair, null without evidence
+    private double[] expectedChildHidden(int position) {
+        BirthEvidence evidence = ((SheepMessage) incoming.get(position)).sourceBirthEvidence();
+        if (!evidence.has(category)) {
+            return null; // no evidence for this category, so the child scales every pair by 1
+        }
+        return kernel.childHiddenBlock(evidence.parent1(category), evidence.parent2(category), evidence.child(category));
+    }
+
+    private double scale(double[] expectedChildHidden, int pair, double[] childDistribution, int childOffset) {
+        int base = pair * width;
+        double scale = 0.0;
+        for (int allele = 0; allele < width; allele++) {
+            scale += expectedChildHidden[base + allele] * childDistribution[childOffset + allele];
+        }
+        return scale;
+    }
+
+    /**
+     * Computes the message to the relationship's neighbour at the given adjacency position into
+     * {@code workspace.result}, the same as the neighbour's {@link RelationshipMessage} or
+     * {@link ChildMessage} would.
+     *
+     * @param current the message to that neighbour as stored
+     * @return the squared L2 distance between the computed and the stored message
+     */
+    double computeMessage(int position, MessageWorkspace workspace, Message current) {
+        if (!loaded) {
+            load();
+        }
+
+        double[] joint = workspace.joint;
+        System.arraycopy(relationship.getJointDistributionArray(category), 0, joint, 0, pairs);
+
+        double[] out = workspace.result;
+        if (position < 2) {
+            // a parent: every child's scale, then sum out the other parent weighted by its message
+            double[] weights = workspace.pairWeights;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int pair = 0; pair < pairs; pair++) {
+                weights[pair] = zeroScales[pair] > 0 ? Double.NEGATIVE_INFINITY : logScales[pair];
+                max = Math.max(max, weights[pair]);
+            }
+            multiplyByExp(joint, weights, max);
+
+            double[] weight = incoming.get(1 - position).values();
+            Arrays.fill(out, 0, width, 0.0);
+            for (int first = 0; first < width; first++) {
+                for (int second = 0; second < width; second++) {
+                    double probability = joint[first * width + second];
+                    if (position == 0) {
+                        out[first] += probability * weight[offset + second];
+                    } else {
+                        out[second] += probability * weight[offset + first];
+                    }
+                }
+            }
+            return InferenceMath.normalizeWithSquaredDistance(out, 0, width, current.values(), offset);
+        }
+
+        double[] conditionals = expectedChildHidden(position);
+        if (conditionals == null) {
+            Arrays.fill(out, 0, width, 1.0 / width);
+            return current.squaredDistance(category, out);
+        }
+
+        // every other child's scale: the product with this child's own scale taken back out
+        double[] childDistribution = incoming.get(position).values();
+        double[] weights = workspace.pairWeights;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int pair = 0; pair < pairs; pair++) {
+            double scale = scale(conditionals, pair, childDistribution, offset);
+            int zeros = zeroScales[pair] - (scale == 0.0 ? 1 : 0);
+            weights[pair] = zeros > 0 ? Double.NEGATIVE_INFINITY
+                    : scale == 0.0 ? logScales[pair] : logScales[pair] - Math.log(scale);
+            max = Math.max(max, weights[pair]);
+        }
+        multiplyByExp(joint, weights, max);
+
+        // and both parents; the joint is not normalized, since only the normalized result is kept
+        double[] parent1Dist = incoming.get(0).values();
+        double[] parent2Dist = incoming.get(1).values();
+        for (int first = 0; first < width; first++) {
+            for (int second = 0; second < width; second++) {
+                joint[first * width + second] *= parent1Dist[offset + first] * parent2Dist[offset + second];
+            }
+        }
+
+        // accumulate the conditional hidden distributions of the child, weighted by the joint
+        Arrays.fill(out, 0, width, 0.0);
+        for (int pair = 0; pair < pairs; pair++) {
+            double jointWeight = joint[pair];
+            int base = pair * width;
+            for (int allele = 0; allele < width; allele++) {
+                out[allele] += jointWeight * conditionals[base + allele];
+            }
+        }
+        return InferenceMath.normalizeWithSquaredDistance(out, 0, width, current.values(), offset);
+    }
+
+    // scales the joint by the exponentials of the log weights, shifted by their largest so the
+    // product does not underflow; all -inf weights zero the joint, as a zero product did
+    private void multiplyByExp(double[] joint, double[] logWeights, double max) {
+        for (int pair = 0; pair < pairs; pair++) {
+            joint[pair] *= max == Double.NEGATIVE_INFINITY ? 0.0 : Math.exp(logWeights[pair] - max);
+        }
+    }
+}
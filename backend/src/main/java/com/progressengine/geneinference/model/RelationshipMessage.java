@@ -4,8 +4,10 @@ import com.progressengine.geneinference.model.enums.Category;
 import com.progressengine.geneinference.model.enums.Allele;
 import com.progressengine.geneinference.service.InferenceMath;
 import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleKernel;
 import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
@@ -18,19 +20,11 @@ public class RelationshipMessage extends Message {
     public RelationshipMessage() {
         this.source = null;
         this.target = null;
-        this.distribution = new EnumMap<>(Category.class);
-        for (Category category : Category.values()) {
-            initializeUniform(category);
-        }
     }
 
     public RelationshipMessage(Node<Relationship> source, Node<Sheep> target) {
         this.source = source;
         this.target = target;
-        this.distribution = new EnumMap<>(Category.class);
-        for (Category category : Category.values()) {
-            initializeUniform(category);
-        }
     }
 
     @Override
@@ -87,6 +81,73 @@ public class RelationshipMessage extends Message {
 
     }
 
+    @Override
+    void computeMessageForCategory(Category category, List<Message> messages, MessageWorkspace workspace) {
+        Relationship relationship = source.getValue();
+        Sheep targetSheep = target.getValue();
+
+        boolean firstParentAsWeight = relationship.getParent2().equals(targetSheep);
+        AlleleKernel kernel = CategoryDomains.kernelFor(category);
+        int width = kernel.size();
+        int offset = offset(category);
+
+        double[] joint = workspace.joint;
+        System.arraycopy(relationship.getJointDistributionArray(category), 0, joint, 0, width * width);
+
+        for (int i = 1; i < messages.size(); i++) {
+            incorporateChildMessageForCategory(category, kernel, joint, messages.get(i));
+        }
+
+        // half joint marginal: sum out the weighted parent
+        double[] weight = messages.getFirst().values();
+        double[] out = workspace.result;
+        Arrays.fill(out, 0, width, 0.0);
+        for (int first = 0; first < width; first++) {
+            for (int second = 0; second < width; second++) {
+                double probability = joint[first * width + second];
+                if (firstParentAsWeight) {
+                    out[second] += probability * weight[offset + first];
+                } else {
+                    out[first] += probability * weight[offset + second];
+                }
+            }
+        }
+        InferenceMath.normalizeScores(out, 0, width);
+    }
+
+    // array form of incorporateChildMessageForCategory over a joint indexed by first * width + second
+    protected void incorporateChildMessageForCategory(
+            Category category,
+            AlleleKernel kernel,
+            double[] joint,
+            Message message
+    ) {
+        BirthEvidence evidence = ((SheepMessage) message).sourceBirthEvidence();
+        if (!evidence.has(category)) {
+            return; // no evidence for this category
+        }
+
+        int width = kernel.size();
+        int offset = offset(category);
+        double[] childDistribution = message.values();
+        double[] expectedChildHidden = kernel.childHiddenBlock(
+                evidence.parent1(category),
+                evidence.parent2(category),
+                evidence.child(category)
+        );
+
+        for (int pair = 0; pair < width * width; pair++) {
+            int base = pair * width;
+            double scalingFactor = 0.0;
+            for (int allele = 0; allele < width; allele++) {
+                scalingFactor += expectedChildHidden[base + allele] * childDistribution[offset + allele];
+            }
+            joint[pair] *= scalingFactor;
+        }
+
+        InferenceMath.normalizeScores(joint, 0, width * width);
+    }
+
     protected <A extends Enum<A> & Allele> void incorporateChildMessageForCategory(
             Category category,
             Map<AllelePair<A>, Double> jointDistribution,
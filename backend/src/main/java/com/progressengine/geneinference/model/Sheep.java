@@ -24,6 +24,14 @@ import java.util.*;
                 @NamedAttributeNode("birthRecord")
         }
 )
+@NamedEntityGraph(
+        name = "Sheep.withDistributionVectorsAndGenotypes",
+        attributeNodes = {
+                @NamedAttributeNode("distributionVectors"),
+                @NamedAttributeNode("genotypes"),
+                @NamedAttributeNode("birthRecord")
+        }
+)
 public class Sheep {
 
     @Id
@@ -40,9 +48,16 @@ public class Sheep {
     @OneToMany(mappedBy = "sheep", cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
     private Set<SheepDistribution> distributions = new HashSet<>();
 
+    @OneToMany(mappedBy = "sheep", cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
+    private Set<SheepDistributionVector> distributionVectors = new HashSet<>();
+
     @Transient
     private Map<Category, Map<DistributionType, Map<String, SheepDistribution>>> distributionsByCategory = new EnumMap<>(Category.class);
 
+    // read-only view of the distributions unpacked from distributionVectors, dropped on the first write
+    @Transient
+    private Map<Category, Map<DistributionType, Map<String, Double>>> unpackedDistributions;
+
     @Transient
     private boolean organized = false;
 
@@ -528,8 +543,55 @@ public class Sheep {
     }
 
 
+    /**
+     * Reads this sheep's distributions from its vectors instead of its rows until a distribution is
+     * next written, so the rows never have to be loaded. The vectors must have been fetched with the
+     * sheep; a sheep without a vector for every category and type keeps reading its rows.
+     *
+     * @return whether the vectors are read
+     */
+    public boolean readDistributionsFromVectors() {
+        if (distributionVectors.size() != Category.values().length * DistributionType.values().length) {
+            return false;
+        }
+
+        Map<Category, Map<DistributionType, Map<String, Double>>> unpacked = new EnumMap<>(Category.class);
+        for (SheepDistributionVector vector : distributionVectors) {
+            unpacked.computeIfAbsent(vector.getCategory(), k -> new EnumMap<>(DistributionType.class))
+                    .put(vector.getDistributionType(), DistributionVectors.unpack(vector.getCategory(), vector.getProbabilities()));
+        }
+        unpackedDistributions = unpacked;
+        return true;
+    }
+
+
+    /**
+     * Gives a sheep that was built outside of a persistence context its distributions as packed
+     * vectors, which are then read as by {@link #readDistributionsFromVectors()}.
+     */
+    public void setDistributionVectors(Map<Category, Map<DistributionType, double[]>> vectors) {
+        distributionVectors.clear();
+        for (Map.Entry<Category, Map<DistributionType, double[]>> byCategory : vectors.entrySet()) {
+            for (Map.Entry<DistributionType, double[]> byType : byCategory.getValue().entrySet()) {
+                SheepDistributionVector vector = new SheepDistributionVector(this, byCategory.getKey(), byType.getKey());
+                vector.setProbabilities(byType.getValue());
+                distributionVectors.add(vector);
+            }
+        }
+        readDistributionsFromVectors();
+    }
+
+
     public Map<Category, Map<DistributionType, Map<String, Double>>> getAllDistributions() {
         Map<Category, Map<DistributionType, Map<String, Double>>> distributionsByCategoryDTO = new EnumMap<>(Category.class);
+        if (unpackedDistributions != null) {
+            unpackedDistributions.forEach((category, byType) -> {
+                Map<DistributionType, Map<String, Double>> copy = new EnumMap<>(DistributionType.class);
+                byType.forEach((type, distribution) -> copy.put(type, new HashMap<>(distribution)));
+                distributionsByCategoryDTO.put(category, copy);
+            });
+            return distributionsByCategoryDTO;
+        }
 
         for (SheepDistribution dist : distributions) {
             distributionsByCategoryDTO
@@ -543,6 +605,11 @@ public class Sheep {
 
     public Map<Category, Map<String, Double>> getAllDistributionsByType(DistributionType distributionType) {
         Map<Category, Map<String, Double>> distributionsByTypeDTO = new EnumMap<>(Category.class);
+        if (unpackedDistributions != null) {
+            unpackedDistributions.forEach((category, byType) ->
+                    distributionsByTypeDTO.put(category, new HashMap<>(byType.get(distributionType))));
+            return distributionsByTypeDTO;
+        }
 
         for (SheepDistribution dist : distributions) {
             if (dist.getDistributionType() != distributionType) { continue; }
@@ -558,14 +625,21 @@ public class Sheep {
         Category category,
         DistributionType distributionType
     ) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        Map<A, Double> result = new EnumMap<>(domain.getAlleleType());
+        if (unpackedDistributions != null) {
+            Map<String, Double> unpacked = unpackedDistributions.get(category).get(distributionType);
+            for (A allele : domain.getAlleles()) {
+                result.put(allele, unpacked.get(allele.code()));
+            }
+            return result;
+        }
+
         if (!organized) {
             organizeDistributions();
         }
-
-        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
         Map<String, SheepDistribution> distMap = getDistributionByCategoryAndType(category, distributionType);
 
-        Map<A, Double> result = new EnumMap<>(domain.getAlleleType());
         for (A allele : domain.getAlleles()) {
             SheepDistribution dist = distMap.get(allele.code());
             result.put(allele, dist == null ? 0.0 : dist.getProbability());
@@ -592,6 +666,7 @@ public class Sheep {
         DistributionType distributionType,
         Map<A, Double> distribution
     ) {
+        unpackedDistributions = null;
         Map<String, SheepDistribution> distMap =
                 createIfAbsentDistributionByCategoryAndType(category, distributionType);
 
@@ -611,6 +686,53 @@ public class Sheep {
 
             sheepDistribution.setProbability(probability);
         }
+
+        packDistributionVector(category, distributionType, distMap);
+    }
+
+    /**
+     * Packs a vector for every category and type that has rows but no vector yet.
+     *
+     * @return the number of vectors created
+     */
+    public int packMissingDistributionVectors() {
+        if (!organized) organizeDistributions();
+
+        int created = 0;
+        for (Map.Entry<Category, Map<DistributionType, Map<String, SheepDistribution>>> byCategory : distributionsByCategory.entrySet()) {
+            for (Map.Entry<DistributionType, Map<String, SheepDistribution>> byType : byCategory.getValue().entrySet()) {
+                Category category = byCategory.getKey();
+                DistributionType distributionType = byType.getKey();
+                boolean packed = distributionVectors.stream()
+                        .anyMatch(vector -> vector.getCategory() == category && vector.getDistributionType() == distributionType);
+                if (!packed) {
+                    packDistributionVector(category, distributionType, byType.getValue());
+                    created++;
+                }
+            }
+        }
+        return created;
+    }
+
+    // keeps the vector of the category and type in step with its rows
+    private void packDistributionVector(Category category, DistributionType distributionType, Map<String, SheepDistribution> distMap) {
+        SheepDistributionVector vector = null;
+        for (SheepDistributionVector candidate : distributionVectors) {
+            if (candidate.getCategory() == category && candidate.getDistributionType() == distributionType) {
+                vector = candidate;
+                break;
+            }
+        }
+        if (vector == null) {
+            vector = new SheepDistributionVector(this, category, distributionType);
+            distributionVectors.add(vector);
+        }
+
+        Map<String, Double> distributionByCode = new HashMap<>();
+        for (Map.Entry<String, SheepDistribution> entry : distMap.entrySet()) {
+            distributionByCode.put(entry.getKey(), entry.getValue().getProbability());
+        }
+        vector.setProbabilities(DistributionVectors.pack(category, distributionByCode));
     }
 
 
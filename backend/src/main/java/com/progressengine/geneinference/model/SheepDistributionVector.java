@@ -0,0 +1,79 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import jakarta.persistence.*;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.util.Objects;
+
+/**
+ * One category and type of a sheep's distribution, packed into a single row; see
+ * {@link DistributionVectors} for the layout. Kept in step with the {@link SheepDistribution} rows
+ * of the same sheep until reads have moved to vectors.
+ */
+@Entity
+@IdClass(SheepDistributionVectorKey.class)
+@Table(name = "sheep_distribution_vector")
+public class SheepDistributionVector {
+
+    @Id
+    @ManyToOne
+    @JoinColumn(name = "sheep_id", referencedColumnName = "id", nullable = false)
+    private Sheep sheep;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    private Category category;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    private DistributionType distributionType;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "probabilities", nullable = false)
+    private double[] probabilities;
+
+    public SheepDistributionVector() {}
+
+    public SheepDistributionVector(Sheep sheep, Category category, DistributionType distributionType) {
+        this.sheep = sheep;
+        this.category = category;
+        this.distributionType = distributionType;
+    }
+
+    public Sheep getSheep() {
+        return sheep;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    public DistributionType getDistributionType() {
+        return distributionType;
+    }
+
+    public double[] getProbabilities() {
+        return probabilities;
+    }
+
+    public void setProbabilities(double[] probabilities) {
+        this.probabilities = probabilities;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SheepDistributionVector that)) return false;
+        return Objects.equals(sheep.getId(), that.sheep.getId()) &&
+                category == that.category &&
+                distributionType == that.distributionType;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sheep != null ? sheep.getId() : null, category, distributionType);
+    }
+}
@@ -0,0 +1,48 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionType;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class SheepDistributionVectorKey implements Serializable {
+
+    private Integer sheep;
+    private Category category;
+    private DistributionType distributionType;
+
+    public SheepDistributionVectorKey() {}
+
+    public SheepDistributionVectorKey(Integer sheepId, Category category, DistributionType distributionType) {
+        this.sheep = sheepId;
+        this.category = category;
+        this.distributionType = distributionType;
+    }
+
+    public Integer getSheepId() {
+        return sheep;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    public DistributionType getDistributionType() {
+        return distributionType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SheepDistributionVectorKey that)) return false;
+        return Objects.equals(sheep, that.sheep)
+                && category == that.category
+                && distributionType == that.distributionType;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(sheep, category, distributionType);
+    }
+}
@@ -4,22 +4,23 @@ import com.progressengine.geneinference.model.enums.Category;
 import com.progressengine.geneinference.model.enums.Allele;
 import com.progressengine.geneinference.service.InferenceMath;
 import com.progressengine.geneinference.service.SheepService;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 
+import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SheepMessage extends Message {
     private final Node<Sheep> source;
     private final Node<Relationship> target;
+    private BirthEvidence sourceBirthEvidence;
 
     public SheepMessage(Node<Sheep> source, Node<Relationship> target) {
         this.source = source;
         this.target = target;
-        this.distribution = new EnumMap<>(Category.class);
-        for (Category category : Category.values()) {
-            initializeUniform(category);
-        }
     }
 
     @Override
@@ -32,23 +33,41 @@ public class SheepMessage extends Message {
         return target;
     }
 
+    // birth record phenotypes of the source sheep, read when the target relationship weighs this sheep as its child
+    BirthEvidence sourceBirthEvidence() {
+        if (sourceBirthEvidence == null) {
+            sourceBirthEvidence = BirthEvidence.of(source.getValue());
+        }
+        return sourceBirthEvidence;
+    }
+
+    @Override
+    void prepareForConcurrentUpdates() {
+        sourceBirthEvidence();
+    }
+
     @Override
     public Map<Category, Map<String, Double>> computeMessage(List<Message> messages) {
         Map<Category, Map<String, Double>> distribution = new EnumMap<>(Category.class);
-        for (Category category : Category.values()) {
-            initializeUniform(category);
-        }
+        MessageWorkspace workspace = new MessageWorkspace();
 
-        for (Message message : messages) {
-            Map<Category, Map<String, Double>> messageDist = message.getDistribution();
-            for (Category category : Category.values()) {
-                InferenceMath.productOfExperts(distribution.get(category), messageDist.get(category));
-            }
+        for (Category category : Category.values()) {
+            computeMessageForCategory(category, messages, workspace);
+            distribution.put(category, toCodeDistribution(category, workspace.result));
         }
 
         return distribution;
     }
 
+    private <A extends Enum<A> & Allele> Map<String, Double> toCodeDistribution(Category category, double[] ordinalDistribution) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        Map<String, Double> result = new HashMap<>();
+        for (A allele : domain.getAlleles()) {
+            result.put(allele.code(), ordinalDistribution[allele.ordinal()]);
+        }
+        return result;
+    }
+
     @Override
     public <A extends Enum<A> & Allele> Map<A, Double> computeMessageForCategory(Category category, List<Message> messages) {
         Map<A, Double> distribution = SheepService.createUniformDistribution(category);
@@ -59,4 +78,16 @@ public class SheepMessage extends Message {
 
         return distribution;
     }
+
+    @Override
+    void computeMessageForCategory(Category category, List<Message> messages, MessageWorkspace workspace) {
+        double[] out = workspace.result;
+        int width = width(category);
+        int offset = offset(category);
+        Arrays.fill(out, 0, width, 1.0 / width);
+
+        for (Message message : messages) {
+            InferenceMath.productOfExperts(out, 0, message.values(), offset, width);
+        }
+    }
 }
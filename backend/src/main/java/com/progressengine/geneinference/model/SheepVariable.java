@@ -0,0 +1,133 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.InferenceMath;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes every message leaving one sheep for one category from a product kept over the messages
+ * into it. A sheep's message to one relationship is the product of the messages from all of its
+ * other relationships. The product of all of them is kept as a sum of logs per allele, with the
+ * zero probabilities counted apart, so each message takes one incoming message back out of it; a
+ * stud ram with d relationships then costs O(d) products instead of the O(d²) of computing each
+ * {@link SheepMessage} on its own. Summing logs also keeps the long products from underflowing
+ * without normalizing after every factor.
+ * <p>
+ * The product is built from the incoming messages on first use and then kept up to date as each of
+ * them is stored, so messages of other nodes computed in between do not cost a rebuild. One
+ * instance must only be used by one thread at a time.
+ */
+final class SheepVariable {
+    private final Category category;
+    private final List<Message> incoming;
+    private final int width;
+    private final int offset;
+
+    // per allele, the sum of the logs of the incoming messages' nonzero probabilities and the
+    // number of incoming messages that rule it out
+    private final double[] logSums;
+    private final int[] zeroCounts;
+    private boolean loaded;
+    private int loads;
+
+    /**
+     * @param incoming the messages into the sheep in adjacency order
+     */
+    SheepVariable(Category category, List<Message> incoming) {
+        this.category = category;
+        this.incoming = incoming;
+        this.width = Message.width(category);
+        this.offset = Message.offset(category);
+        this.logSums = new double[width];
+        this.zeroCounts = new int[width];
+    }
+
+    /**
+     * Drops the product, for when the incoming messages may have been changed without
+     * {@link #incomingChanged}; it is built again on next use.
+     */
+    void unload() {
+        loaded = false;
+    }
+
+    /**
+     * @return how many times the product was built from every incoming message
+     */
+    int loads() {
+        return loads;
+    }
+
+    private void load() {
+        Arrays.fill(logSums, 0.0);
+        Arrays.fill(zeroCounts, 0);
+        for (Message message : incoming) {
+            add(message.values(), offset, 1);
+        }
+        loaded = true;
+        loads++;
+    }
+
+    /**
+     * Moves the product from the previous message at the given adjacency position to its stored one.
+     *
+     * @param previous the category slice as it was before the message was stored, from index 0
+     */
+    void incomingChanged(int position, double[] previous) {
+        if (!loaded) {
+            return;
+        }
+        add(previous, 0, -1);
+        add(incoming.get(position).values(), offset, 1);
+    }
+
+    // adds the message's logs to the product, or takes them out with a sign of -1
+    private void add(double[] values, int valuesOffset, int sign) {
+        for (int allele = 0; allele < width; allele++) {
+            double probability = values[valuesOffset + allele];
+            if (probability == 0.0) {
+                zeroCounts[allele] += sign;
+            } else {
+                logSums[allele] += sign * Math.log(probability);
+            }
+        }
+    }
+
+    /**
+     * Computes the message to the sheep's neighbour at the given adjacency position into
+     * {@code workspace.result}: the normalized product of every other incoming message.
+     *
+     * @param current the message to that neighbour as stored
+     * @return the squared L2 distance between the computed and the stored message
+     * @throws IllegalArgumentException if the other messages rule out every allele, as
+     * {@link InferenceMath#productOfExperts(double[], int, double[], int, int)} does
+     */
+    double computeMessage(int position, MessageWorkspace workspace, Message current) {
+        if (!loaded) {
+            load();
+        }
+
+        double[] own = incoming.get(position).values();
+        double[] out = workspace.result;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int allele = 0; allele < width; allele++) {
+            double probability = own[offset + allele];
+            int zeros = zeroCounts[allele] - (probability == 0.0 ? 1 : 0);
+            out[allele] = zeros > 0 ? Double.NEGATIVE_INFINITY
+                    : probability == 0.0 ? logSums[allele] : logSums[allele] - Math.log(probability);
+            max = Math.max(max, out[allele]);
+        }
+
+        if (max == Double.NEGATIVE_INFINITY) {
+            Arrays.fill(out, 0, width, 0.0);
+            InferenceMath.validateDistribution(out, 0, width);
+        }
+
+        // subtracting the largest log keeps the exponentials from underflowing
+        for (int allele = 0; allele < width; allele++) {
+            out[allele] = Math.exp(out[allele] - max);
+        }
+        return InferenceMath.normalizeWithSquaredDistance(out, 0, width, current.values(), offset);
+    }
+}
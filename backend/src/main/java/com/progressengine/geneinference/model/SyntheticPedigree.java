@@ -0,0 +1,16 @@
+package com.progressengine.geneinference.model;
+
+import java.util.List;
+
+/**
+ * A generated flock. Every sheep keeps its true hidden alleles, so inferred beliefs can be
+ * checked against them.
+ *
+ * @param sheep every sheep, founders first and then generation by generation
+ * @param relationships every pairing, with a birth record per child
+ */
+public record SyntheticPedigree(
+        List<Sheep> sheep,
+        List<Relationship> relationships
+) {
+}
@@ -0,0 +1,74 @@
+package com.progressengine.geneinference.model;
+
+/**
+ * FIFO work queue of message update tasks for a {@link CompiledFactorGraph}.
+ * A task is the int {@code edgeId * categoryCount + categoryOrdinal}, so the queue is a
+ * fixed ring buffer and membership is tracked by a flag per task instead of a hash set.
+ * Every task is queued at most once, which bounds the buffer by the task count.
+ */
+final class TaskFrontier {
+    private final int[] buffer;
+    private final boolean[] queued;
+    private int head;
+    private int size;
+
+    TaskFrontier(int taskCount) {
+        this(taskCount, new boolean[taskCount]);
+    }
+
+    /**
+     * Creates a frontier for at most {@code capacity} tasks that keeps its queued flags in the given
+     * table. Frontiers may share a table as long as they never hold the same task.
+     */
+    TaskFrontier(int capacity, boolean[] queued) {
+        this.buffer = new int[Math.max(1, capacity)];
+        this.queued = queued;
+    }
+
+    /**
+     * Appends the task unless it is already waiting in the frontier.
+     *
+     * @return {@code true} if the task was added
+     */
+    boolean offerLast(int task) {
+        if (queued[task]) {
+            return false;
+        }
+        queued[task] = true;
+        buffer[(head + size) % buffer.length] = task;
+        size++;
+        return true;
+    }
+
+    /**
+     * Puts the task back at the front of the frontier, used when a task was polled but not processed.
+     */
+    void pushFirst(int task) {
+        if (queued[task]) {
+            return;
+        }
+        queued[task] = true;
+        head = (head - 1 + buffer.length) % buffer.length;
+        buffer[head] = task;
+        size++;
+    }
+
+    int pollFirst() {
+        if (size == 0) {
+            throw new IllegalStateException("Frontier is empty");
+        }
+        int task = buffer[head];
+        head = (head + 1) % buffer.length;
+        size--;
+        queued[task] = false;
+        return task;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,42 @@
+package com.progressengine.geneinference.model;
+
+/**
+ * Disjoint sets over the ints {@code [0, size)}, with union by size and path halving.
+ */
+final class UnionFind {
+    private final int[] parents;
+    private final int[] sizes;
+
+    UnionFind(int size) {
+        this.parents = new int[size];
+        this.sizes = new int[size];
+        for (int i = 0; i < size; i++) {
+            parents[i] = i;
+            sizes[i] = 1;
+        }
+    }
+
+    int find(int element) {
+        while (parents[element] != element) {
+            parents[element] = parents[parents[element]];
+            element = parents[element];
+        }
+        return element;
+    }
+
+    void union(int first, int second) {
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+        if (firstRoot == secondRoot) {
+            return;
+        }
+
+        if (sizes[firstRoot] < sizes[secondRoot]) {
+            int swap = firstRoot;
+            firstRoot = secondRoot;
+            secondRoot = swap;
+        }
+        parents[secondRoot] = firstRoot;
+        sizes[firstRoot] += sizes[secondRoot];
+    }
+}
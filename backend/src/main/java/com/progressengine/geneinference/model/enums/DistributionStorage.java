@@ -0,0 +1,12 @@
+package com.progressengine.geneinference.model.enums;
+
+/**
+ * Where sheep distributions are read from. Both forms are written while rows are being replaced by
+ * vectors, so either can be read.
+ */
+public enum DistributionStorage {
+    // one sheep_distribution row per allele
+    ROWS,
+    // one sheep_distribution_vector row per category and type, falling back to rows for sheep without vectors
+    VECTORS
+}
@@ -0,0 +1,6 @@
+package com.progressengine.geneinference.model.enums;
+
+public enum MessageDirection {
+    SHEEP_TO_RELATIONSHIP,
+    RELATIONSHIP_TO_SHEEP
+}
@@ -0,0 +1,6 @@
+package com.progressengine.geneinference.model.enums;
+
+public enum MessageSchedule {
+    FIFO,
+    RESIDUAL
+}
@@ -0,0 +1,14 @@
+package com.progressengine.geneinference.model.enums;
+
+public enum RecalculationJobStatus {
+    QUEUED,
+    PROPAGATING,
+    SAVING,
+    COMPLETED,
+    CANCELLED,
+    FAILED;
+
+    public boolean isFinished() {
+        return this == COMPLETED || this == CANCELLED || this == FAILED;
+    }
+}
@@ -0,0 +1,224 @@
+package com.progressengine.geneinference.repository;
+
+import com.progressengine.geneinference.model.BirthRecord;
+import com.progressengine.geneinference.model.BirthRecordPhenotype;
+import com.progressengine.geneinference.model.DistributionVectors;
+import com.progressengine.geneinference.model.InferenceFlock;
+import com.progressengine.geneinference.model.Relationship;
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionStorage;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Loads a user's flock for inference with a few plain queries instead of through the entity
+ * graphs of {@link SheepRepository#findAllForInference} and
+ * {@link RelationshipRepository#findAllWithFullGraph}. Rows are streamed with a large fetch size
+ * into plain {@link Sheep} and {@link Relationship} objects, so nothing is added to the persistence
+ * context and no entity snapshots are kept. Postgres only streams inside a transaction; outside one
+ * each query is read whole.
+ */
+@Repository
+public class InferenceFlockLoader {
+    private static final int FETCH_SIZE = 5_000;
+
+    private static final String SELECT_SHEEP = """
+        select s.id, s.name
+        from sheep s
+        where s.user_id = ?
+        order by s.id
+        """;
+
+    private static final String SELECT_GENOTYPES = """
+        select g.sheep_id, g.category, g.phenotype, g."hidden"
+        from sheep_genotype g
+        join sheep s on s.id = g.sheep_id
+        where s.user_id = ?
+        """;
+
+    private static final String SELECT_DISTRIBUTION_VECTORS = """
+        select v.sheep_id, v.category, v.distribution_type, v.probabilities
+        from sheep_distribution_vector v
+        join sheep s on s.id = v.sheep_id
+        where s.user_id = ?
+        """;
+
+    private static final String SELECT_DISTRIBUTION_ROWS = """
+        select d.sheep_id, d.category, d.distribution_type, d.allele_code, d.probability
+        from sheep_distribution d
+        join sheep s on s.id = d.sheep_id
+        where s.user_id = ?
+        """;
+
+    private static final String SELECT_RELATIONSHIPS = """
+        select r.id, r.parent1_id, r.parent2_id
+        from relationship r
+        join sheep p1 on p1.id = r.parent1_id
+        join sheep p2 on p2.id = r.parent2_id
+        where p1.user_id = ? and p2.user_id = ?
+        order by r.id
+        """;
+
+    private static final String SELECT_BIRTH_RECORDS = """
+        select b.id, b.relationship_id, b.sheep_id
+        from birth_record b
+        join relationship r on r.id = b.relationship_id
+        join sheep p1 on p1.id = r.parent1_id
+        where p1.user_id = ?
+        """;
+
+    private static final String SELECT_PHENOTYPES_AT_BIRTH = """
+        select p.birth_record_id, p.category, p.parent1_phenotype, p.parent2_phenotype, p.child_phenotype
+        from birth_record_phenotype p
+        join birth_record b on b.id = p.birth_record_id
+        join relationship r on r.id = b.relationship_id
+        join sheep p1 on p1.id = r.parent1_id
+        where p1.user_id = ?
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DistributionStorage distributionStorage;
+
+    public InferenceFlockLoader(
+            DataSource dataSource,
+            @Value("${inference.distribution-storage:ROWS}") DistributionStorage distributionStorage
+    ) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.distributionStorage = distributionStorage;
+    }
+
+    /**
+     * Loads every sheep and relationship of the user. Pending entity changes must be flushed first
+     * for the loaded flock to include them.
+     */
+    public InferenceFlock load(UUID userId) {
+        Map<Integer, Sheep> sheepById = new LinkedHashMap<>();
+        jdbcTemplate.query(SELECT_SHEEP, row -> {
+            Sheep sheep = new Sheep();
+            sheep.setId(row.getInt("id"));
+            sheep.setName(row.getString("name"));
+            sheep.setUserId(userId);
+            sheepById.put(sheep.getId(), sheep);
+        }, userId);
+
+        jdbcTemplate.query(SELECT_GENOTYPES, row -> {
+            Sheep sheep = sheepById.get(row.getInt("sheep_id"));
+            sheep.setGenotypeCodes(Category.valueOf(row.getString("category")), row.getString("phenotype"), row.getString("hidden"));
+        }, userId);
+
+        loadDistributions(userId, sheepById);
+
+        Map<Integer, Relationship> relationshipsById = new LinkedHashMap<>();
+        jdbcTemplate.query(SELECT_RELATIONSHIPS, row -> {
+            Relationship relationship = new Relationship(
+                    sheepById.get(row.getInt("parent1_id")),
+                    sheepById.get(row.getInt("parent2_id"))
+            );
+            relationship.setId(row.getInt("id"));
+            relationshipsById.put(relationship.getId(), relationship);
+        }, userId, userId);
+
+        Map<Integer, BirthRecord> birthRecordsById = new HashMap<>();
+        jdbcTemplate.query(SELECT_BIRTH_RECORDS, row -> {
+            BirthRecord birthRecord = new BirthRecord();
+            birthRecord.setId(row.getInt("id"));
+            int childId = row.getInt("sheep_id");
+            if (!row.wasNull()) {
+                Sheep child = sheepById.get(childId);
+                birthRecord.setChild(child);
+                child.setBirthRecord(birthRecord);
+            }
+            relationshipsById.get(row.getInt("relationship_id")).addBirthRecord(birthRecord);
+            birthRecordsById.put(birthRecord.getId(), birthRecord);
+        }, userId);
+
+        jdbcTemplate.query(SELECT_PHENOTYPES_AT_BIRTH, row -> {
+            BirthRecord birthRecord = birthRecordsById.get(row.getInt("birth_record_id"));
+            BirthRecordPhenotype phenotype = new BirthRecordPhenotype(birthRecord, Category.valueOf(row.getString("category")));
+            phenotype.setAllPhenotypeCodes(
+                    row.getString("parent1_phenotype"),
+                    row.getString("parent2_phenotype"),
+                    row.getString("child_phenotype")
+            );
+            birthRecord.getPhenotypesAtBirth().add(phenotype);
+        }, userId);
+
+        return new InferenceFlock(new ArrayList<>(sheepById.values()), new ArrayList<>(relationshipsById.values()));
+    }
+
+    private void loadDistributions(UUID userId, Map<Integer, Sheep> sheepById) {
+        Map<Integer, Map<Category, Map<DistributionType, double[]>>> vectorsBySheepId = new HashMap<>();
+        if (distributionStorage == DistributionStorage.VECTORS) {
+            jdbcTemplate.query(SELECT_DISTRIBUTION_VECTORS, row -> {
+                Array probabilities = row.getArray("probabilities");
+                double[] vector = toDoubles((Object[]) probabilities.getArray());
+                probabilities.free();
+                vectorsBySheepId.computeIfAbsent(row.getInt("sheep_id"), id -> new EnumMap<>(Category.class))
+                        .computeIfAbsent(Category.valueOf(row.getString("category")), c -> new EnumMap<>(DistributionType.class))
+                        .put(DistributionType.valueOf(row.getString("distribution_type")), vector);
+            }, userId);
+        }
+
+        int vectorsPerSheep = Category.values().length * DistributionType.values().length;
+        boolean missingVectors = sheepById.keySet().stream()
+                .anyMatch(id -> countVectors(vectorsBySheepId.get(id)) < vectorsPerSheep);
+        if (missingVectors) {
+            // rows of every sheep are streamed, but only packed for sheep without a full set of vectors
+            Map<Integer, Map<Category, Map<DistributionType, Map<String, Double>>>> rowsBySheepId = new HashMap<>();
+            jdbcTemplate.query(SELECT_DISTRIBUTION_ROWS, row -> {
+                int sheepId = row.getInt("sheep_id");
+                if (countVectors(vectorsBySheepId.get(sheepId)) == vectorsPerSheep) return;
+                rowsBySheepId.computeIfAbsent(sheepId, id -> new EnumMap<>(Category.class))
+                        .computeIfAbsent(Category.valueOf(row.getString("category")), c -> new EnumMap<>(DistributionType.class))
+                        .computeIfAbsent(DistributionType.valueOf(row.getString("distribution_type")), t -> new HashMap<>())
+                        .put(row.getString("allele_code"), row.getDouble("probability"));
+            }, userId);
+
+            rowsBySheepId.forEach((sheepId, byCategory) -> {
+                Map<Category, Map<DistributionType, double[]>> vectors = new EnumMap<>(Category.class);
+                byCategory.forEach((category, byType) -> byType.forEach((type, distribution) ->
+                        vectors.computeIfAbsent(category, c -> new EnumMap<>(DistributionType.class))
+                                .put(type, DistributionVectors.pack(category, distribution))));
+                vectorsBySheepId.put(sheepId, vectors);
+            });
+        }
+
+        vectorsBySheepId.forEach((sheepId, vectors) -> {
+            Sheep sheep = sheepById.get(sheepId);
+            if (sheep != null) {
+                sheep.setDistributionVectors(vectors);
+            }
+        });
+    }
+
+    private static int countVectors(Map<Category, Map<DistributionType, double[]>> vectors) {
+        if (vectors == null) return 0;
+        int count = 0;
+        for (Map<DistributionType, double[]> byType : vectors.values()) {
+            count += byType.size();
+        }
+        return count;
+    }
+
+    private static double[] toDoubles(Object[] values) {
+        double[] doubles = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubles[i] = ((Number) values[i]).doubleValue();
+        }
+        return doubles;
+    }
+}
@@ -0,0 +1,25 @@
+package com.progressengine.geneinference.repository;
+
+import com.progressengine.geneinference.model.InferenceMessage;
+import com.progressengine.geneinference.model.InferenceMessageKey;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface InferenceMessageRepository extends JpaRepository<InferenceMessage, InferenceMessageKey> {
+
+    List<InferenceMessage> findAllByUserId(UUID userId);
+
+    // one statement, instead of loading and removing each message
+    @Transactional
+    @Modifying
+    @Query("delete from InferenceMessage m where m.userId = :userId")
+    void deleteAllByUserId(@Param("userId") UUID userId);
+}
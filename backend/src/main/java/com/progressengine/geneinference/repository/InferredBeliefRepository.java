@@ -0,0 +1,175 @@
+package com.progressengine.geneinference.repository;
+
+import com.progressengine.geneinference.model.DistributionVectors;
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes inferred distributions straight to {@code sheep_distribution} and
+ * {@code sheep_distribution_vector}, bypassing the sheep entities. A recalculation replaces hundreds
+ * of thousands of rows at once, and going through the entities costs a dirty check and an
+ * {@code UPDATE} per row; here each statement upserts a whole chunk of rows passed as arrays.
+ * Managed sheep are not refreshed, so their inferred distributions are stale until they are loaded
+ * again.
+ */
+@Repository
+public class InferredBeliefRepository {
+    // rows per statement; each array parameter holds this many elements
+    private static final int ROWS_PER_STATEMENT = 10_000;
+    // vectors per statement; their probabilities are passed as one flat array
+    private static final int VECTORS_PER_STATEMENT = 1_000;
+
+    private static final String UPSERT_DISTRIBUTION_ROWS = """
+        insert into sheep_distribution (sheep_id, category, distribution_type, allele_code, probability)
+        select v.sheep_id, v.category, ?, v.allele_code, v.probability
+        from unnest(?::integer[], ?::text[], ?::text[], ?::double precision[])
+            as v(sheep_id, category, allele_code, probability)
+        on conflict (sheep_id, category, distribution_type, allele_code)
+        do update set probability = excluded.probability
+        """;
+
+    // each vector is a slice of the flat probabilities parameter
+    private static final String UPSERT_DISTRIBUTION_VECTORS = """
+        with packed as (select ?::double precision[] as probabilities)
+        insert into sheep_distribution_vector (sheep_id, category, distribution_type, probabilities)
+        select v.sheep_id, v.category, ?, packed.probabilities[v.first_index:v.last_index]
+        from packed, unnest(?::integer[], ?::text[], ?::integer[], ?::integer[])
+            as v(sheep_id, category, first_index, last_index)
+        on conflict (sheep_id, category, distribution_type)
+        do update set probabilities = excluded.probabilities
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public InferredBeliefRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Upserts the inferred distribution rows and vectors of each sheep. Like setting the
+     * distribution on the entity, rows for alleles missing from a belief are left as they are; in
+     * the vectors they are 0, as beliefs cover every allele. Inside a transaction the caller must
+     * flush pending entity changes first, or inserts of new sheep may collide with these rows at
+     * commit.
+     *
+     * @param sheep saved sheep
+     * @param beliefs the belief of each sheep, in the same order
+     * @return the number of distribution rows written
+     */
+    public int saveAll(List<Sheep> sheep, List<Map<Category, Map<String, Double>>> beliefs) {
+        if (sheep.size() != beliefs.size()) {
+            throw new IllegalArgumentException("Expected one belief per sheep, got " + beliefs.size() + " for " + sheep.size() + " sheep");
+        }
+
+        RowChunk chunk = new RowChunk();
+        int written = 0;
+        for (int i = 0; i < sheep.size(); i++) {
+            Integer sheepId = sheep.get(i).getId();
+            if (sheepId == null) {
+                throw new IllegalArgumentException("Cannot write beliefs of a sheep that was never saved");
+            }
+            for (Map.Entry<Category, Map<String, Double>> category : beliefs.get(i).entrySet()) {
+                for (Map.Entry<String, Double> allele : category.getValue().entrySet()) {
+                    chunk.add(sheepId, category.getKey().name(), allele.getKey(), allele.getValue());
+                    if (chunk.size == ROWS_PER_STATEMENT) {
+                        written += write(chunk);
+                        chunk = new RowChunk();
+                    }
+                }
+            }
+        }
+        if (chunk.size > 0) {
+            written += write(chunk);
+        }
+
+        VectorChunk vectors = new VectorChunk();
+        for (int i = 0; i < sheep.size(); i++) {
+            for (Map.Entry<Category, Map<String, Double>> category : beliefs.get(i).entrySet()) {
+                vectors.add(sheep.get(i).getId(), category.getKey().name(),
+                        DistributionVectors.pack(category.getKey(), category.getValue()));
+                if (vectors.size == VECTORS_PER_STATEMENT) {
+                    write(vectors);
+                    vectors = new VectorChunk();
+                }
+            }
+        }
+        if (vectors.size > 0) {
+            write(vectors);
+        }
+        return written;
+    }
+
+    private void write(VectorChunk chunk) {
+        jdbcTemplate.update(UPSERT_DISTRIBUTION_VECTORS, statement -> {
+            Connection connection = statement.getConnection();
+            statement.setArray(1, connection.createArrayOf("float8", chunk.probabilities.toArray(Double[]::new)));
+            statement.setString(2, DistributionType.INFERRED.name());
+            statement.setArray(3, connection.createArrayOf("integer", Arrays.copyOf(chunk.sheepIds, chunk.size)));
+            statement.setArray(4, connection.createArrayOf("text", Arrays.copyOf(chunk.categories, chunk.size)));
+            statement.setArray(5, connection.createArrayOf("integer", Arrays.copyOf(chunk.firstIndexes, chunk.size)));
+            statement.setArray(6, connection.createArrayOf("integer", Arrays.copyOf(chunk.lastIndexes, chunk.size)));
+        });
+    }
+
+    private int write(RowChunk chunk) {
+        return jdbcTemplate.update(UPSERT_DISTRIBUTION_ROWS, statement -> {
+            Connection connection = statement.getConnection();
+            statement.setString(1, DistributionType.INFERRED.name());
+            statement.setArray(2, connection.createArrayOf("integer", chunk.trimmed(chunk.sheepIds)));
+            statement.setArray(3, connection.createArrayOf("text", chunk.trimmed(chunk.categories)));
+            statement.setArray(4, connection.createArrayOf("text", chunk.trimmed(chunk.alleleCodes)));
+            statement.setArray(5, connection.createArrayOf("float8", chunk.trimmed(chunk.probabilities)));
+        });
+    }
+
+    // the columns of up to ROWS_PER_STATEMENT rows
+    private static final class RowChunk {
+        private final Integer[] sheepIds = new Integer[ROWS_PER_STATEMENT];
+        private final String[] categories = new String[ROWS_PER_STATEMENT];
+        private final String[] alleleCodes = new String[ROWS_PER_STATEMENT];
+        private final Double[] probabilities = new Double[ROWS_PER_STATEMENT];
+        private int size;
+
+        private void add(Integer sheepId, String category, String alleleCode, double probability) {
+            sheepIds[size] = sheepId;
+            categories[size] = category;
+            alleleCodes[size] = alleleCode;
+            probabilities[size] = probability;
+            size++;
+        }
+
+        private Object[] trimmed(Object[] column) {
+            return size == column.length ? column : Arrays.copyOf(column, size);
+        }
+    }
+
+    // up to VECTORS_PER_STATEMENT vectors, with the 1-based bounds of each in the flat probabilities
+    private static final class VectorChunk {
+        private final Integer[] sheepIds = new Integer[VECTORS_PER_STATEMENT];
+        private final String[] categories = new String[VECTORS_PER_STATEMENT];
+        private final Integer[] firstIndexes = new Integer[VECTORS_PER_STATEMENT];
+        private final Integer[] lastIndexes = new Integer[VECTORS_PER_STATEMENT];
+        private final List<Double> probabilities = new ArrayList<>();
+        private int size;
+
+        private void add(Integer sheepId, String category, double[] vector) {
+            sheepIds[size] = sheepId;
+            categories[size] = category;
+            firstIndexes[size] = probabilities.size() + 1;
+            for (double probability : vector) {
+                probabilities.add(probability);
+            }
+            lastIndexes[size] = probabilities.size();
+            size++;
+        }
+    }
+}
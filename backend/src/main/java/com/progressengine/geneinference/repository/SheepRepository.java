@@ -80,6 +80,13 @@ public interface SheepRepository extends JpaRepository<Sheep, Integer>, JpaSpeci
     """)
     List<Sheep> findAllForInference(@Param("userId") UUID userId);
 
+    @EntityGraph(value = "Sheep.withDistributionVectorsAndGenotypes")
+    @Query("""
+        SELECT s FROM Sheep s
+        where s.userId = :userId
+    """)
+    List<Sheep> findAllForInferenceWithVectors(@Param("userId") UUID userId);
+
     @EntityGraph(attributePaths = {
             "distributions",
             "genotypes",
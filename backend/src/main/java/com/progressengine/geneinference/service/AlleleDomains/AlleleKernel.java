@@ -0,0 +1,191 @@
+package com.progressengine.geneinference.service.AlleleDomains;
+
+import com.progressengine.geneinference.model.enums.Allele;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lookup tables for the inheritance rules of one {@link AlleleDomain}, indexed by allele ordinal.
+ * <p>
+ * Holds the quantities that the inference code otherwise recomputes on every call:
+ * <ul>
+ *     <li>the expression bias of every ordered allele pair,</li>
+ *     <li>the distribution of a child's hidden allele given both parents' genotypes and the
+ *     child's phenotype,</li>
+ *     <li>the distribution of a child's phenotype given both parents' genotypes, and its logarithm
+ *     for scoring many births at once.</li>
+ * </ul>
+ * The two genotype tables are split into blocks keyed by the observed phenotypes, since those
+ * are fixed by a birth record. Inside a block the entry for hidden alleles {@code (h1, h2)} and
+ * result allele {@code k} is at {@code genotypeIndex(h1, h2) + k}. Blocks are filled when the
+ * kernel is built if the whole table is small, otherwise on first use.
+ */
+public final class AlleleKernel {
+    private static final double INHERITANCE_PROBABILITY = 0.25;
+    private static final int EAGER_TABLE_LIMIT = 1 << 16;
+
+    private final int size;
+    private final double[] expressionBias;
+    private final AtomicReferenceArray<double[]> childHiddenBlocks;
+    private final AtomicReferenceArray<double[]> childPhenotypeBlocks;
+    private final AtomicReferenceArray<double[]> logChildPhenotypeBlocks;
+
+    <A extends Enum<A> & Allele> AlleleKernel(AlleleDomain<A> domain) {
+        List<A> alleles = domain.getAlleles();
+        this.size = alleles.size();
+
+        this.expressionBias = new double[size * size * 2];
+        for (A first : alleles) {
+            for (A second : alleles) {
+                double[] bias = domain.expressionBias(first, second);
+                int index = (first.ordinal() * size + second.ordinal()) * 2;
+                expressionBias[index] = bias[0];
+                expressionBias[index + 1] = bias[1];
+            }
+        }
+
+        this.childHiddenBlocks = new AtomicReferenceArray<>(size * size * size);
+        this.childPhenotypeBlocks = new AtomicReferenceArray<>(size * size);
+        this.logChildPhenotypeBlocks = new AtomicReferenceArray<>(size * size);
+
+        int blockLength = size * size * size;
+        if ((long) blockLength * childHiddenBlocks.length() <= EAGER_TABLE_LIMIT) {
+            for (int p1 = 0; p1 < size; p1++) {
+                for (int p2 = 0; p2 < size; p2++) {
+                    childPhenotypeBlock(p1, p2);
+                    for (int child = 0; child < size; child++) {
+                        childHiddenBlock(p1, p2, child);
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the probability that {@code first} (side 0) or {@code second} (side 1) is expressed
+     */
+    public double expressionBias(int first, int second, int side) {
+        return expressionBias[(first * size + second) * 2 + side];
+    }
+
+    /**
+     * @return the offset of the hidden allele pair inside a genotype block
+     */
+    public int genotypeIndex(int parent1Hidden, int parent2Hidden) {
+        return (parent1Hidden * size + parent2Hidden) * size;
+    }
+
+    /**
+     * Child hidden allele distributions for the given parent and child phenotypes, one normalized
+     * distribution per parent hidden pair. A pair that cannot produce the child phenotype has all zeros.
+     */
+    public double[] childHiddenBlock(int parent1Phenotype, int parent2Phenotype, int childPhenotype) {
+        int key = (parent1Phenotype * size + parent2Phenotype) * size + childPhenotype;
+        double[] block = childHiddenBlocks.get(key);
+        if (block == null) {
+            block = buildChildHiddenBlock(parent1Phenotype, parent2Phenotype, childPhenotype);
+            childHiddenBlocks.compareAndSet(key, null, block);
+        }
+        return block;
+    }
+
+    /**
+     * Child phenotype distributions for the given parent phenotypes, one per parent hidden pair.
+     */
+    public double[] childPhenotypeBlock(int parent1Phenotype, int parent2Phenotype) {
+        int key = parent1Phenotype * size + parent2Phenotype;
+        double[] block = childPhenotypeBlocks.get(key);
+        if (block == null) {
+            block = buildChildPhenotypeBlock(parent1Phenotype, parent2Phenotype);
+            childPhenotypeBlocks.compareAndSet(key, null, block);
+        }
+        return block;
+    }
+
+    /**
+     * Natural logarithm of {@link #childPhenotypeBlock(int, int)}, with negative infinity where a
+     * hidden pair cannot produce the phenotype. Read as a matrix it has a row per parent hidden pair
+     * and a column per child phenotype.
+     */
+    public double[] logChildPhenotypeBlock(int parent1Phenotype, int parent2Phenotype) {
+        int key = parent1Phenotype * size + parent2Phenotype;
+        double[] block = logChildPhenotypeBlocks.get(key);
+        if (block == null) {
+            double[] probabilities = childPhenotypeBlock(parent1Phenotype, parent2Phenotype);
+            block = new double[probabilities.length];
+            for (int i = 0; i < probabilities.length; i++) {
+                block[i] = Math.log(probabilities[i]);
+            }
+            logChildPhenotypeBlocks.compareAndSet(key, null, block);
+        }
+        return block;
+    }
+
+    private double[] buildChildHiddenBlock(int parent1Phenotype, int parent2Phenotype, int childPhenotype) {
+        double[] block = new double[size * size * size];
+
+        for (int hidden1 = 0; hidden1 < size; hidden1++) {
+            for (int hidden2 = 0; hidden2 < size; hidden2++) {
+                int base = genotypeIndex(hidden1, hidden2);
+                int[] parent1Alleles = {parent1Phenotype, hidden1};
+                int[] parent2Alleles = {parent2Phenotype, hidden2};
+
+                for (int allele1 : parent1Alleles) {
+                    for (int allele2 : parent2Alleles) {
+                        // if allele1 is expressed as the child phenotype, the hidden allele is allele2
+                        if (allele1 == childPhenotype) {
+                            block[base + allele2] += INHERITANCE_PROBABILITY * expressionBias(allele1, allele2, 0);
+                        }
+                        // if allele2 is expressed as the child phenotype, the hidden allele is allele1
+                        if (allele2 == childPhenotype) {
+                            block[base + allele1] += INHERITANCE_PROBABILITY * expressionBias(allele1, allele2, 1);
+                        }
+                    }
+                }
+
+                normalize(block, base);
+            }
+        }
+
+        return block;
+    }
+
+    private double[] buildChildPhenotypeBlock(int parent1Phenotype, int parent2Phenotype) {
+        double[] block = new double[size * size * size];
+
+        for (int hidden1 = 0; hidden1 < size; hidden1++) {
+            for (int hidden2 = 0; hidden2 < size; hidden2++) {
+                int base = genotypeIndex(hidden1, hidden2);
+                int[] parent1Alleles = {parent1Phenotype, hidden1};
+                int[] parent2Alleles = {parent2Phenotype, hidden2};
+
+                for (int allele1 : parent1Alleles) {
+                    for (int allele2 : parent2Alleles) {
+                        block[base + allele1] += INHERITANCE_PROBABILITY * expressionBias(allele1, allele2, 0);
+                        block[base + allele2] += INHERITANCE_PROBABILITY * expressionBias(allele1, allele2, 1);
+                    }
+                }
+            }
+        }
+
+        return block;
+    }
+
+    private void normalize(double[] block, int base) {
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += block[base + i];
+        }
+
+        if (sum == 0) { return; }
+
+        for (int i = 0; i < size; i++) {
+            block[base + i] /= sum;
+        }
+    }
+}
@@ -5,13 +5,15 @@ import com.progressengine.geneinference.model.enums.Allele;
 
 import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Sets up the mapping of Categories to AlleleDomains from the supported
- * Categories set up in each AlleleDomain
+ * Categories set up in each AlleleDomain, and compiles the AlleleKernel of each domain
  */
 public final class CategoryDomains {
     private static final Map<Category, AlleleDomain<?>> DOMAINS = new EnumMap<>(Category.class);
+    private static final Map<Class<?>, AlleleKernel> KERNELS = new ConcurrentHashMap<>();
 
     static {
         register(new GradeAlleleDomain());
@@ -23,6 +25,7 @@ public final class CategoryDomains {
     private CategoryDomains() {}
 
     private static void register(AlleleDomain<?> domain) {
+        kernelFor(domain);
         for (Category category : domain.supportedCategories()) {
             if (DOMAINS.put(category, domain) != null) {
                 throw new IllegalStateException("Duplicate allele domain registration for " + category);
@@ -42,4 +45,21 @@ public final class CategoryDomains {
     public static <A extends Enum<A> & Allele> AlleleDomain<A> typedDomainFor(Category category) {
         return (AlleleDomain<A>) domainFor(category);
     }
+
+    public static AlleleKernel kernelFor(Category category) {
+        return kernelFor(domainFor(category));
+    }
+
+    // domains are stateless, so instances of the same domain class share one kernel
+    public static AlleleKernel kernelFor(AlleleDomain<?> domain) {
+        AlleleKernel kernel = KERNELS.get(domain.getClass());
+        if (kernel == null) {
+            kernel = KERNELS.computeIfAbsent(domain.getClass(), type -> compile(domain));
+        }
+        return kernel;
+    }
+
+    private static <A extends Enum<A> & Allele> AlleleKernel compile(AlleleDomain<A> domain) {
+        return new AlleleKernel(domain);
+    }
 }
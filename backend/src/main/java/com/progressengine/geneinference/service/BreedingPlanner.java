@@ -0,0 +1,421 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleKernel;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
+import com.progressengine.geneinference.service.AlleleDomains.GradeAlleleDomain;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Searches the pairings of the coming generations for plans that breed a child of at least the
+ * target grade in every target category, by beam search.
+ * <p>
+ * A child passes on either allele it inherited with equal chance, so the distribution of the allele
+ * an expected child passes on is the mean of its parents'. A plan of any depth is then scored like
+ * one pairing: the chance that its last child reaches the target grade in a category is bilinear in
+ * what its parents pass on, and the chances of the categories multiply. As in
+ * {@link InferenceMath#predictChildrenDistributions(Sheep, Sheep)}, the alleles of the two parents
+ * are taken as independent, also when the parents share ancestors.
+ * <p>
+ * Each generation pairs the children kept from the generation before with every sheep and child
+ * kept so far, on the given pool. A kept child is a sub-plan: its pairing, depth and what it passes
+ * on are computed once and shared by every plan that extends it. Children are kept by the share of
+ * target alleles they pass on, over all target categories and in each one alone, so a child strong
+ * in one category lives on to be paired with one strong in another. The sheep of the flock are
+ * narrowed the same way before the first generation.
+ */
+public final class BreedingPlanner {
+    // sheep or children kept per generation for each way of ranking them
+    private static final int KEPT_PER_RANKING = 48;
+    // rows of candidate pairs scored by one task
+    private static final int ROWS_PER_TASK = 8;
+
+    private final List<Category> categories;
+    private final Grade target;
+    private final int width;
+    // targetMatrices[c][i * grades + j]: the chance that a child inheriting alleles i and j, by
+    // ordinal, reaches the target grade in category c
+    private final double[][] targetMatrices;
+    private final List<PlanNode> flock = new ArrayList<>();
+    private int nextId;
+
+    /**
+     * @param sheep the sheep to plan from, with their inferred distributions
+     * @param categories the grade categories the last child must reach the target grade in
+     * @param target the lowest grade that counts as reached
+     * @throws IllegalArgumentException if there are no categories or one is not a grade category
+     */
+    public BreedingPlanner(List<Sheep> sheep, List<Category> categories, Grade target) {
+        if (categories.isEmpty()) {
+            throw new IllegalArgumentException("At least one category is required to plan for");
+        }
+        for (Category category : categories) {
+            if (!(CategoryDomains.domainFor(category) instanceof GradeAlleleDomain)) {
+                throw new IllegalArgumentException("Breeding plans only target grade categories, not " + category);
+            }
+        }
+        this.categories = List.copyOf(categories);
+        this.target = target;
+        int grades = Grade.values().length;
+        this.width = categories.size() * grades;
+
+        this.targetMatrices = new double[categories.size()][];
+        for (int c = 0; c < categories.size(); c++) {
+            targetMatrices[c] = targetMatrix(categories.get(c));
+        }
+
+        List<Sheep> ordered = sheep.stream().sorted(Comparator.comparing(Sheep::getId)).toList();
+        for (Sheep s : ordered) {
+            double[] passed = new double[width];
+            for (int c = 0; c < categories.size(); c++) {
+                InferenceMath.inheritedAlleleDistribution(s, categories.get(c), passed, c * grades);
+            }
+            flock.add(new PlanNode(nextId++, s, null, null, 0, passed, partnerOf(passed), 0.0));
+        }
+    }
+
+    /**
+     * Runs the search until the given number of generations has been planned or the time budget is
+     * spent, whichever comes first.
+     *
+     * @param generations the most generations a plan may take
+     * @param limit the number of plans to return
+     * @param pool the pool that scores the candidate pairings
+     * @param budgetNanos the time the search may take; a generation that runs past it is cut short
+     * @return the best plans found, by the chance that their last child reaches the target
+     */
+    public PlanResult plan(int generations, int limit, ForkJoinPool pool, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        AtomicBoolean outOfTime = new AtomicBoolean();
+
+        List<PlanNode> kept = keep(flock);
+        List<PlanNode> newest = kept;
+        Ranking best = new Ranking(limit, Candidate::probability);
+        int generation = 0;
+        while (generation < generations && !newest.isEmpty() && !outOfTime.get()) {
+            Generation scored = scoreGeneration(newest, kept, limit, pool, deadline, outOfTime);
+            for (Candidate candidate : scored.plans().ranked()) {
+                best.offer(candidate);
+            }
+
+            List<PlanNode> children = new ArrayList<>();
+            for (Candidate candidate : scored.parents()) {
+                children.add(child(candidate));
+            }
+            kept = new ArrayList<>(kept);
+            kept.addAll(children);
+            newest = children;
+            generation++;
+        }
+
+        List<Plan> plans = new ArrayList<>();
+        for (Candidate candidate : best.ranked()) {
+            plans.add(toPlan(child(candidate)));
+        }
+        return new PlanResult(plans, !outOfTime.get());
+    }
+
+    // pairs every newest node with every kept node, each pair once
+    private Generation scoreGeneration(
+            List<PlanNode> newest,
+            List<PlanNode> kept,
+            int limit,
+            ForkJoinPool pool,
+            long deadline,
+            AtomicBoolean outOfTime
+    ) {
+        List<ForkJoinTask<Generation>> tasks = new ArrayList<>();
+        for (int from = 0; from < newest.size(); from += ROWS_PER_TASK) {
+            int rowStart = from;
+            int rowEnd = Math.min(from + ROWS_PER_TASK, newest.size());
+            tasks.add(pool.submit(() -> {
+                Generation generation = new Generation(limit);
+                for (int row = rowStart; row < rowEnd; row++) {
+                    if (System.nanoTime() > deadline) {
+                        outOfTime.set(true);
+                        break;
+                    }
+                    PlanNode first = newest.get(row);
+                    for (PlanNode second : kept) {
+                        // the newest nodes are the kept ones of the newest depth; a pair of two of them
+                        // is scored from the row of the earlier one
+                        if (second.depth() == first.depth() && second.id() <= first.id()) continue;
+                        generation.offer(score(first, second));
+                    }
+                }
+                return generation;
+            }));
+        }
+
+        Generation merged = new Generation(limit);
+        try {
+            for (ForkJoinTask<Generation> task : tasks) {
+                merged.addAll(task.join());
+            }
+        } catch (RuntimeException e) {
+            tasks.forEach(task -> task.cancel(true));
+            throw e;
+        }
+        return merged;
+    }
+
+    private Candidate score(PlanNode first, PlanNode second) {
+        int grades = Grade.values().length;
+        double probability = 1.0;
+        double[] shares = new double[categories.size()];
+        for (int c = 0; c < categories.size(); c++) {
+            int offset = c * grades;
+            double reached = 0.0;
+            for (int i = 0; i < grades; i++) {
+                reached += first.passed()[offset + i] * second.partner()[offset + i];
+            }
+            probability *= reached;
+            shares[c] = (targetShare(first, c) + targetShare(second, c)) / 2;
+        }
+        return new Candidate(first, second, probability, shares);
+    }
+
+    // sheep kept as parents for the first generation, by the same rankings as children
+    private List<PlanNode> keep(List<PlanNode> nodes) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (PlanNode node : nodes) {
+            double[] shares = new double[categories.size()];
+            for (int c = 0; c < categories.size(); c++) {
+                shares[c] = targetShare(node, c);
+            }
+            candidates.add(new Candidate(node, node, 0.0, shares));
+        }
+
+        Generation rankings = new Generation(0);
+        candidates.forEach(rankings::offer);
+        return rankings.parents().stream().map(Candidate::first).toList();
+    }
+
+    private PlanNode child(Candidate candidate) {
+        PlanNode first = candidate.first();
+        PlanNode second = candidate.second();
+        double[] passed = new double[width];
+        double[] partner = new double[width];
+        for (int k = 0; k < width; k++) {
+            passed[k] = (first.passed()[k] + second.passed()[k]) / 2;
+            partner[k] = (first.partner()[k] + second.partner()[k]) / 2;
+        }
+        int depth = Math.max(first.depth(), second.depth()) + 1;
+        return new PlanNode(nextId++, null, first, second, depth, passed, partner, candidate.probability());
+    }
+
+    // partner[c * grades + i]: the chance the child reaches the target in category c when this
+    // parent passes on what it does and the other allele i; linear in what the parent passes on
+    private double[] partnerOf(double[] passed) {
+        int grades = Grade.values().length;
+        double[] partner = new double[width];
+        for (int c = 0; c < categories.size(); c++) {
+            int offset = c * grades;
+            for (int i = 0; i < grades; i++) {
+                double reached = 0.0;
+                for (int j = 0; j < grades; j++) {
+                    reached += targetMatrices[c][i * grades + j] * passed[offset + j];
+                }
+                partner[offset + i] = reached;
+            }
+        }
+        return partner;
+    }
+
+    // the chance the node passes on an allele of at least the target grade in category c
+    private double targetShare(PlanNode node, int c) {
+        Grade[] grades = Grade.values();
+        double share = 0.0;
+        for (int i = 0; i < grades.length; i++) {
+            if (grades[i].rank() >= target.rank()) {
+                share += node.passed()[c * grades.length + i];
+            }
+        }
+        return share;
+    }
+
+    private double[] targetMatrix(Category category) {
+        AlleleKernel kernel = CategoryDomains.kernelFor(category);
+        Grade[] grades = Grade.values();
+        double[] matrix = new double[grades.length * grades.length];
+        for (int i = 0; i < grades.length; i++) {
+            for (int j = 0; j < grades.length; j++) {
+                double reached = 0.0;
+                if (grades[i].rank() >= target.rank()) reached += kernel.expressionBias(i, j, 0);
+                if (grades[j].rank() >= target.rank()) reached += kernel.expressionBias(i, j, 1);
+                matrix[i * grades.length + j] = reached;
+            }
+        }
+        return matrix;
+    }
+
+    // the pairings of the plan, parents before children, each child bred once
+    private Plan toPlan(PlanNode last) {
+        List<Step> steps = new ArrayList<>();
+        addSteps(last, steps, new IdentityHashMap<>());
+        return new Plan(last.probability(), last.depth(), steps);
+    }
+
+    private int addSteps(PlanNode node, List<Step> steps, Map<PlanNode, Integer> bred) {
+        Integer step = bred.get(node);
+        if (step != null) {
+            return step;
+        }
+        Parent parent1 = parentOf(node.parent1(), steps, bred);
+        Parent parent2 = parentOf(node.parent2(), steps, bred);
+        steps.add(new Step(parent1, parent2, node.probability()));
+        bred.put(node, steps.size() - 1);
+        return steps.size() - 1;
+    }
+
+    private Parent parentOf(PlanNode node, List<Step> steps, Map<PlanNode, Integer> bred) {
+        return node.sheep() != null
+                ? new Parent(node.sheep(), -1)
+                : new Parent(null, addSteps(node, steps, bred));
+    }
+
+    /**
+     * @param plans the best plans, from the most likely
+     * @param complete false if the time budget ran out before every generation was searched
+     */
+    public record PlanResult(List<Plan> plans, boolean complete) {
+    }
+
+    /**
+     * @param probability the chance that the last child reaches the target grade in every category
+     * @param generations the generations the plan takes
+     * @param steps the pairings to make, in order; the last breeds the target child
+     */
+    public record Plan(double probability, int generations, List<Step> steps) {
+    }
+
+    /**
+     * @param probability the chance that this step's child reaches the target grade in every category
+     */
+    public record Step(Parent parent1, Parent parent2, double probability) {
+    }
+
+    /**
+     * A sheep of the flock, or the child bred by an earlier step of the plan.
+     *
+     * @param step the index of that step, -1 for a sheep
+     */
+    public record Parent(Sheep sheep, int step) {
+    }
+
+    // a sheep (without parents) or an expected child; passed and partner as in partnerOf
+    private record PlanNode(
+            int id,
+            Sheep sheep,
+            PlanNode parent1,
+            PlanNode parent2,
+            int depth,
+            double[] passed,
+            double[] partner,
+            double probability
+    ) {
+    }
+
+    // a pairing with the chance its child reaches the target, and the child's target share per category
+    private record Candidate(PlanNode first, PlanNode second, double probability, double[] shares) {
+        double jointShare() {
+            double joint = 1.0;
+            for (double share : shares) {
+                joint *= share;
+            }
+            return joint;
+        }
+
+        long key() {
+            int a = Math.min(first.id(), second.id());
+            int b = Math.max(first.id(), second.id());
+            return ((long) a << 32) | b;
+        }
+    }
+
+    // the candidates of one generation kept by each ranking: the plans by probability, and the
+    // parents of the next generation by their joint target share and by their share in each category
+    private final class Generation {
+        private final Ranking plans;
+        private final List<Ranking> parentRankings = new ArrayList<>();
+
+        private Generation(int limit) {
+            this.plans = new Ranking(limit, Candidate::probability);
+            parentRankings.add(new Ranking(KEPT_PER_RANKING, Candidate::jointShare));
+            for (int c = 0; c < categories.size(); c++) {
+                int category = c;
+                parentRankings.add(new Ranking(KEPT_PER_RANKING, candidate -> candidate.shares()[category]));
+            }
+        }
+
+        private Ranking plans() {
+            return plans;
+        }
+
+        private void offer(Candidate candidate) {
+            plans.offer(candidate);
+            parentRankings.forEach(ranking -> ranking.offer(candidate));
+        }
+
+        private void addAll(Generation other) {
+            other.plans.ranked().forEach(plans::offer);
+            for (int r = 0; r < parentRankings.size(); r++) {
+                other.parentRankings.get(r).ranked().forEach(parentRankings.get(r)::offer);
+            }
+        }
+
+        // the union of the parent rankings, best first in each
+        private List<Candidate> parents() {
+            Map<Long, Candidate> parents = new LinkedHashMap<>();
+            for (Ranking ranking : parentRankings) {
+                for (Candidate candidate : ranking.ranked()) {
+                    parents.putIfAbsent(candidate.key(), candidate);
+                }
+            }
+            return new ArrayList<>(parents.values());
+        }
+    }
+
+    // the best candidates by one score, up to a limit; equal scores by the ids of the pair
+    private static final class Ranking {
+        private final int limit;
+        private final Comparator<Candidate> worseFirst;
+        private final PriorityQueue<Candidate> heap;
+
+        private Ranking(int limit, ToDoubleFunction<Candidate> score) {
+            this.limit = limit;
+            this.worseFirst = Comparator.comparingDouble(score)
+                    .thenComparing(Comparator.comparingLong(Candidate::key).reversed());
+            this.heap = new PriorityQueue<>(worseFirst);
+        }
+
+        private void offer(Candidate candidate) {
+            if (limit == 0) return;
+            if (heap.size() < limit) {
+                heap.add(candidate);
+            } else if (worseFirst.compare(heap.peek(), candidate) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+
+        private List<Candidate> ranked() {
+            List<Candidate> ranked = new ArrayList<>(heap);
+            ranked.sort(worseFirst.reversed());
+            return ranked;
+        }
+    }
+}
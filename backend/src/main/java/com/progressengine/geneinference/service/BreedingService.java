@@ -10,30 +10,56 @@ import com.progressengine.geneinference.model.enums.Allele;
 import com.progressengine.geneinference.model.enums.Category;
 import com.progressengine.geneinference.model.enums.DistributionType;
 import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.model.enums.MessageSchedule;
 import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
 import com.progressengine.geneinference.service.AlleleDomains.GradeAlleleDomain;
 import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 
 import com.progressengine.geneinference.repository.BirthRecordRepository;
+import com.progressengine.geneinference.repository.InferenceFlockLoader;
+import com.progressengine.geneinference.repository.InferredBeliefRepository;
 import jakarta.transaction.Transactional;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 @Service
 public class BreedingService {
 
     private static final double CERTAINTY_THRESHOLD = 0.99;
     private static final int MAX_SHEEP_PER_CATEGORY = 2;
+    // deepest rank of the pairing leaderboard that can be paged to
+    private static final int MAX_RANKED_PAIRINGS = 10_000;
 
     private final SheepService sheepService;
     private final RelationshipService relationshipService;
     private final BirthRecordRepository birthRecordRepository;
-
-    public BreedingService(SheepService sheepService, RelationshipService relationshipService, BirthRecordRepository birthRecordRepository) {
+    private final MessageStoreService messageStoreService;
+    private final InferredBeliefRepository inferredBeliefRepository;
+    private final InferenceFlockLoader inferenceFlockLoader;
+    private final InferenceGraphCache inferenceGraphCache;
+    private final ForkJoinPool inferencePool;
+    private final InferenceMetrics inferenceMetrics;
+    // lazy, since the jobs run their recalculations through this service
+    private final RecalculationJobService recalculationJobService;
+
+    public BreedingService(SheepService sheepService, RelationshipService relationshipService, BirthRecordRepository birthRecordRepository, MessageStoreService messageStoreService, InferredBeliefRepository inferredBeliefRepository, InferenceFlockLoader inferenceFlockLoader, InferenceGraphCache inferenceGraphCache, ForkJoinPool inferencePool, InferenceMetrics inferenceMetrics, @Lazy RecalculationJobService recalculationJobService) {
         this.sheepService = sheepService;
         this.relationshipService = relationshipService;
         this.birthRecordRepository = birthRecordRepository;
+        this.messageStoreService = messageStoreService;
+        this.inferredBeliefRepository = inferredBeliefRepository;
+        this.inferenceFlockLoader = inferenceFlockLoader;
+        this.inferenceGraphCache = inferenceGraphCache;
+        this.inferencePool = inferencePool;
+        this.inferenceMetrics = inferenceMetrics;
+        this.recalculationJobService = recalculationJobService;
     }
 
 
@@ -84,6 +110,7 @@ public class BreedingService {
             birthRecord = relationship.addChildInformationToRelationship(newChild);
         }
 
+        updateBeliefsAfterBirth(userId);
         return birthRecord;
     }
 
@@ -100,10 +127,17 @@ public class BreedingService {
      * @return a Sheep that represents the child born from the relationship
      */
     public static Sheep breedNewSheep(Sheep sheep1, Sheep sheep2) {
+        return breedNewSheep(sheep1, sheep2, new Random());
+    }
+
+    /**
+     * Same as {@link #breedNewSheep(Sheep, Sheep)}, drawing every allele choice from the given
+     * random source so that a seeded source breeds the same child each time.
+     */
+    public static Sheep breedNewSheep(Sheep sheep1, Sheep sheep2, Random random) {
         breedingValidation(sheep1, sheep2);
 
         Sheep child = new Sheep();
-        Random random = new Random();
 
         for (Category category : Category.values()) {
             selectAllelesForChildCategory(child, sheep1, sheep2, category, random);
@@ -163,6 +197,7 @@ public class BreedingService {
             birthRecord = relationship.addChildInformationToRelationship(child);
         }
 
+        updateBeliefsAfterBirth(userId);
         return birthRecord;
     }
 
@@ -229,16 +264,238 @@ public class BreedingService {
         return predictions;
     }
 
+    /**
+     * Ranks every pair of the user's sheep by the expected grades of their children, see
+     * {@link PairingLeaderboard}, and returns one page of the ranking. Only the pairs up to the end
+     * of the page are kept while scoring, and the ranking ends at {@value #MAX_RANKED_PAIRINGS} pairs.
+     *
+     * @param categories the grade categories to rank by; empty for every grade category
+     * @throws BadRequestException if one of the categories is not a grade category
+     */
+    public PageResponse<PairingDTO> pairingLeaderboard(UUID userId, List<Category> categories, int page, int size) {
+        PairingLeaderboard leaderboard;
+        try {
+            leaderboard = new PairingLeaderboard(sheepService.getAllSheep(userId), categories);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+
+        long total = Math.min(leaderboard.pairCount(), MAX_RANKED_PAIRINGS);
+        int limit = (int) Math.min((long) (page + 1) * size, total);
+        List<PairingLeaderboard.RankedPair> ranked = leaderboard.top(limit, inferencePool);
+
+        List<PairingDTO> items = new ArrayList<>();
+        int from = (int) Math.min((long) page * size, ranked.size());
+        for (int i = from; i < ranked.size(); i++) {
+            PairingLeaderboard.RankedPair pair = ranked.get(i);
+            double[] ranks = leaderboard.expectedRanks(pair);
+            Map<Category, Double> expectedGrades = new EnumMap<>(Category.class);
+            for (int c = 0; c < ranks.length; c++) {
+                expectedGrades.put(leaderboard.categories().get(c), ranks[c]);
+            }
+
+            items.add(new PairingDTO(
+                    new SheepSummaryResponseDTO(pair.first().getId(), pair.first().getName()),
+                    new SheepSummaryResponseDTO(pair.second().getId(), pair.second().getName()),
+                    pair.score(),
+                    expectedGrades,
+                    InferenceMath.predictChildrenDistributions(pair.first(), pair.second())
+            ));
+        }
+
+        int totalPages = (int) ((total + size - 1) / size);
+        return new PageResponse<>(items, page, size, total, totalPages, page + 1 < totalPages);
+    }
+
+    /**
+     * Searches the pairings of the coming generations for plans whose last child reaches at least the
+     * target grade in every target category, see {@link BreedingPlanner}.
+     *
+     * @param budget the time the search may take; plans found by then are returned as incomplete
+     * @throws BadRequestException if there are no categories or one is not a grade category
+     */
+    public BreedingPlanResponseDTO planBreeding(UUID userId, List<Category> categories, Grade target, int generations, int limit, Duration budget) {
+        BreedingPlanner planner;
+        try {
+            planner = new BreedingPlanner(sheepService.getAllSheep(userId), categories, target);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+
+        BreedingPlanner.PlanResult result = planner.plan(generations, limit, inferencePool, budget.toNanos());
+        List<BreedingPlanDTO> plans = new ArrayList<>();
+        for (BreedingPlanner.Plan plan : result.plans()) {
+            List<BreedingPlanDTO.Step> steps = new ArrayList<>();
+            for (BreedingPlanner.Step step : plan.steps()) {
+                steps.add(new BreedingPlanDTO.Step(toPlanParent(step.parent1()), toPlanParent(step.parent2()), step.probability()));
+            }
+            plans.add(new BreedingPlanDTO(plan.probability(), plan.generations(), steps));
+        }
+        return new BreedingPlanResponseDTO(plans, result.complete());
+    }
+
+    private static BreedingPlanDTO.Parent toPlanParent(BreedingPlanner.Parent parent) {
+        Sheep sheep = parent.sheep();
+        return sheep != null
+                ? new BreedingPlanDTO.Parent(new SheepSummaryResponseDTO(sheep.getId(), sheep.getName()), null)
+                : new BreedingPlanDTO.Parent(null, parent.step());
+    }
+
     @Transactional
-    public List<Map<Category, Map<String, Double>>> recalculateAll(UUID userId) {
-        List<Sheep> allSheep = sheepService.getAllSheep(userId);
-        List<Relationship> allRelationship = relationshipService.getAllRelationships(userId);
+    public RecalculationResponseDTO recalculateAll(UUID userId) {
+        PreparedRecalculation prepared = prepareRecalculation(userId);
+        PropagationResult propagation;
+        List<Map<Category, Map<String, Double>>> newBeliefs;
+        try {
+            propagation = propagate(prepared, PropagationMonitor.NONE);
+
+            newBeliefs = prepared.graph().inferBeliefs();
+            inferenceMetrics.timeBeliefPersistence(prepared.sheep().size(), () -> {
+                messageStoreService.save(userId, prepared.previous(), prepared.graph().snapshot());
+                sheepService.flush();
+                inferredBeliefRepository.saveAll(prepared.graph().sheep(), newBeliefs);
+            });
+        } finally {
+            releaseRecalculation(prepared);
+        }
 
-        FactorGraph factorGraph = new FactorGraph(allSheep, allRelationship);
-        factorGraph.recalculateAllMessages();
-        List<Map<Category, Map<String, Double>>> newBeliefs = factorGraph.computeBeliefs();
+        int unconvergedComponents = 0;
+        int dampedMessages = 0;
+        for (ComponentPropagation component : propagation.components()) {
+            if (!component.converged()) unconvergedComponents++;
+            dampedMessages += component.dampedMessages();
+        }
+        return new RecalculationResponseDTO(newBeliefs, propagation.converged(), unconvergedComponents, dampedMessages);
+    }
 
-        return newBeliefs;
+    /**
+     * Borrows the user's compiled factor graph from the {@link InferenceGraphCache}, which loads the
+     * flock only when it is not cached, and loads the stored messages. The flock is not managed by
+     * the persistence context, and the lazily computed state of the graph is filled, so message
+     * passing can run outside the transaction. Give the graph back with
+     * {@link #releaseRecalculation(PreparedRecalculation)} once the run is over.
+     */
+    @Transactional
+    public PreparedRecalculation prepareRecalculation(UUID userId) {
+        return prepareRecalculation(userId, false);
+    }
+
+    /**
+     * Same as {@link #prepareRecalculation(UUID)}, optionally for a run from uniform messages that
+     * ignores the stored ones, for when they are suspected to hold a poor fixed point.
+     */
+    @Transactional
+    public PreparedRecalculation prepareRecalculation(UUID userId, boolean coldStart) {
+        CompiledFactorGraph factorGraph = inferenceGraphCache.borrowGraph(userId);
+        return new PreparedRecalculation(userId, factorGraph.sheep(), factorGraph, messageStoreService.load(userId), coldStart);
+    }
+
+    /**
+     * @return {@code true} if none of the user's sheep, relationships or births changed since the
+     * recalculation was prepared, so its results are still for the current flock
+     */
+    public boolean isCurrent(PreparedRecalculation prepared) {
+        return inferenceGraphCache.isCurrent(prepared.graph());
+    }
+
+    /**
+     * Runs a write of a recalculation's results in a transaction of its own, and commits it only if
+     * the flock is still the one the recalculation was prepared from. The check follows the write:
+     * a change to the flock invalidates it before writing beliefs or messages of its own, so either
+     * the check sees the change and the write rolls back, or the change's writes wait on the rows
+     * written here and land on top of them.
+     *
+     * @param write must flush what it writes before it returns
+     * @return {@code false} if the flock changed and the write was rolled back
+     */
+    @Transactional
+    public boolean saveIfCurrent(PreparedRecalculation prepared, Runnable write) {
+        write.run();
+        if (isCurrent(prepared)) {
+            return true;
+        }
+        TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        return false;
+    }
+
+    /**
+     * Gives the graph of a finished or abandoned recalculation back to the cache, for the next one.
+     */
+    public void releaseRecalculation(PreparedRecalculation prepared) {
+        inferenceGraphCache.returnGraph(prepared.graph());
+    }
+
+    /**
+     * Runs the full message passing schedule over a prepared flock, seeding every message. It
+     * starts from the stored messages when there are any, so a flock whose messages are close to
+     * their fixed point converges in few updates, and from uniform messages otherwise or when the
+     * run was prepared as a cold start. Every message is checked again, so a stored run that did
+     * not converge, or that births propagated only around the changed relationships, is finished
+     * here.
+     *
+     * @throws java.util.concurrent.CancellationException if the monitor cancelled the run
+     */
+    public PropagationResult propagate(PreparedRecalculation prepared, PropagationMonitor monitor) {
+        CompiledFactorGraph factorGraph = prepared.graph();
+        boolean warm = !prepared.coldStart() && prepared.previous().messageCount() > 0;
+        if (warm) {
+            factorGraph.restoreMessages(prepared.previous());
+        }
+        long start = System.nanoTime();
+        PropagationResult propagation = factorGraph.recalculateAllMessages(MessageSchedule.FIFO, inferencePool, monitor);
+        inferenceMetrics.recordPropagation(propagation, warm ? "warm" : "full", prepared.sheep().size(), System.nanoTime() - start);
+        return propagation;
+    }
+
+    /**
+     * Propagates a newly recorded birth from the user's stored messages instead of from
+     * uniform ones. Only messages around the changed relationship are seeded, and only the rows of
+     * sheep whose inferred distributions moved are written. Without earlier messages every message
+     * would be seeded, which is a full recalculation; it is left to a background job submitted once
+     * the birth is committed, see {@link RecalculationJobService}, instead of holding up the birth.
+     *
+     * @return the sheep whose inferred distributions changed, none if a job recalculates them
+     */
+    private List<Sheep> updateBeliefsAfterBirth(UUID userId) {
+        inferenceGraphCache.invalidate(userId);
+        MessageSnapshot previous = messageStoreService.load(userId);
+        if (previous.messageCount() == 0) {
+            submitRecalculationAfterCommit(userId);
+            return List.of();
+        }
+
+        // the birth is still pending in the persistence context, and the flock is read around it
+        sheepService.flush();
+        InferenceFlock flock = inferenceFlockLoader.load(userId);
+        List<Sheep> allSheep = flock.sheep();
+
+        CompiledFactorGraph factorGraph = inferenceMetrics.timeGraphBuild(allSheep.size(),
+                () -> new FactorGraph(allSheep, flock.relationships()).compile());
+
+        long start = System.nanoTime();
+        BeliefUpdate update = factorGraph.propagateChangesSince(previous);
+        inferenceMetrics.recordPropagation(update.propagation(), "incremental", allSheep.size(), System.nanoTime() - start);
+
+        inferenceMetrics.timeBeliefPersistence(allSheep.size(), () -> {
+            messageStoreService.save(userId, previous, factorGraph.snapshot());
+            inferredBeliefRepository.saveAll(update.changedSheep(), update.changedBeliefs());
+        });
+
+        return update.changedSheep();
+    }
+
+    // a job started before the commit would read the flock without the birth
+    private void submitRecalculationAfterCommit(UUID userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            recalculationJobService.submit(userId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                recalculationJobService.submit(userId);
+            }
+        });
     }
 
     // validates that these two sheep can be automatically bred within the app
@@ -0,0 +1,33 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.repository.SheepRepository;
+import jakarta.transaction.Transactional;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Service
+public class DistributionVectorBackfillPageService {
+
+    private final SheepRepository sheepRepository;
+
+    public DistributionVectorBackfillPageService(SheepRepository sheepRepository) {
+        this.sheepRepository = sheepRepository;
+    }
+
+    /**
+     * Packs the missing distribution vectors of the given sheep from their rows, in one transaction.
+     *
+     * @return the number of vectors packed
+     */
+    @Transactional
+    public int processPage(List<Integer> sheepIds) {
+        int changes = 0;
+        for (Integer sheepId : sheepIds) {
+            Sheep sheep = sheepRepository.findWithAllById(sheepId).orElseThrow();
+            changes += sheep.packMissingDistributionVectors();
+        }
+        return changes;
+    }
+}
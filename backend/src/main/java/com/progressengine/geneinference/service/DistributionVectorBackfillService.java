@@ -0,0 +1,50 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.repository.SheepRepository;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+/**
+ * Packs distribution vectors for sheep saved before vectors were written, so that reads can move
+ * from {@code sheep_distribution} rows to {@code sheep_distribution_vector}. Safe to run again; sheep
+ * that already have every vector are left as they are.
+ */
+@Service
+public class DistributionVectorBackfillService {
+    private static final int PAGE_SIZE = 200;
+
+    private final SheepRepository sheepRepository;
+    private final DistributionVectorBackfillPageService pageService;
+
+    public DistributionVectorBackfillService(
+            SheepRepository sheepRepository,
+            DistributionVectorBackfillPageService pageService
+    ) {
+        this.sheepRepository = sheepRepository;
+        this.pageService = pageService;
+    }
+
+    public void backfillDistributionVectors() {
+        int page = 0;
+        int totalChanges = 0;
+
+        Page<Integer> idPage;
+
+        do {
+            idPage = sheepRepository.findAllIds(PageRequest.of(page, PAGE_SIZE));
+
+            try {
+                totalChanges += pageService.processPage(idPage.getContent());
+            } catch (Exception e) {
+                System.err.println("❌ FAILED on page=" + page);
+                throw e;
+            }
+
+            System.out.println("[PROGRESS] page=" + page + " totalChanges=" + totalChanges);
+            page++;
+        } while (idPage.hasNext());
+
+        System.out.println("Packed " + totalChanges + " distribution vectors.");
+    }
+}
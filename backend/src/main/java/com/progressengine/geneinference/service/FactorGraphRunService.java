@@ -1,6 +1,7 @@
 package com.progressengine.geneinference.service;
 
 import com.progressengine.geneinference.dto.*;
+import com.progressengine.geneinference.exception.ResourceNotFoundException;
 import com.progressengine.geneinference.model.*;
 import com.progressengine.geneinference.model.enums.Category;
 import com.progressengine.geneinference.model.enums.RunEventType;
@@ -15,20 +16,19 @@ import java.util.concurrent.ConcurrentHashMap;
 @Service
 public class FactorGraphRunService {
 
-    private final SheepService sheepService;
-    private final RelationshipService relationshipService;
+    private final InferenceGraphCache inferenceGraphCache;
     private final Map<String, String> activeRunByUserId = new ConcurrentHashMap<>();
     private final Map<String, FactorGraphRunner> runners = new ConcurrentHashMap<>();
     private final DemoGraphService demoGraphService;
 
     public FactorGraphRunService(
-            SheepService sheepService,
-            RelationshipService relationshipService,
-            DemoGraphService demoGraphService
+            InferenceGraphCache inferenceGraphCache,
+            DemoGraphService demoGraphService,
+            InferenceMetrics inferenceMetrics
     ) {
-        this.sheepService = sheepService;
-        this.relationshipService = relationshipService;
+        this.inferenceGraphCache = inferenceGraphCache;
         this.demoGraphService = demoGraphService;
+        inferenceMetrics.gaugeActiveRunners(runners);
     }
 
     @Transactional
@@ -46,11 +46,15 @@ public class FactorGraphRunService {
             graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships());
             targetSheep = demoGraph.targetSheep();
         } else {
-            targetSheep = sheepService.findByIdAndUserId(targetSheepId, userId);
-            graph = new FactorGraph(
-                    sheepService.getAllSheep(userId),
-                    relationshipService.getAllRelationships(userId)
-            );
+            // the runner gets its own messages, but shares the cached flock, which it only reads
+            InferenceFlock flock = inferenceGraphCache.getFlock(userId);
+            targetSheep = flock.sheep().stream()
+                    .filter(sheep -> sheep.getId().equals(targetSheepId))
+                    .findFirst()
+                    .orElseThrow(() -> new ResourceNotFoundException(
+                            "Sheep with id " + targetSheepId + " not found"
+                    ));
+            graph = new FactorGraph(flock.sheep(), flock.relationships());
         }
 
         FactorGraphRunner runner = new FactorGraphRunner(graph, targetSheep, userIdStr);
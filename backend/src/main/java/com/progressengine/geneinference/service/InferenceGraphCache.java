@@ -0,0 +1,262 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.CompiledFactorGraph;
+import com.progressengine.geneinference.model.FactorGraph;
+import com.progressengine.geneinference.model.InferenceFlock;
+import com.progressengine.geneinference.model.Relationship;
+import com.progressengine.geneinference.repository.InferenceFlockLoader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the loaded and compiled flocks of recently active users in memory, so recalculations and
+ * step-by-step runs do not read and rebuild the whole flock each time. Once the estimated size of
+ * the entries passes the limit, the least recently used ones are evicted. A user's entry is dropped
+ * whenever their sheep, relationships or birth records change, see {@link #invalidate(UUID)}.
+ * <p>
+ * The sheep and relationships of a cached flock are shared and must only be read; their lazily
+ * computed state is filled before they are cached. Their inferred distributions stay as loaded,
+ * since inference reads only the priors. A compiled graph holds the messages of the run using it,
+ * so it is lent to one run at a time with {@link #borrowGraph(UUID)} and given back with
+ * {@link #returnGraph(CompiledFactorGraph)}.
+ */
+@Component
+public class InferenceGraphCache {
+    // rough heap sizes of what a flock holds beyond its compiled graph: a sheep's unpacked
+    // distributions, a relationship's joint distribution caches, a birth record's phenotypes
+    private static final long SHEEP_BYTES = 12_000;
+    private static final long RELATIONSHIP_BYTES = 24_000;
+    private static final long BIRTH_RECORD_BYTES = 1_500;
+
+    private final InferenceFlockLoader inferenceFlockLoader;
+    private final InferenceMetrics inferenceMetrics;
+    private final long maxBytes;
+
+    // access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<UUID, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+    // bumped whenever a user's flock changes, so a flock that was being loaded meanwhile is not
+    // cached; one counter per user that changed a flock since startup
+    private final Map<UUID, Long> generations = new HashMap<>();
+    // graphs that are lent out, with the entry whose flock they were compiled from; weak, so a graph
+    // that is never given back is simply forgotten
+    private final Map<CompiledFactorGraph, Lease> leases = new WeakHashMap<>();
+
+    public InferenceGraphCache(
+            InferenceFlockLoader inferenceFlockLoader,
+            InferenceMetrics inferenceMetrics,
+            @Value("${inference.graph-cache.max-bytes:268435456}") long maxBytes
+    ) {
+        this.inferenceFlockLoader = inferenceFlockLoader;
+        this.inferenceMetrics = inferenceMetrics;
+        this.maxBytes = maxBytes;
+        inferenceMetrics.gaugeGraphCache(this);
+    }
+
+    /**
+     * @return the user's flock, shared with every other reader of the cache, so it must not be modified
+     */
+    public InferenceFlock getFlock(UUID userId) {
+        synchronized (this) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                hit();
+                return entry.flock;
+            }
+        }
+        return load(userId).flock;
+    }
+
+    /**
+     * Lends the user's compiled graph with uniform messages, ready for message passing on other
+     * threads. While the cached graph is lent, other callers get a graph newly compiled from the
+     * cached flock.
+     */
+    public CompiledFactorGraph borrowGraph(UUID userId) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(userId);
+            if (entry != null) {
+                hit();
+            }
+        }
+        if (entry == null) {
+            entry = load(userId);
+        }
+
+        CompiledFactorGraph graph;
+        synchronized (this) {
+            graph = entry.idleGraph;
+            entry.idleGraph = null;
+        }
+        if (graph == null) {
+            graph = compile(entry.flock);
+        }
+        synchronized (this) {
+            leases.put(graph, new Lease(userId, entry));
+        }
+        return graph;
+    }
+
+    /**
+     * Takes back a graph from {@link #borrowGraph(UUID)}, keeping it for the next run unless the
+     * flock changed since it was lent or another graph of the user is already kept.
+     */
+    public void returnGraph(CompiledFactorGraph graph) {
+        Lease lease;
+        synchronized (this) {
+            lease = leases.remove(graph);
+        }
+        if (lease == null) {
+            return;
+        }
+
+        graph.resetMessages();
+        synchronized (this) {
+            Entry entry = lease.entry();
+            if (entries.get(lease.userId()) == entry && entry.idleGraph == null) {
+                entry.idleGraph = graph;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the flock the lent graph was compiled from is still the user's
+     * current flock, {@code false} if it changed since or the graph was not lent by this cache
+     */
+    public synchronized boolean isCurrent(CompiledFactorGraph graph) {
+        Lease lease = leases.get(graph);
+        return lease != null && generations.getOrDefault(lease.userId(), 0L) == lease.entry().generation;
+    }
+
+    /**
+     * Drops the user's cached flock, after their sheep, relationships or birth records changed.
+     * Inside a transaction it is dropped again when the transaction ends, so that a flock read
+     * before the change was committed or rolled back is not kept either.
+     */
+    public void invalidate(UUID userId) {
+        evict(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(userId);
+                }
+            });
+        }
+    }
+
+    public synchronized long estimatedBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the share of requests served from the cache since startup, 0 before the first request
+     */
+    public synchronized double hitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+
+    private Entry load(UUID userId) {
+        long generation;
+        synchronized (this) {
+            misses++;
+            generation = generations.getOrDefault(userId, 0L);
+        }
+        inferenceMetrics.recordGraphCacheRequest(false);
+
+        InferenceFlock flock = inferenceFlockLoader.load(userId);
+        CompiledFactorGraph graph = compile(flock);
+        Entry entry = new Entry(flock, estimateBytes(flock, graph), generation);
+        entry.idleGraph = graph;
+
+        synchronized (this) {
+            // a change while the flock was read may be missing from it
+            if (generations.getOrDefault(userId, 0L) == generation) {
+                Entry replaced = entries.put(userId, entry);
+                if (replaced != null) {
+                    totalBytes -= replaced.bytes;
+                }
+                totalBytes += entry.bytes;
+                evictToSize();
+            }
+        }
+        return entry;
+    }
+
+    // also fills the lazily computed state of the flock, after which it is only read
+    private CompiledFactorGraph compile(InferenceFlock flock) {
+        CompiledFactorGraph graph = inferenceMetrics.timeGraphBuild(flock.sheep().size(),
+                () -> new FactorGraph(flock.sheep(), flock.relationships()).compile());
+        graph.prepareForConcurrentUpdates();
+        return graph;
+    }
+
+    private void hit() {
+        hits++;
+        inferenceMetrics.recordGraphCacheRequest(true);
+    }
+
+    private synchronized void evict(UUID userId) {
+        generations.merge(userId, 1L, Long::sum);
+        Entry removed = entries.remove(userId);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+            inferenceMetrics.recordGraphCacheEviction("invalidated");
+        }
+    }
+
+    private void evictToSize() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            totalBytes -= eldest.next().bytes;
+            eldest.remove();
+            inferenceMetrics.recordGraphCacheEviction("size");
+        }
+    }
+
+    private static long estimateBytes(InferenceFlock flock, CompiledFactorGraph graph) {
+        long birthRecords = 0;
+        for (Relationship relationship : flock.relationships()) {
+            birthRecords += relationship.getBirthRecords().size();
+        }
+        return flock.sheep().size() * SHEEP_BYTES
+                + flock.relationships().size() * RELATIONSHIP_BYTES
+                + birthRecords * BIRTH_RECORD_BYTES
+                + graph.estimatedBytes();
+    }
+
+    private static final class Entry {
+        private final InferenceFlock flock;
+        private final long bytes;
+        // the user's generation when the flock was read; an entry is only cached while it is current
+        private final long generation;
+        // uniform messages, while no run has the graph; counted in bytes either way
+        private CompiledFactorGraph idleGraph;
+
+        private Entry(InferenceFlock flock, long bytes, long generation) {
+            this.flock = flock;
+            this.bytes = bytes;
+            this.generation = generation;
+        }
+    }
+
+    private record Lease(UUID userId, Entry entry) {
+    }
+}
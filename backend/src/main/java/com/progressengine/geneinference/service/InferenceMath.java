@@ -8,6 +8,7 @@ import com.progressengine.geneinference.model.enums.DistributionType;
 import com.progressengine.geneinference.model.enums.Grade;
 import com.progressengine.geneinference.model.enums.Allele;
 import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleKernel;
 import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 
 import java.util.*;
@@ -39,6 +40,7 @@ public final class InferenceMath {
 
     private static <A extends Enum<A> & Allele> Map<String, Double> predictedChildDistributionByCategory(Sheep parent1, Sheep parent2, Category category) {
         AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        AlleleKernel kernel = CategoryDomains.kernelFor(category);
         Map<A, Double> parent1AlleleDistribution = inheritedAlleleDistribution(parent1, category);
         Map<A, Double> parent2AlleleDistribution = inheritedAlleleDistribution(parent2, category);
 
@@ -56,16 +58,15 @@ public final class InferenceMath {
                 double pAllele2 = p2Entry.getValue();
 
                 double genotypeProbability = pAllele1 * pAllele2;
-                double[] expressionProbability = domain.expressionBias(allele1, allele2);
 
                 childPhenotypeDistribution.merge(
                         allele1,
-                        genotypeProbability * expressionProbability[0],
+                        genotypeProbability * kernel.expressionBias(allele1.ordinal(), allele2.ordinal(), 0),
                         Double::sum
                 );
                 childPhenotypeDistribution.merge(
                         allele2,
-                        genotypeProbability * expressionProbability[1],
+                        genotypeProbability * kernel.expressionBias(allele1.ordinal(), allele2.ordinal(), 1),
                         Double::sum
                 );
             }
@@ -95,6 +96,24 @@ public final class InferenceMath {
         return result;
     }
 
+    /**
+     * Array form of the distribution of the allele the parent passes on: half its phenotype and half
+     * its inferred hidden distribution, written into out from offset indexed by allele ordinal.
+     */
+    public static <A extends Enum<A> & Allele> void inheritedAlleleDistribution(Sheep parent, Category category, double[] out, int offset) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        int length = domain.getAlleles().size();
+        Arrays.fill(out, offset, offset + length, 0.0);
+
+        A phenotype = parent.getPhenotype(category);
+        out[offset + phenotype.ordinal()] += 0.5;
+
+        Map<A, Double> hiddenDistribution = parent.getDistribution(category, DistributionType.INFERRED);
+        for (Map.Entry<A, Double> entry : hiddenDistribution.entrySet()) {
+            out[offset + entry.getKey().ordinal()] += 0.5 * entry.getValue();
+        }
+    }
+
     public static <A> void validateDistribution(Map<A, Double> distribution) {
         // Validate sum ≈ 1.0
         double total = distribution.values().stream()
@@ -120,6 +139,85 @@ public final class InferenceMath {
     }
 
 
+    // array form of productOfExperts over [offset, offset + length) of existing and [0, length) of newDistribution
+    public static void productOfExperts(double[] existing, int offset, double[] newDistribution, int newOffset, int length) {
+        double sum = multiplyAndNormalize(existing, offset, newDistribution, newOffset, existing, offset, length);
+
+        // a positive finite product normalizes to 1, so only a degenerate one needs the check
+        if (sum == 0 || !Double.isFinite(sum)) {
+            validateDistribution(existing, offset, length);
+        }
+    }
+
+
+    /**
+     * Multiplies [aOffset, aOffset + length) of a by the same length of b into out and normalizes the
+     * product, summing it in the same pass as the multiplication. An all zero product is left at
+     * zero, as {@link #normalizeScores(double[], int, int)} leaves it. out may be a or b.
+     *
+     * @return the sum of the product before it was normalized
+     */
+    public static double multiplyAndNormalize(double[] a, int aOffset, double[] b, int bOffset, double[] out, int outOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double product = a[aOffset + i] * b[bOffset + i];
+            out[outOffset + i] = product;
+            sum += product;
+        }
+
+        if (sum == 0) { return sum; }
+
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] /= sum;
+        }
+        return sum;
+    }
+
+
+    /**
+     * Normalizes [offset, offset + length) of scores in place, as {@link #normalizeScores(double[], int, int)}
+     * does, and measures the result against the same length of reference in the pass that divides,
+     * so a recomputed message is normalized and compared with the stored one together.
+     *
+     * @return the squared L2 distance between the normalized scores and the reference
+     */
+    public static double normalizeWithSquaredDistance(double[] scores, int offset, int length, double[] reference, int referenceOffset) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += scores[offset + i];
+        }
+
+        double divisor = sum == 0 ? 1.0 : sum;
+        double distance = 0.0;
+        for (int i = 0; i < length; i++) {
+            double probability = scores[offset + i] / divisor;
+            scores[offset + i] = probability;
+            double diff = probability - reference[referenceOffset + i];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    public static void validateDistribution(double[] distribution, int offset, int length) {
+        double total = 0.0;
+        for (int i = 0; i < length; i++) {
+            total += distribution[offset + i];
+        }
+
+        if (Math.abs(total - 1.0) > 1e-6) {
+            throw new IllegalArgumentException("Distribution probabilities must sum to 1.0 (±1e-6). Actual sum: " + total);
+        }
+    }
+
+    // writes the distribution into out indexed by allele ordinal, zeroing the alleles it does not contain
+    public static <A extends Enum<A> & Allele> void copyToOrdinalArray(Map<A, Double> distribution, double[] out, int length) {
+        Arrays.fill(out, 0, length, 0.0);
+        for (Map.Entry<A, Double> entry : distribution.entrySet()) {
+            out[entry.getKey().ordinal()] = entry.getValue();
+        }
+    }
+
+
     // Returns the probability the given allele came from each parent given the assumed hidden alleles
     @Deprecated
     public static double[] probabilityAlleleFromParents( // TODO - update for generic alleles
@@ -162,48 +260,18 @@ public final class InferenceMath {
         return probabilities;
     }
 
-    public static <A extends Enum<A> & Allele> Map<A, Double> childHiddenDistributionGivenParents( // TODO - update for generic alleles
+    public static <A extends Enum<A> & Allele> Map<A, Double> childHiddenDistributionGivenParents(
             AllelePair<A> hiddenPair,
             A parent1Phenotype,
             A parent2Phenotype,
             A childPhenotype,
             AlleleDomain<A> domain
     ) {
-        Map<A, Double> result = new EnumMap<>(domain.getAlleleType());
-        fillMissingValuesWithZero(result, domain);
-
-        List<A> parent1Alleles = List.of(parent1Phenotype, hiddenPair.getFirst());
-        List<A> parent2Alleles = List.of(parent2Phenotype, hiddenPair.getSecond());
-
-        for (A allele1 : parent1Alleles) {
-            for (A allele2 : parent2Alleles) {
-                double inheritanceProb = 0.25;
-                double[] expressionProbabilities = domain.expressionBias(allele1, allele2);
-
-                // If allele1 is expressed as the observed phenotype,
-                // then the hidden allele is allele2.
-                if (allele1 == childPhenotype) {
-                    result.merge(
-                            allele2,
-                            inheritanceProb * expressionProbabilities[0],
-                            Double::sum
-                    );
-                }
+        AlleleKernel kernel = CategoryDomains.kernelFor(domain);
+        double[] block = kernel.childHiddenBlock(parent1Phenotype.ordinal(), parent2Phenotype.ordinal(), childPhenotype.ordinal());
+        int base = kernel.genotypeIndex(hiddenPair.getFirst().ordinal(), hiddenPair.getSecond().ordinal());
 
-                // If allele2 is expressed as the observed phenotype,
-                // then the hidden allele is allele1.
-                if (allele2 == childPhenotype) {
-                    result.merge(
-                            allele1,
-                            inheritanceProb * expressionProbabilities[1],
-                            Double::sum
-                    );
-                }
-            }
-        }
-
-        normalizeScores(result);
-        return result;
+        return fromOrdinalArray(block, base, domain);
     }
 
 
@@ -213,20 +281,97 @@ public final class InferenceMath {
         Map<A, Integer> phenotypeFrequency, 
         AlleleDomain<A> domain) 
     {
+        AlleleKernel kernel = CategoryDomains.kernelFor(domain);
+        int size = kernel.size();
+        double[] scores = new double[size * size];
+        int[] impossibleBirths = new int[size * size];
+        for (Map.Entry<A, Integer> entry : phenotypeFrequency.entrySet()) {
+            addBirthLogScores(kernel, phenotype1.ordinal(), phenotype2.ordinal(), entry.getKey().ordinal(),
+                    entry.getValue(), scores, impossibleBirths);
+        }
+        for (int pair = 0; pair < scores.length; pair++) {
+            if (impossibleBirths[pair] > 0) {
+                scores[pair] = Double.NEGATIVE_INFINITY;
+            }
+        }
+        normalizeLogScores(scores, 0, scores.length);
+        validateDistribution(scores, 0, scores.length);
+
         Map<AllelePair<A>, Double> multinomialDistribution = new HashMap<>();
         for (A allele1 : domain.getAlleles()) {
             for (A allele2 : domain.getAlleles()) {
-                AllelePair<A> allelePair = new AllelePair<>(allele1, allele2);
-                double multiScore = multinomialScore(allelePair, phenotype1, phenotype2, phenotypeFrequency, domain);
-                multinomialDistribution.put(allelePair, multiScore);
+                multinomialDistribution.put(new AllelePair<>(allele1, allele2), scores[allele1.ordinal() * size + allele2.ordinal()]);
             }
         }
-        normalizeScores(multinomialDistribution);
-        validateDistribution(multinomialDistribution);
         return multinomialDistribution;
     }
 
 
+    /**
+     * Adds the log likelihood of {@code births} children of one phenotype, born while the parents
+     * showed the given phenotypes, to the score of every parent hidden pair. The score of pair
+     * {@code (h1, h2)}, at {@code h1 * size + h2}, gains {@code births * log P(childPhenotype | h1, h2)},
+     * read from the kernel's log-probability block of the parents' phenotypes. A pair that cannot
+     * produce the phenotype counts the births in {@code impossibleBirths} instead, so the scores
+     * stay finite and births can be taken back out with a negative count.
+     *
+     * @param births the number of children to add, negative to remove them
+     * @param logScores the {@code size * size} scores to add to
+     * @param impossibleBirths per pair, the births it cannot have produced; its probability is zero while any remain
+     */
+    public static void addBirthLogScores(
+            AlleleKernel kernel,
+            int phenotype1,
+            int phenotype2,
+            int childPhenotype,
+            int births,
+            double[] logScores,
+            int[] impossibleBirths
+    ) {
+        int size = kernel.size();
+        double[] logProbabilities = kernel.logChildPhenotypeBlock(phenotype1, phenotype2);
+
+        for (int pair = 0; pair < size * size; pair++) {
+            double logProbability = logProbabilities[pair * size + childPhenotype];
+            if (logProbability == Double.NEGATIVE_INFINITY) {
+                impossibleBirths[pair] += births;
+            } else {
+                logScores[pair] += births * logProbability;
+            }
+        }
+    }
+
+
+    /**
+     * Turns the log scores in [offset, offset + length) into a normalized distribution in place,
+     * subtracting the largest score before exponentiating so long histories do not underflow. If
+     * every score is negative infinity the slice is left at zero, as {@link #normalizeScores(double[], int, int)}
+     * leaves an all zero slice.
+     */
+    public static void normalizeLogScores(double[] logScores, int offset, int length) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, logScores[offset + i]);
+        }
+
+        if (max == Double.NEGATIVE_INFINITY) {
+            Arrays.fill(logScores, offset, offset + length, 0.0);
+            return;
+        }
+
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double score = Math.exp(logScores[offset + i] - max);
+            logScores[offset + i] = score;
+            sum += score;
+        }
+
+        for (int i = 0; i < length; i++) {
+            logScores[offset + i] /= sum;
+        }
+    }
+
+
     // normalize the given Map of scores regardless of the key type
     public static <T> void normalizeScores(Map<T, Double> scores) {
         double sum = scores.values().stream().mapToDouble(Double::doubleValue).sum();
@@ -239,6 +384,21 @@ public final class InferenceMath {
     }
 
 
+    // normalize the slice [offset, offset + length) of the given scores in place
+    public static void normalizeScores(double[] scores, int offset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += scores[offset + i];
+        }
+
+        if (sum == 0) { return; }
+
+        for (int i = 0; i < length; i++) {
+            scores[offset + i] /= sum;
+        }
+    }
+
+
     public static <A extends Enum<A> & Allele> void fillMissingValuesWithZero(Map<A, Double> scores, AlleleDomain<A> domain) {
         for (A allele : domain.getAlleles()) {
             scores.putIfAbsent(allele, 0.0);
@@ -256,11 +416,12 @@ public final class InferenceMath {
     ) {
         double score = 1_000_000.0;
 
-        Map<A, Double> phenotypeProbabilities =
-                childPhenotypeDistribution(hiddenPair, phenotype1, phenotype2, domain);
+        AlleleKernel kernel = CategoryDomains.kernelFor(domain);
+        double[] phenotypeProbabilities = kernel.childPhenotypeBlock(phenotype1.ordinal(), phenotype2.ordinal());
+        int base = kernel.genotypeIndex(hiddenPair.getFirst().ordinal(), hiddenPair.getSecond().ordinal());
 
         for (A allele : domain.getAlleles()) {
-            double probability = phenotypeProbabilities.getOrDefault(allele, 0.0);
+            double probability = phenotypeProbabilities[base + allele.ordinal()];
             int frequency = phenotypeFrequency.getOrDefault(allele, 0);
 
             if (probability == 0.0 && frequency > 0) {
@@ -288,36 +449,39 @@ public final class InferenceMath {
         return entropy;
     }
 
+
+    // array form of entropy over [offset, offset + length), in bits
+    public static double entropy(double[] distribution, int offset, int length) {
+        double entropy = 0.0;
+        for (int i = 0; i < length; i++) {
+            double p = distribution[offset + i];
+            if (p > 0.0) {  // avoid log(0)
+                entropy -= p * Math.log(p);
+            }
+        }
+
+        return entropy / Math.log(2);
+    }
+
     public static <A extends Enum<A> & Allele> Map<A, Double> childPhenotypeDistribution(
             AllelePair<A> hiddenPair,
             A phenotype1,
             A phenotype2,
             AlleleDomain<A> domain
     ) {
-        Map<A, Double> distribution = new EnumMap<>(domain.getAlleleType());
-
-        List<A> parent1Alleles = List.of(phenotype1, hiddenPair.getFirst());
-        List<A> parent2Alleles = List.of(phenotype2, hiddenPair.getSecond());
+        AlleleKernel kernel = CategoryDomains.kernelFor(domain);
+        double[] block = kernel.childPhenotypeBlock(phenotype1.ordinal(), phenotype2.ordinal());
+        int base = kernel.genotypeIndex(hiddenPair.getFirst().ordinal(), hiddenPair.getSecond().ordinal());
 
-        for (A allele1 : parent1Alleles) {
-            for (A allele2 : parent2Alleles) {
-                double inheritanceProb = 0.25;
-                double[] expressionProbabilities = domain.expressionBias(allele1, allele2);
-
-                distribution.merge(
-                        allele1,
-                        inheritanceProb * expressionProbabilities[0],
-                        Double::sum
-                );
+        return fromOrdinalArray(block, base, domain);
+    }
 
-                distribution.merge(
-                        allele2,
-                        inheritanceProb * expressionProbabilities[1],
-                        Double::sum
-                );
-            }
+    // reads the ordinal indexed slice starting at offset into a map over the domain's alleles
+    private static <A extends Enum<A> & Allele> Map<A, Double> fromOrdinalArray(double[] values, int offset, AlleleDomain<A> domain) {
+        Map<A, Double> result = new EnumMap<>(domain.getAlleleType());
+        for (A allele : domain.getAlleles()) {
+            result.put(allele, values[offset + allele.ordinal()]);
         }
-
-        return distribution;
+        return result;
     }
 }
@@ -0,0 +1,179 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.FactorGraphRunner;
+import com.progressengine.geneinference.model.PropagationResult;
+import com.progressengine.geneinference.model.enums.Category;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters for the inference pipeline. Every meter of a run is tagged with the bucket of
+ * the flock's sheep count under {@value #FLOCK_SIZE_TAG}, so latency can be broken down by the
+ * flock sizes that drive it.
+ */
+@Component
+public class InferenceMetrics {
+    static final String FLOCK_SIZE_TAG = "flock_size";
+
+    // exclusive upper bounds of the flock size buckets; the last bucket is open ended
+    private static final int[] FLOCK_SIZE_BOUNDS = {50, 200, 1000};
+    private static final String[] FLOCK_SIZE_BUCKETS = {"0-49", "50-199", "200-999", "1000+"};
+
+    private final MeterRegistry registry;
+
+    public InferenceMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public static String flockSizeBucket(int sheepCount) {
+        for (int i = 0; i < FLOCK_SIZE_BOUNDS.length; i++) {
+            if (sheepCount < FLOCK_SIZE_BOUNDS[i]) {
+                return FLOCK_SIZE_BUCKETS[i];
+            }
+        }
+        return FLOCK_SIZE_BUCKETS[FLOCK_SIZE_BUCKETS.length - 1];
+    }
+
+    /**
+     * Times building and compiling the factor graph of a flock.
+     */
+    public <T> T timeGraphBuild(int sheepCount, Supplier<T> build) {
+        return Timer.builder("inference.graph.build")
+                .tag(FLOCK_SIZE_TAG, flockSizeBucket(sheepCount))
+                .register(registry)
+                .record(build);
+    }
+
+    /**
+     * Records one message passing run: its duration, the message updates it took to converge in
+     * total and per category, and the most updates pending at once.
+     *
+     * @param mode {@code full} for a run from uniform messages, {@code warm} for a full run from stored
+     *             messages, {@code incremental} for one seeded only around changed nodes
+     */
+    public void recordPropagation(PropagationResult result, String mode, int sheepCount, long elapsedNanos) {
+        String flockSize = flockSizeBucket(sheepCount);
+
+        Timer.builder("inference.propagation")
+                .tag(FLOCK_SIZE_TAG, flockSize)
+                .tag("mode", mode)
+                .tag("schedule", result.schedule().name())
+                .tag("converged", String.valueOf(result.converged()))
+                .register(registry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+
+        DistributionSummary.builder("inference.propagation.iterations")
+                .description("Message updates until convergence")
+                .tag(FLOCK_SIZE_TAG, flockSize)
+                .tag("mode", mode)
+                .register(registry)
+                .record(result.updates());
+
+        DistributionSummary.builder("inference.frontier.peak")
+                .description("Most message updates pending at once")
+                .tag(FLOCK_SIZE_TAG, flockSize)
+                .tag("mode", mode)
+                .register(registry)
+                .record(result.peakPending());
+
+        for (Map.Entry<Category, Integer> entry : result.updatesByCategory().entrySet()) {
+            Counter.builder("inference.message.updates")
+                    .tag(FLOCK_SIZE_TAG, flockSize)
+                    .tag("category", entry.getKey().name())
+                    .register(registry)
+                    .increment(entry.getValue());
+        }
+    }
+
+    /**
+     * Times writing inferred beliefs and messages back to the database.
+     */
+    public void timeBeliefPersistence(int sheepCount, Runnable persist) {
+        Timer.builder("inference.beliefs.persist")
+                .tag(FLOCK_SIZE_TAG, flockSizeBucket(sheepCount))
+                .register(registry)
+                .record(persist);
+    }
+
+    /**
+     * Counts a finished background recalculation.
+     *
+     * @param outcome {@code completed}, {@code cancelled}, {@code failed} when it threw, or
+     *                {@code abandoned} when the flock kept changing before its results were saved
+     */
+    public void recordRecalculationJob(String outcome) {
+        Counter.builder("inference.recalculation.jobs")
+                .tag("outcome", outcome)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Counts a request for a user's cached flock.
+     *
+     * @param hit whether the flock was in the cache, instead of loaded from the database
+     */
+    public void recordGraphCacheRequest(boolean hit) {
+        Counter.builder("inference.graph.cache.requests")
+                .tag("result", hit ? "hit" : "miss")
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Counts a flock dropped from the graph cache.
+     *
+     * @param cause {@code size} when evicted to stay under the size limit, {@code invalidated} when
+     *              the flock changed
+     */
+    public void recordGraphCacheEviction(String cause) {
+        Counter.builder("inference.graph.cache.evictions")
+                .tag("cause", cause)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Counts sheep whose distributions were read from rows because they have no vectors yet, while
+     * vector storage is on. The counter stops growing once every sheep has been written again.
+     */
+    public void recordDistributionRowReads(int sheepCount) {
+        Counter.builder("inference.distribution.row.reads")
+                .register(registry)
+                .increment(sheepCount);
+    }
+
+    /**
+     * Registers gauges for the graph cache's estimated size, its entry count and its hit ratio.
+     */
+    public void gaugeGraphCache(InferenceGraphCache cache) {
+        Gauge.builder("inference.graph.cache.size", cache, InferenceGraphCache::estimatedBytes)
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("inference.graph.cache.entries", cache, InferenceGraphCache::size)
+                .register(registry);
+        Gauge.builder("inference.graph.cache.hit.ratio", cache, InferenceGraphCache::hitRatio)
+                .register(registry);
+    }
+
+    /**
+     * Registers a gauge per flock size bucket counting the live step-by-step runners in it.
+     */
+    public void gaugeActiveRunners(Map<String, FactorGraphRunner> runners) {
+        for (String bucket : FLOCK_SIZE_BUCKETS) {
+            Gauge.builder("inference.runners.active", runners, live -> live.values().stream()
+                            .filter(runner -> flockSizeBucket(runner.getSheepCount()).equals(bucket))
+                            .count())
+                    .tag(FLOCK_SIZE_TAG, bucket)
+                    .register(registry);
+        }
+    }
+}
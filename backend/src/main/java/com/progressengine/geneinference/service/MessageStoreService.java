@@ -0,0 +1,79 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.InferenceMessage;
+import com.progressengine.geneinference.model.InferenceMessageKey;
+import com.progressengine.geneinference.model.MessageSnapshot;
+import com.progressengine.geneinference.repository.InferenceMessageRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Persists the converged factor graph messages of each user, so that a recalculation can start
+ * from them instead of from uniform messages.
+ */
+@Service
+public class MessageStoreService {
+
+    private final InferenceMessageRepository inferenceMessageRepository;
+
+    public MessageStoreService(InferenceMessageRepository inferenceMessageRepository) {
+        this.inferenceMessageRepository = inferenceMessageRepository;
+    }
+
+    public MessageSnapshot load(UUID userId) {
+        return MessageSnapshot.fromStoredMessages(inferenceMessageRepository.findAllByUserId(userId));
+    }
+
+    /**
+     * Writes the difference between two snapshots of the same user: rows for messages that changed
+     * or appeared, and deletes for edges that no longer exist. {@code previous} must be the snapshot
+     * returned by {@link #load(UUID)} in the same transaction.
+     */
+    public void save(UUID userId, MessageSnapshot previous, MessageSnapshot current) {
+        inferenceMessageRepository.deleteAllById(current.messagesRemovedSince(previous, userId));
+        inferenceMessageRepository.saveAll(current.messagesChangedSince(previous, userId));
+    }
+
+    /**
+     * Same as {@link #save(UUID, MessageSnapshot, MessageSnapshot)}, outside of a transaction: the
+     * rows are written in batches of the given size, each handed to {@code writeBatch}, which runs it
+     * in a transaction of its own and tells whether it was committed. Each batch is flushed before it
+     * returns. Rows that another transaction stored after {@code previous} was loaded may be
+     * overwritten; the fingerprints in them change with the flock, so the next run recomputes what
+     * was lost.
+     *
+     * @return {@code false} if {@code writeBatch} refused a batch, after which the rest is not written
+     */
+    public boolean saveInBatches(UUID userId, MessageSnapshot previous, MessageSnapshot current, int batchSize,
+                                 Predicate<Runnable> writeBatch) {
+        List<InferenceMessageKey> removed = current.messagesRemovedSince(previous, userId);
+        for (int from = 0; from < removed.size(); from += batchSize) {
+            List<InferenceMessageKey> batch = removed.subList(from, Math.min(from + batchSize, removed.size()));
+            if (!writeBatch.test(() -> {
+                inferenceMessageRepository.deleteAllById(batch);
+                inferenceMessageRepository.flush();
+            })) {
+                return false;
+            }
+        }
+        List<InferenceMessage> changed = current.messagesChangedSince(previous, userId);
+        for (int from = 0; from < changed.size(); from += batchSize) {
+            List<InferenceMessage> batch = changed.subList(from, Math.min(from + batchSize, changed.size()));
+            if (!writeBatch.test(() -> inferenceMessageRepository.saveAllAndFlush(batch))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deletes every stored message of the user, so the next recalculation or birth starts from
+     * uniform messages and recomputes every belief.
+     */
+    public void discard(UUID userId) {
+        inferenceMessageRepository.deleteAllByUserId(userId);
+    }
+}
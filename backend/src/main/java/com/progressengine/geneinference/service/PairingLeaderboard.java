@@ -0,0 +1,376 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleKernel;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
+import com.progressengine.geneinference.service.AlleleDomains.GradeAlleleDomain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.DoubleAccumulator;
+
+/**
+ * Ranks every pair of sheep in a flock by the expected grade rank of their children, averaged over
+ * the given grade categories.
+ * <p>
+ * A child's expected rank in one category is bilinear in what its parents pass on: with {@code v}
+ * the distribution of the allele a parent passes on, half its phenotype and half its inferred
+ * hidden allele, it is {@code v1 · R v2}, where {@code R[i][j]} is the expected rank of a child
+ * inheriting alleles {@code i} and {@code j}. Both vectors are computed once per sheep when the
+ * leaderboard is built, so scoring a pair is one dot product over the categories.
+ * <p>
+ * The sheep are ordered by an upper bound of their score with any partner, taken against the
+ * largest entry of every partner vector in the flock, and the pairs are scored in square tiles of
+ * that order on the given pool. Once the best pairs found so far beat a sheep's bound, none of its
+ * remaining pairs are scored. Inside a tile each sheep is also bounded against the largest partner
+ * entries of the other side of the tile only, which prunes most pairs of sheep that are strong in
+ * different categories.
+ */
+public final class PairingLeaderboard {
+    // sheep per side of a tile of pairs scored by one task
+    private static final int TILE_SIZE = 64;
+    // a bound within rounding error of the threshold still has its pairs scored
+    private static final double PRUNE_SLACK = 1e-9;
+
+    private final List<Sheep> sheep;
+    private final List<Category> categories;
+    private final int width;
+    // indexed by position in bound order: passed[p * width + k] is what sheep p passes on,
+    // partner[p * width + k] the expected rank of its child with a parent passing on allele k,
+    // divided by the number of categories
+    private final double[] passed;
+    private final double[] partner;
+    private final double[] bounds;
+    // blockPartners[b * width + k]: the largest partner[p * width + k] of the sheep p in tile block b
+    private final double[] blockPartners;
+    // the sheep's index in the flock ordered by id for each position in bound order, and the reverse
+    private final int[] indices;
+    private final int[] positions;
+
+    /**
+     * @param flock the sheep to pair, with their inferred distributions
+     * @param categories the grade categories to score; none for every grade category
+     * @throws IllegalArgumentException if one of the categories is not a grade category
+     */
+    public PairingLeaderboard(List<Sheep> flock, List<Category> categories) {
+        this.categories = categories.isEmpty() ? gradeCategories() : List.copyOf(categories);
+        for (Category category : this.categories) {
+            if (!(CategoryDomains.domainFor(category) instanceof GradeAlleleDomain)) {
+                throw new IllegalArgumentException("Pairings are only ranked by grade categories, not " + category);
+            }
+        }
+
+        this.sheep = flock.stream().sorted(Comparator.comparing(Sheep::getId)).toList();
+        int grades = Grade.values().length;
+        this.width = this.categories.size() * grades;
+
+        int count = sheep.size();
+        double[] passedById = new double[count * width];
+        double[] partnerById = new double[count * width];
+        for (int c = 0; c < this.categories.size(); c++) {
+            Category category = this.categories.get(c);
+            double[] ranks = childRankMatrix(category);
+            for (int s = 0; s < count; s++) {
+                int offset = s * width + c * grades;
+                InferenceMath.inheritedAlleleDistribution(sheep.get(s), category, passedById, offset);
+                for (int i = 0; i < grades; i++) {
+                    double rank = 0.0;
+                    for (int j = 0; j < grades; j++) {
+                        rank += ranks[i * grades + j] * passedById[offset + j];
+                    }
+                    partnerById[offset + i] = rank / this.categories.size();
+                }
+            }
+        }
+
+        // no pair can score above a sheep's vector against the best partner entry of every allele;
+        // R is symmetric, so a pair's score is below the bounds of both its sheep
+        double[] bestPartner = new double[width];
+        for (int s = 0; s < count; s++) {
+            for (int k = 0; k < width; k++) {
+                bestPartner[k] = Math.max(bestPartner[k], partnerById[s * width + k]);
+            }
+        }
+        double[] boundsById = new double[count];
+        for (int s = 0; s < count; s++) {
+            boundsById[s] = dot(passedById, s * width, bestPartner, 0, width);
+        }
+
+        this.indices = new int[count];
+        this.positions = new int[count];
+        Integer[] order = new Integer[count];
+        for (int s = 0; s < count; s++) {
+            order[s] = s;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(boundsById[b], boundsById[a]));
+
+        this.passed = new double[count * width];
+        this.partner = new double[count * width];
+        this.bounds = new double[count];
+        for (int p = 0; p < count; p++) {
+            int s = order[p];
+            indices[p] = s;
+            positions[s] = p;
+            bounds[p] = boundsById[s];
+            System.arraycopy(passedById, s * width, passed, p * width, width);
+            System.arraycopy(partnerById, s * width, partner, p * width, width);
+        }
+
+        this.blockPartners = new double[(count + TILE_SIZE - 1) / TILE_SIZE * width];
+        for (int p = 0; p < count; p++) {
+            int block = p / TILE_SIZE;
+            for (int k = 0; k < width; k++) {
+                blockPartners[block * width + k] = Math.max(blockPartners[block * width + k], partner[p * width + k]);
+            }
+        }
+    }
+
+    public List<Category> categories() {
+        return categories;
+    }
+
+    public long pairCount() {
+        long count = sheep.size();
+        return count * (count - 1) / 2;
+    }
+
+    /**
+     * Scores the pairs of the flock and keeps the best.
+     *
+     * @param limit the number of pairs to return
+     * @param pool the pool that scores the tiles
+     * @return at most limit pairs, by score from the highest, pairs of equal score by the ids of
+     * their sheep
+     */
+    public List<RankedPair> top(int limit, ForkJoinPool pool) {
+        if (limit <= 0 || sheep.size() < 2) {
+            return List.of();
+        }
+
+        DoubleAccumulator threshold = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+        int blocks = (sheep.size() + TILE_SIZE - 1) / TILE_SIZE;
+        List<ForkJoinTask<TopPairs>> tiles = new ArrayList<>();
+        // tiles of the highest bounds first, so the threshold rises early
+        for (int rowBlock = 0; rowBlock < blocks; rowBlock++) {
+            for (int columnBlock = rowBlock; columnBlock < blocks; columnBlock++) {
+                int rows = rowBlock;
+                int columns = columnBlock;
+                tiles.add(pool.submit(() -> scoreTile(rows, columns, limit, threshold)));
+            }
+        }
+
+        TopPairs best = new TopPairs(limit);
+        try {
+            for (ForkJoinTask<TopPairs> tile : tiles) {
+                best.addAll(tile.join());
+            }
+        } catch (RuntimeException e) {
+            tiles.forEach(tile -> tile.cancel(true));
+            throw e;
+        }
+        return best.ranked();
+    }
+
+    private TopPairs scoreTile(int rowBlock, int columnBlock, int limit, DoubleAccumulator threshold) {
+        TopPairs best = new TopPairs(limit);
+        int rowStart = rowBlock * TILE_SIZE;
+        int rowEnd = Math.min(rowStart + TILE_SIZE, sheep.size());
+        int columnStart = columnBlock * TILE_SIZE;
+        int columnEnd = Math.min(columnStart + TILE_SIZE, sheep.size());
+
+        if (bounds[rowStart] < threshold.get() - PRUNE_SLACK) {
+            return best;
+        }
+
+        // the bounds of each side against the best partner entries of the other side only, tighter
+        // than against the whole flock's
+        double[] columnBounds = new double[columnEnd - columnStart];
+        for (int column = columnStart; column < columnEnd; column++) {
+            columnBounds[column - columnStart] = dot(passed, column * width, blockPartners, rowBlock * width, width);
+        }
+
+        for (int row = rowStart; row < rowEnd; row++) {
+            // the threshold is the limit-th best score of some tile, so no better than the overall one
+            double floor = Math.max(threshold.get(), best.floor()) - PRUNE_SLACK;
+            // flock bounds fall along both sides of the tile, so every later row and column is beaten too
+            if (bounds[row] < floor) break;
+            if (dot(passed, row * width, blockPartners, columnBlock * width, width) < floor) continue;
+
+            for (int column = Math.max(row + 1, columnStart); column < columnEnd; column++) {
+                if (bounds[column] < floor) break;
+                if (columnBounds[column - columnStart] < floor) continue;
+                best.offer(dot(passed, row * width, partner, column * width, width), pairKey(indices[row], indices[column]));
+            }
+
+            if (best.isFull()) {
+                threshold.accumulate(best.floor());
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Expected rank of a child of the pair in each of the leaderboard's categories, in the order of
+     * {@link #categories()}.
+     */
+    public double[] expectedRanks(RankedPair pair) {
+        int first = positions[pair.firstIndex()];
+        int second = positions[pair.secondIndex()];
+        int grades = Grade.values().length;
+        double[] ranks = new double[categories.size()];
+        for (int c = 0; c < categories.size(); c++) {
+            int offset = c * grades;
+            ranks[c] = dot(passed, first * width + offset, partner, second * width + offset, grades) * categories.size();
+        }
+        return ranks;
+    }
+
+    // R[i * grades + j]: the expected rank of a child inheriting alleles i and j, by ordinal
+    private static double[] childRankMatrix(Category category) {
+        AlleleKernel kernel = CategoryDomains.kernelFor(category);
+        Grade[] grades = Grade.values();
+        double[] ranks = new double[grades.length * grades.length];
+        for (int i = 0; i < grades.length; i++) {
+            for (int j = 0; j < grades.length; j++) {
+                ranks[i * grades.length + j] = kernel.expressionBias(i, j, 0) * grades[i].rank()
+                        + kernel.expressionBias(i, j, 1) * grades[j].rank();
+            }
+        }
+        return ranks;
+    }
+
+    private static List<Category> gradeCategories() {
+        return Arrays.stream(Category.values())
+                .filter(category -> CategoryDomains.domainFor(category) instanceof GradeAlleleDomain)
+                .toList();
+    }
+
+    private static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    // the lower index first, so ties are broken by the ids of both sheep
+    private static long pairKey(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    /**
+     * A pair of sheep with its score, the lower id first.
+     *
+     * @param firstIndex the first sheep's index in the flock ordered by id
+     * @param score the expected grade rank of its children, averaged over the categories
+     */
+    public record RankedPair(Sheep first, Sheep second, int firstIndex, int secondIndex, double score) {
+    }
+
+    /**
+     * The best pairs offered so far, up to a limit, as a min heap of parallel arrays: the worst
+     * pair kept is at the root. Grows as pairs are kept, since most tiles keep few.
+     */
+    private final class TopPairs {
+        private final int limit;
+        private double[] scores = new double[0];
+        private long[] keys = new long[0];
+        private int size;
+
+        private TopPairs(int limit) {
+            this.limit = limit;
+        }
+
+        private boolean isFull() {
+            return size == limit;
+        }
+
+        // the score a pair must reach to be kept
+        private double floor() {
+            return isFull() ? scores[0] : Double.NEGATIVE_INFINITY;
+        }
+
+        private void offer(double score, long key) {
+            if (size < limit) {
+                if (size == scores.length) {
+                    int capacity = Math.min(limit, Math.max(16, size * 2));
+                    scores = Arrays.copyOf(scores, capacity);
+                    keys = Arrays.copyOf(keys, capacity);
+                }
+                scores[size] = score;
+                keys[size] = key;
+                siftUp(size++);
+            } else if (worse(scores[0], keys[0], score, key)) {
+                scores[0] = score;
+                keys[0] = key;
+                siftDown(0);
+            }
+        }
+
+        private void addAll(TopPairs other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.scores[i], other.keys[i]);
+            }
+        }
+
+        private List<RankedPair> ranked() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> worse(scores[a], keys[a], scores[b], keys[b]) ? 1
+                    : worse(scores[b], keys[b], scores[a], keys[a]) ? -1 : 0);
+
+            List<RankedPair> ranked = new ArrayList<>(size);
+            for (int i : order) {
+                int first = (int) (keys[i] >>> 32);
+                int second = (int) keys[i];
+                ranked.add(new RankedPair(sheep.get(first), sheep.get(second), first, second, scores[i]));
+            }
+            return ranked;
+        }
+
+        // a lower score, or an equal score with later ids
+        private static boolean worse(double score, long key, double otherScore, long otherKey) {
+            return score < otherScore || (score == otherScore && key > otherKey);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(scores[i], keys[i], scores[parent], keys[parent])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int worst = i;
+                for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                    if (worse(scores[child], keys[child], scores[worst], keys[worst])) {
+                        worst = child;
+                    }
+                }
+                if (worst == i) return;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+            long key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+        }
+    }
+}
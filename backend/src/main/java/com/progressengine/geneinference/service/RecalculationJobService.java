@@ -0,0 +1,242 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.exception.ResourceNotFoundException;
+import com.progressengine.geneinference.model.PreparedRecalculation;
+import com.progressengine.geneinference.model.PropagationResult;
+import com.progressengine.geneinference.model.RecalculationJob;
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.RecalculationJobStatus;
+import com.progressengine.geneinference.repository.InferredBeliefRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs full belief recalculations in the background. Loading the flock and saving the beliefs are
+ * short transactions of their own, so no request thread or database connection is held while
+ * messages are passed. A user has at most one job that is not finished, and submitting while one
+ * is returns that job instead of starting another, unless a cold start is asked of a warm job. A
+ * job whose flock changes before its results are saved, for example by a birth, runs again rather
+ * than overwrite newer beliefs.
+ */
+@Service
+public class RecalculationJobService {
+    // sheep and message rows written per transaction when saving a job's results
+    private static final int SAVE_BATCH_SIZE = 500;
+    // runs of one job, the first included, before it gives up on a flock that keeps changing
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final BreedingService breedingService;
+    private final InferredBeliefRepository inferredBeliefRepository;
+    private final MessageStoreService messageStoreService;
+    private final InferenceMetrics inferenceMetrics;
+    private final ExecutorService recalculationExecutor;
+    // the latest job of each user, kept after it finishes so its outcome can still be read
+    private final Map<UUID, RecalculationJob> jobsByUserId = new ConcurrentHashMap<>();
+
+    public RecalculationJobService(
+            BreedingService breedingService,
+            InferredBeliefRepository inferredBeliefRepository,
+            MessageStoreService messageStoreService,
+            InferenceMetrics inferenceMetrics,
+            @Qualifier("recalculationExecutor") ExecutorService recalculationExecutor
+    ) {
+        this.breedingService = breedingService;
+        this.inferredBeliefRepository = inferredBeliefRepository;
+        this.messageStoreService = messageStoreService;
+        this.inferenceMetrics = inferenceMetrics;
+        this.recalculationExecutor = recalculationExecutor;
+    }
+
+    /**
+     * Queues a recalculation of the user's beliefs, starting from their stored messages.
+     *
+     * @return the new job, or the user's job that is already queued or running
+     */
+    public RecalculationJob submit(UUID userId) {
+        return submit(userId, false);
+    }
+
+    /**
+     * Same as {@link #submit(UUID)}, from uniform messages instead of the stored ones if
+     * {@code coldStart} is set. A job that is already queued or running is returned as it is, except
+     * that a cold start replaces a warm job: the warm job is cancelled, or left to finish if it is
+     * already saving, and the cold one runs once it has.
+     */
+    public RecalculationJob submit(UUID userId, boolean coldStart) {
+        RecalculationJob[] created = new RecalculationJob[1];
+        RecalculationJob[] replaced = new RecalculationJob[1];
+        RecalculationJob job = jobsByUserId.compute(userId, (id, latest) -> {
+            if (latest != null && !latest.isFinished()) {
+                if (!coldStart || latest.isColdStart()) {
+                    return latest;
+                }
+                latest.cancel();
+                replaced[0] = latest;
+            }
+            created[0] = new RecalculationJob(UUID.randomUUID().toString(), userId, coldStart);
+            return created[0];
+        });
+
+        if (created[0] != null) {
+            try {
+                recalculationExecutor.execute(() -> runAfter(replaced[0], created[0]));
+            } catch (RejectedExecutionException e) {
+                created[0].failed("The recalculation could not be queued");
+                inferenceMetrics.recordRecalculationJob("failed");
+            }
+        }
+        return job;
+    }
+
+    /**
+     * @throws ResourceNotFoundException if the job is not the user's latest job
+     */
+    public RecalculationJob getJob(UUID userId, String jobId) {
+        RecalculationJob job = jobsByUserId.get(userId);
+        if (job == null || !job.getJobId().equals(jobId)) {
+            throw new ResourceNotFoundException("Recalculation job " + jobId + " not found");
+        }
+        return job;
+    }
+
+    /**
+     * Cancels the job if it has not started saving beliefs yet; see {@link RecalculationJob#cancel()}.
+     *
+     * @return the job, whose status shows whether it will stop
+     */
+    public RecalculationJob cancel(UUID userId, String jobId) {
+        RecalculationJob job = getJob(userId, jobId);
+        job.cancel();
+        return job;
+    }
+
+    // a job replacing another of the user waits for it, so the two never save at the same time;
+    // the replaced job is cancelled or saving, so the wait is short
+    private void runAfter(RecalculationJob replaced, RecalculationJob job) {
+        if (replaced != null) {
+            try {
+                replaced.awaitFinished();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                job.cancelled();
+                inferenceMetrics.recordRecalculationJob("cancelled");
+                return;
+            }
+        }
+        run(job);
+    }
+
+    void run(RecalculationJob job) {
+        try {
+            if (job.isCancelled()) {
+                inferenceMetrics.recordRecalculationJob("cancelled");
+                return;
+            }
+            for (int attempt = 1; ; attempt++) {
+                PreparedRecalculation prepared = breedingService.prepareRecalculation(job.getUserId(), job.isColdStart());
+                boolean current;
+                try {
+                    current = run(job, prepared, attempt > 1);
+                } finally {
+                    breedingService.releaseRecalculation(prepared);
+                }
+                if (current) {
+                    inferenceMetrics.recordRecalculationJob(job.getStatus() == RecalculationJobStatus.COMPLETED ? "completed" : "cancelled");
+                    return;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    abandon(job);
+                    return;
+                }
+            }
+        } catch (CancellationException e) {
+            job.cancelled();
+            inferenceMetrics.recordRecalculationJob("cancelled");
+        } catch (RuntimeException e) {
+            job.failed(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            inferenceMetrics.recordRecalculationJob("failed");
+        }
+    }
+
+    /**
+     * Gives up on a flock that kept changing. Batches of the last runs may have been saved before
+     * each change, leaving some beliefs from a run over an older flock; the stored messages are
+     * dropped, so the next birth or recalculation recomputes every belief instead of building on them.
+     */
+    private void abandon(RecalculationJob job) {
+        messageStoreService.discard(job.getUserId());
+        job.failed("The flock kept changing during the recalculation, so only some beliefs were updated; recalculate again to update the rest");
+        inferenceMetrics.recordRecalculationJob("abandoned");
+    }
+
+    /**
+     * @return {@code false} if the flock changed before the results were saved, so they may
+     * overwrite newer beliefs and messages from a birth and the job must run again
+     */
+    private boolean run(RecalculationJob job, PreparedRecalculation prepared, boolean restarted) {
+        int componentCount = prepared.graph().relationshipComponentCount();
+        if (restarted) {
+            job.restart(componentCount);
+        } else if (!job.start(componentCount)) {
+            return true;
+        }
+
+        PropagationResult propagation = breedingService.propagate(prepared, job);
+        List<Map<Category, Map<String, Double>>> beliefs = prepared.graph().inferBeliefs();
+        if (!job.startSaving(prepared.sheep().size())) {
+            job.cancelled();
+            return true;
+        }
+
+        boolean[] current = new boolean[1];
+        inferenceMetrics.timeBeliefPersistence(prepared.sheep().size(), () -> current[0] = save(job, prepared, beliefs));
+        if (!current[0]) {
+            return false;
+        }
+        job.complete(propagation);
+        return true;
+    }
+
+    /**
+     * Writes the results batch by batch, each batch committing only if the flock has not changed
+     * meanwhile, see {@link BreedingService#saveIfCurrent(PreparedRecalculation, Runnable)}.
+     *
+     * @return {@code false} if the flock changed, after which the rest is not written
+     */
+    private boolean save(RecalculationJob job, PreparedRecalculation prepared, List<Map<Category, Map<String, Double>>> beliefs) {
+        List<Sheep> sheep = prepared.graph().sheep();
+        for (int from = 0; from < sheep.size(); from += SAVE_BATCH_SIZE) {
+            int to = Math.min(from + SAVE_BATCH_SIZE, sheep.size());
+            List<Sheep> batch = sheep.subList(from, to);
+            List<Map<Category, Map<String, Double>>> batchBeliefs = beliefs.subList(from, to);
+            if (!saveIfCurrent(prepared, () -> inferredBeliefRepository.saveAll(batch, batchBeliefs))) {
+                return false;
+            }
+            job.sheepSaved(to - from);
+        }
+
+        // messages last: if saving stops part way, the stored messages still predate the new
+        // beliefs, and the next run propagates from them again
+        return messageStoreService.saveInBatches(prepared.userId(), prepared.previous(), prepared.graph().snapshot(),
+                SAVE_BATCH_SIZE, batch -> saveIfCurrent(prepared, batch));
+    }
+
+    // a batch that lost a deadlock or lock wait to another write of the flock counts as outdated
+    private boolean saveIfCurrent(PreparedRecalculation prepared, Runnable write) {
+        try {
+            return breedingService.saveIfCurrent(prepared, write);
+        } catch (ConcurrencyFailureException e) {
+            return false;
+        }
+    }
+}
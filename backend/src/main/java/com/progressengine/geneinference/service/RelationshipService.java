@@ -22,10 +22,12 @@ public class RelationshipService {
 
     private final RelationshipRepository relationshipRepository;
     private final BirthRecordRepository birthRecordRepository;
+    private final InferenceGraphCache inferenceGraphCache;
 
-    public RelationshipService(RelationshipRepository relationshipRepository, BirthRecordRepository birthRecordRepository) {
+    public RelationshipService(RelationshipRepository relationshipRepository, BirthRecordRepository birthRecordRepository, InferenceGraphCache inferenceGraphCache) {
         this.relationshipRepository = relationshipRepository;
         this.birthRecordRepository = birthRecordRepository;
+        this.inferenceGraphCache = inferenceGraphCache;
     }
 
     public Relationship findById(Integer id) {
@@ -41,7 +43,20 @@ public class RelationshipService {
      * @param relationship - relationship to save
      * @return the saved relationship
      */
-    public Relationship saveRelationship(Relationship relationship) { return relationshipRepository.save(relationship); }
+    public Relationship saveRelationship(Relationship relationship) {
+        invalidateCachedFlocks(List.of(relationship));
+        return relationshipRepository.save(relationship);
+    }
+
+    /**
+     * Saves the given relationships, and their birth records with them, in one batch.
+     *
+     * @param relationships - relationships to save
+     */
+    public void saveAll(List<Relationship> relationships) {
+        invalidateCachedFlocks(relationships);
+        relationshipRepository.saveAll(relationships);
+    }
 
     /**
      * Fetches all relationships in the database
@@ -192,6 +207,7 @@ public class RelationshipService {
     }
 
     public void deleteAll(Collection<Relationship> relationships) {
+        invalidateCachedFlocks(relationships);
         relationshipRepository.deleteAll(relationships);
     }
 
@@ -213,6 +229,16 @@ public class RelationshipService {
         }
 
         rel.removeBirthRecord(br);
+        inferenceGraphCache.invalidate(userId);
+    }
+
+    // relationships are owned by the user of their parents
+    private void invalidateCachedFlocks(Collection<Relationship> relationships) {
+        Set<UUID> userIds = new HashSet<>();
+        for (Relationship relationship : relationships) {
+            userIds.add(relationship.getParent1().getUserId());
+        }
+        userIds.forEach(inferenceGraphCache::invalidate);
     }
 
 
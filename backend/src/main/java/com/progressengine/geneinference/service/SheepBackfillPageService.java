@@ -10,9 +10,11 @@ import org.springframework.stereotype.Service;
 public class SheepBackfillPageService {
 
     private final SheepRepository sheepRepository;
+    private final InferenceGraphCache inferenceGraphCache;
 
-    public SheepBackfillPageService(SheepRepository sheepRepository) {
+    public SheepBackfillPageService(SheepRepository sheepRepository, InferenceGraphCache inferenceGraphCache) {
         this.sheepRepository = sheepRepository;
+        this.inferenceGraphCache = inferenceGraphCache;
     }
 
     @Transactional
@@ -35,6 +37,7 @@ public class SheepBackfillPageService {
         }
 
         if (!dryRun && changes > 0) {
+            inferenceGraphCache.invalidate(sheep.getUserId());
             System.out.println("Updated sheepId=" + sheepId + " changes=" + changes);
         }
 
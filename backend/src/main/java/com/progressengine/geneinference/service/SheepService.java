@@ -9,6 +9,7 @@ import com.progressengine.geneinference.model.Relationship;
 import com.progressengine.geneinference.model.Sheep;
 import com.progressengine.geneinference.model.enums.Allele;
 import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionStorage;
 import com.progressengine.geneinference.model.enums.DistributionType;
 import com.progressengine.geneinference.model.enums.Grade;
 import com.progressengine.geneinference.repository.SheepRepository;
@@ -17,6 +18,7 @@ import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 
 import com.progressengine.geneinference.service.AlleleDomains.GradeAlleleDomain;
 import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
@@ -27,6 +29,9 @@ public class SheepService {
 
     private final SheepRepository sheepRepository;
     private final RelationshipService relationshipService;
+    private final InferenceGraphCache inferenceGraphCache;
+    private final DistributionStorage distributionStorage;
+    private final InferenceMetrics inferenceMetrics;
 
     public static Map<Grade, Double> createUniformDistribution() {
         Map<Grade, Double> uniformDistribution = new EnumMap<>(Grade.class);
@@ -59,9 +64,18 @@ public class SheepService {
         return distribution;
     }
 
-    public SheepService(SheepRepository sheepRepository, RelationshipService relationshipService) {
+    public SheepService(
+            SheepRepository sheepRepository,
+            RelationshipService relationshipService,
+            InferenceGraphCache inferenceGraphCache,
+            @Value("${inference.distribution-storage:ROWS}") DistributionStorage distributionStorage,
+            InferenceMetrics inferenceMetrics
+    ) {
         this.sheepRepository = sheepRepository;
         this.relationshipService = relationshipService;
+        this.inferenceGraphCache = inferenceGraphCache;
+        this.distributionStorage = distributionStorage;
+        this.inferenceMetrics = inferenceMetrics;
     }
 
     public Sheep findById(Integer id) {
@@ -91,15 +105,41 @@ public class SheepService {
     }
 
     public Sheep saveSheep(Sheep sheep) {
+        inferenceGraphCache.invalidate(sheep.getUserId());
         return sheepRepository.save(sheep);
     }
 
     public void saveAll(List<Sheep> sheep) {
+        sheep.stream().map(Sheep::getUserId).distinct().forEach(inferenceGraphCache::invalidate);
         sheepRepository.saveAll(sheep);
     }
 
+    // writes pending changes before rows are written around the entities, e.g. by InferredBeliefRepository
+    public void flush() {
+        sheepRepository.flush();
+    }
+
+    /**
+     * Loads the user's flock with everything inference reads. With vector storage the distributions
+     * come from one packed row per category and type; sheep that have no vectors yet read their
+     * rows, which are then fetched on first use.
+     */
     public List<Sheep> getAllSheep(UUID userId) {
-        return sheepRepository.findAllForInference(userId);
+        if (distributionStorage == DistributionStorage.ROWS) {
+            return sheepRepository.findAllForInference(userId);
+        }
+
+        List<Sheep> sheep = sheepRepository.findAllForInferenceWithVectors(userId);
+        int fromRows = 0;
+        for (Sheep s : sheep) {
+            if (!s.readDistributionsFromVectors()) {
+                fromRows++;
+            }
+        }
+        if (fromRows > 0) {
+            inferenceMetrics.recordDistributionRowReads(fromRows);
+        }
+        return sheep;
     }
 
     public List<SheepSummaryResponseDTO> getAllSheepSummary() {
@@ -222,6 +262,7 @@ public class SheepService {
     public Sheep saveNewSheep(SheepNewRequestDTO sheepNewRequestDTO, UUID userId) {
         Sheep sheep = DomainMapper.fromRequestDTO(sheepNewRequestDTO);
         sheep.setUserId(userId);
+        inferenceGraphCache.invalidate(userId);
         return sheepRepository.save(sheep);
     }
 
@@ -246,6 +287,7 @@ public class SheepService {
             existing.setBirthRecord(null);
         }
 
+        inferenceGraphCache.invalidate(existing.getUserId());
         return sheepRepository.save(existing);
     }
 
@@ -271,6 +313,7 @@ public class SheepService {
     @Transactional
     public Sheep updateSheep(UUID userId, Integer sheepId, SheepUpdateRequestDTO updateSheepModel) {
         Sheep sheep = findByIdAndUserId(sheepId, userId);
+        inferenceGraphCache.invalidate(userId);
 
         if (updateSheepModel.getName() != null) {
             sheep.setName(updateSheepModel.getName());
@@ -408,5 +451,6 @@ public class SheepService {
         relationshipService.deleteAll(relationships);
 
         sheepRepository.deleteByIdAndUserId(sheep.getId(), userId);
+        inferenceGraphCache.invalidate(userId);
     }
 }
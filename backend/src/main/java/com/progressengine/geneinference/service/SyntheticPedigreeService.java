@@ -0,0 +1,213 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.*;
+import com.progressengine.geneinference.model.enums.Allele;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.AlleleDomains.AlleleDomain;
+import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
+import jakarta.transaction.Transactional;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Generates flocks of any size and shape for load tests, benchmarks and accuracy checks. Children
+ * are bred with {@link BreedingService#breedNewSheep(Sheep, Sheep, Random)}, so every sheep keeps
+ * its true hidden alleles while its priors come from the phenotype only, as for a real sheep.
+ */
+@Service
+public class SyntheticPedigreeService {
+    private final SheepService sheepService;
+    private final RelationshipService relationshipService;
+
+    public SyntheticPedigreeService(SheepService sheepService, RelationshipService relationshipService) {
+        this.sheepService = sheepService;
+        this.relationshipService = relationshipService;
+    }
+
+    /**
+     * Breeds a flock in memory. The sheep and relationships have no ids, so they can be given to
+     * {@link #persist(UUID, SyntheticPedigree)}; call {@link #assignIds(SyntheticPedigree)} instead
+     * to use them without a database.
+     *
+     * @param spec the shape of the flock; the same spec always produces the same flock
+     * @return the sheep in creation order and their relationships
+     */
+    public static SyntheticPedigree generate(PedigreeSpec spec) {
+        Random random = new Random(spec.seed());
+        List<Sheep> sheep = new ArrayList<>();
+        List<Relationship> relationships = new ArrayList<>();
+        Map<Sheep, Integer> creationOrder = new IdentityHashMap<>();
+        Map<Long, Relationship> relationshipsByPair = new HashMap<>();
+
+        List<Sheep> generation = new ArrayList<>();
+        for (int i = 0; i < spec.founders() && !isFull(spec, sheep); i++) {
+            Sheep founder = founder("F-" + (i + 1), random);
+            creationOrder.put(founder, sheep.size());
+            sheep.add(founder);
+            generation.add(founder);
+        }
+
+        for (int g = 1; g <= spec.generations() && !isFull(spec, sheep); g++) {
+            List<Sheep[]> pairs = pairGeneration(spec, generation, random);
+            if (pairs.isEmpty()) {
+                break;
+            }
+
+            List<Sheep> nextGeneration = new ArrayList<>();
+            for (Sheep[] pair : pairs) {
+                Sheep parent1 = creationOrder.get(pair[0]) < creationOrder.get(pair[1]) ? pair[0] : pair[1];
+                Sheep parent2 = parent1 == pair[0] ? pair[1] : pair[0];
+                long key = (long) creationOrder.get(parent1) << 32 | creationOrder.get(parent2);
+                Relationship relationship = relationshipsByPair.computeIfAbsent(key, k -> {
+                    Relationship created = new Relationship(parent1, parent2);
+                    relationships.add(created);
+                    return created;
+                });
+
+                for (int i = 0; i < spec.litterSize() && !isFull(spec, sheep); i++) {
+                    Sheep child = BreedingService.breedNewSheep(parent1, parent2, random);
+                    child.setName("G" + g + "-" + (nextGeneration.size() + 1));
+                    relationship.addChildToRelationship(child);
+                    creationOrder.put(child, sheep.size());
+                    sheep.add(child);
+                    nextGeneration.add(child);
+                }
+            }
+            generation = nextGeneration;
+        }
+
+        return new SyntheticPedigree(sheep, relationships);
+    }
+
+    /**
+     * Numbers the sheep and relationships in creation order from 1, as the database would, so the
+     * flock can be used in memory. A numbered flock can no longer be persisted.
+     */
+    public static SyntheticPedigree assignIds(SyntheticPedigree pedigree) {
+        for (int i = 0; i < pedigree.sheep().size(); i++) {
+            pedigree.sheep().get(i).setId(i + 1);
+        }
+        for (int i = 0; i < pedigree.relationships().size(); i++) {
+            pedigree.relationships().get(i).setId(i + 1);
+        }
+        return pedigree;
+    }
+
+    /**
+     * Saves a generated flock for the given user. Sheep are saved in creation order, so every
+     * relationship's first parent gets the lower id, and birth records are saved with their
+     * relationships.
+     */
+    @Transactional
+    public void persist(UUID userId, SyntheticPedigree pedigree) {
+        for (Sheep sheep : pedigree.sheep()) {
+            sheep.setUserId(userId);
+        }
+        sheepService.saveAll(pedigree.sheep());
+        relationshipService.saveAll(pedigree.relationships());
+    }
+
+    private static boolean isFull(PedigreeSpec spec, List<Sheep> sheep) {
+        return spec.maxSheep() > 0 && sheep.size() >= spec.maxSheep();
+    }
+
+    /**
+     * Gives each sheep of the generation up to {@link PedigreeSpec#partnersPerSheep()} partners.
+     * A relative (a sibling of the same generation or a parent) is picked with the inbreeding rate,
+     * otherwise a sheep from another litter; founders have no relatives and always outbreed.
+     */
+    private static List<Sheep[]> pairGeneration(PedigreeSpec spec, List<Sheep> generation, Random random) {
+        List<Sheep> shuffled = new ArrayList<>(generation);
+        Collections.shuffle(shuffled, random);
+        Map<Sheep, Integer> partnerCounts = new IdentityHashMap<>();
+        Map<Sheep, Set<Sheep>> partners = new IdentityHashMap<>();
+        List<Sheep[]> pairs = new ArrayList<>();
+
+        for (Sheep sheep : shuffled) {
+            while (partnerCounts.getOrDefault(sheep, 0) < spec.partnersPerSheep()) {
+                Sheep partner = random.nextDouble() < spec.inbreedingRate()
+                        ? relative(spec, sheep, partnerCounts, partners, random)
+                        : null;
+                if (partner == null) {
+                    partner = unrelated(spec, sheep, shuffled, partnerCounts, partners, random);
+                }
+                if (partner == null) {
+                    break;
+                }
+
+                pairs.add(new Sheep[]{sheep, partner});
+                partnerCounts.merge(sheep, 1, Integer::sum);
+                partnerCounts.merge(partner, 1, Integer::sum);
+                partners.computeIfAbsent(sheep, s -> Collections.newSetFromMap(new IdentityHashMap<>())).add(partner);
+                partners.computeIfAbsent(partner, s -> Collections.newSetFromMap(new IdentityHashMap<>())).add(sheep);
+            }
+        }
+        return pairs;
+    }
+
+    private static Sheep relative(PedigreeSpec spec, Sheep sheep, Map<Sheep, Integer> partnerCounts, Map<Sheep, Set<Sheep>> partners, Random random) {
+        BirthRecord birthRecord = sheep.getBirthRecord();
+        if (birthRecord == null) {
+            return null;
+        }
+
+        Relationship parents = birthRecord.getParentRelationship();
+        List<Sheep> candidates = new ArrayList<>();
+        candidates.add(parents.getParent1());
+        candidates.add(parents.getParent2());
+        for (BirthRecord sibling : parents.getBirthRecords()) {
+            Sheep child = sibling.getChild();
+            // a pair only breeds in one generation, so its other children are in this one
+            if (child != null && child != sheep
+                    && partnerCounts.getOrDefault(child, 0) < spec.partnersPerSheep()) {
+                candidates.add(child);
+            }
+        }
+        candidates.removeIf(candidate -> partners.getOrDefault(sheep, Set.of()).contains(candidate));
+
+        return candidates.isEmpty() ? null : candidates.get(random.nextInt(candidates.size()));
+    }
+
+    private static Sheep unrelated(PedigreeSpec spec, Sheep sheep, List<Sheep> generation, Map<Sheep, Integer> partnerCounts,
+                                   Map<Sheep, Set<Sheep>> partners, Random random) {
+        // scans from a random sheep, so partners are random while the generation is mostly free
+        int start = random.nextInt(generation.size());
+        for (int i = 0; i < generation.size(); i++) {
+            Sheep candidate = generation.get((start + i) % generation.size());
+            if (candidate != sheep
+                    && partnerCounts.getOrDefault(candidate, 0) < spec.partnersPerSheep()
+                    && !partners.getOrDefault(sheep, Set.of()).contains(candidate)
+                    && !areSiblings(sheep, candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean areSiblings(Sheep sheep, Sheep other) {
+        return sheep.getBirthRecord() != null && other.getBirthRecord() != null
+                && sheep.getBirthRecord().getParentRelationship() == other.getBirthRecord().getParentRelationship();
+    }
+
+    private static Sheep founder(String name, Random random) {
+        Sheep sheep = new Sheep();
+        sheep.setName(name);
+        for (Category category : Category.values()) {
+            setRandomGenotype(sheep, category, random);
+        }
+        sheep.createDefaultDistributions();
+        sheep.syncPriorsFromObservedPhenotypes();
+        sheep.copyAllPriorsToInferred();
+        return sheep;
+    }
+
+    // draws the hidden allele among those the phenotype allows, so that every founder is valid
+    private static <A extends Enum<A> & Allele> void setRandomGenotype(Sheep sheep, Category category, Random random) {
+        AlleleDomain<A> domain = CategoryDomains.typedDomainFor(category);
+        List<A> alleles = domain.getAlleles();
+        A phenotype = alleles.get(random.nextInt(alleles.size()));
+        List<A> hiddenAlleles = new ArrayList<>(domain.possibleHiddenAllelesForPhenotype(phenotype));
+        sheep.setGenotype(category, new AllelePair<>(phenotype, hiddenAlleles.get(random.nextInt(hiddenAlleles.size()))));
+    }
+}
@@ -104,7 +104,7 @@ class BreedingServiceIntegrationTest {
 
         assertDoesNotThrow(() -> {
             List<Map<Category, Map<String, Double>>> beliefs =
-                    breedingService.recalculateAll(TEST_USER_ID);
+                    breedingService.recalculateAll(TEST_USER_ID).beliefs();
 
             assertNotNull(beliefs);
             assertFalse(beliefs.isEmpty());
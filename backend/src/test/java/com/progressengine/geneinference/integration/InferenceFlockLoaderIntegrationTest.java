@@ -0,0 +1,103 @@
+package com.progressengine.geneinference.integration;
+
+import com.progressengine.geneinference.model.BirthRecord;
+import com.progressengine.geneinference.model.CompiledFactorGraph;
+import com.progressengine.geneinference.model.FactorGraph;
+import com.progressengine.geneinference.model.InferenceFlock;
+import com.progressengine.geneinference.model.Relationship;
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.repository.InferenceFlockLoader;
+import com.progressengine.geneinference.repository.RelationshipRepository;
+import com.progressengine.geneinference.repository.SheepRepository;
+import com.progressengine.geneinference.testutil.DomainFixtures;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Transactional
+class InferenceFlockLoaderIntegrationTest {
+
+    private final InferenceFlockLoader inferenceFlockLoader;
+    private final SheepRepository sheepRepository;
+    private final RelationshipRepository relationshipRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final UUID TEST_USER_ID =
+            UUID.fromString("11111111-1111-1111-1111-111111111111");
+
+    @Autowired
+    InferenceFlockLoaderIntegrationTest(
+            InferenceFlockLoader inferenceFlockLoader,
+            SheepRepository sheepRepository,
+            RelationshipRepository relationshipRepository,
+            JdbcTemplate jdbcTemplate
+    ) {
+        this.inferenceFlockLoader = inferenceFlockLoader;
+        this.sheepRepository = sheepRepository;
+        this.relationshipRepository = relationshipRepository;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @BeforeEach
+    void setUpUser() {
+        jdbcTemplate.update("""
+            insert into auth.users (id)
+            values (?)
+            on conflict (id) do nothing
+            """, TEST_USER_ID);
+
+        jdbcTemplate.update("""
+            insert into profiles (id)
+            values (?)
+            on conflict (id) do nothing
+            """, TEST_USER_ID);
+    }
+
+    @Test
+    void load_buildsSameGraphAsEntities() {
+        // Arrange
+        Sheep parent1 = sheepRepository.save(DomainFixtures.createTestSheep(TEST_USER_ID, Map.of(Category.SWIM, Grade.A.code())));
+        Sheep parent2 = sheepRepository.save(DomainFixtures.createTestSheep(TEST_USER_ID, Map.of(Category.SWIM, Grade.C.code())));
+        Sheep child = sheepRepository.save(DomainFixtures.createTestSheep(TEST_USER_ID, Map.of(Category.SWIM, Grade.A.code())));
+
+        Relationship relationship = new Relationship(parent1, parent2);
+        relationship.addBirthRecord(BirthRecord.create(relationship, child.getGenotypes(), child));
+        relationship.addBirthRecord(BirthRecord.create(relationship, parent2.getGenotypes(), null));
+        relationshipRepository.saveAndFlush(relationship);
+
+        CompiledFactorGraph fromEntities = new FactorGraph(List.of(parent1, parent2, child), List.of(relationship)).compile();
+        fromEntities.recalculateAllMessages();
+
+        // Act
+        InferenceFlock flock = inferenceFlockLoader.load(TEST_USER_ID);
+        CompiledFactorGraph fromRows = new FactorGraph(flock.sheep(), flock.relationships()).compile();
+        fromRows.recalculateAllMessages();
+
+        // Assert
+        assertEquals(List.of(parent1.getId(), parent2.getId(), child.getId()),
+                flock.sheep().stream().map(Sheep::getId).toList());
+        assertEquals(1, flock.relationships().size());
+        assertEquals(2, flock.relationships().get(0).getBirthRecords().size());
+        assertSame(flock.relationships().get(0), flock.sheep().get(2).getParentRelationship());
+        for (Sheep sheep : List.of(parent1, parent2, child)) {
+            Map<Category, Map<String, Double>> expected = fromEntities.computeBeliefForSheep(sheep);
+            Sheep loaded = flock.sheep().stream().filter(s -> s.getId().equals(sheep.getId())).findFirst().orElseThrow();
+            assertEquals(sheep.getDistribution(Category.SWIM, DistributionType.PRIOR),
+                    loaded.getDistribution(Category.SWIM, DistributionType.PRIOR));
+            assertEquals(expected, fromRows.computeBeliefForSheep(loaded));
+        }
+    }
+}
@@ -0,0 +1,606 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.MessageSchedule;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.service.DemoGraphService;
+import com.progressengine.geneinference.service.SyntheticPedigreeService;
+import com.progressengine.geneinference.testutil.DomainFixtures;
+import com.progressengine.geneinference.testutil.ProbabilityAssertions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledFactorGraphTest {
+    // one pool for every parallel run of the class, shut down once they are done
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    static void shutDownPool() {
+        POOL.shutdownNow();
+    }
+
+    private CompiledFactorGraph compileDemoGraph() {
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        return new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+    }
+
+    @Test
+    void compile_demoGraph_assignsDenseIds() {
+        // Act
+        CompiledFactorGraph graph = compileDemoGraph();
+
+        // Assert
+        assertEquals(10, graph.sheepCount(), "Every sheep should get a node id");
+        assertEquals(16, graph.nodeCount(), "Relationships should follow the sheep ids");
+        // 6 relationships x 2 parents + 6 children, one message in each direction
+        assertEquals(36, graph.edgeCount(), "Every adjacency should be one directed edge");
+    }
+
+    @Test
+    void recalculateAllMessages_fifo_producesValidBeliefs() {
+        // Arrange
+        CompiledFactorGraph graph = compileDemoGraph();
+
+        // Act
+        PropagationResult result = graph.recalculateAllMessages(MessageSchedule.FIFO);
+        List<Map<Category, Map<String, Double>>> beliefs = graph.computeBeliefs();
+
+        // Assert
+        assertTrue(result.updates() > 0, "Messages should move away from uniform");
+        assertTrue(result.computations() >= result.updates(), "Every update is a computation");
+        for (Map<Category, Map<String, Double>> belief : beliefs) {
+            for (Category category : Category.values()) {
+                ProbabilityAssertions.assertValidDistribution(belief.get(category));
+            }
+        }
+    }
+
+    @Test
+    void recalculateAllMessages_residual_needsNoMoreComputationsThanFifo() {
+        // Arrange
+        CompiledFactorGraph fifoGraph = compileDemoGraph();
+        CompiledFactorGraph residualGraph = compileDemoGraph();
+
+        // Act
+        PropagationResult fifo = fifoGraph.recalculateAllMessages(MessageSchedule.FIFO);
+        PropagationResult residual = residualGraph.recalculateAllMessages(MessageSchedule.RESIDUAL);
+        List<Map<Category, Map<String, Double>>> fifoBeliefs = fifoGraph.computeBeliefs();
+        List<Map<Category, Map<String, Double>>> residualBeliefs = residualGraph.computeBeliefs();
+
+        // Assert
+        assertTrue(residual.computations() <= fifo.computations(),
+                "Residual schedule computed " + residual.computations() + " messages, FIFO computed " + fifo.computations());
+        for (int i = 0; i < fifoBeliefs.size(); i++) {
+            for (Category category : Category.values()) {
+                Map<String, Double> expected = fifoBeliefs.get(i).get(category);
+                Map<String, Double> actual = residualBeliefs.get(i).get(category);
+                for (Map.Entry<String, Double> entry : expected.entrySet()) {
+                    assertEquals(entry.getValue(), actual.get(entry.getKey()), 0.05,
+                            "Schedules should agree on " + category + " " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    @Test
+    void recalculateAllMessages_repeatedBackcross_reportsConvergence() {
+        // Arrange
+        Sheep recurrentParent = DomainFixtures.createTestSheep(Map.of(), 100);
+        Sheep previous = DomainFixtures.createTestSheep(Map.of(), 101);
+        List<Sheep> sheep = new ArrayList<>(List.of(recurrentParent, previous));
+        List<Relationship> relationships = new ArrayList<>();
+        for (int generation = 0; generation < 4; generation++) {
+            Relationship backcross = DomainFixtures.createEmptyRelationship(recurrentParent, previous);
+            for (int i = 0; i < 2; i++) {
+                Sheep child = DomainFixtures.createTestSheep(inheritedPhenotypes(i == 0 ? previous : recurrentParent), 102 + 2 * generation + i);
+                backcross.addChildToRelationship(child);
+                sheep.add(child);
+                previous = child;
+            }
+            relationships.add(backcross);
+        }
+        CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+
+        // Act
+        PropagationResult result = graph.recalculateAllMessages(MessageSchedule.FIFO);
+
+        // Assert
+        ComponentPropagation component = result.components().get(0);
+        assertFalse(component.exact(), "Every backcross shares the recurrent parent, so the line has cycles");
+        assertEquals(result.converged(), component.converged());
+        assertTrue(result.converged(), "Damping should settle the line within the iteration cap");
+        for (Sheep member : sheep) {
+            graph.computeBeliefForSheep(member).values().forEach(ProbabilityAssertions::assertValidDistribution);
+        }
+    }
+
+    @Test
+    void recalculateAllMessages_parallel_matchesSerialFifo() {
+        // Arrange
+        CompiledFactorGraph serialGraph = compileDemoGraph();
+        CompiledFactorGraph parallelGraph = compileDemoGraph();
+
+        // Act
+        PropagationResult serial = serialGraph.recalculateAllMessages(MessageSchedule.FIFO);
+        PropagationResult parallel = parallelGraph.recalculateAllMessages(MessageSchedule.FIFO, POOL);
+
+        // Assert
+        // categories never read each other, so each worker sees the serial order of its own tasks
+        assertEquals(serial.computations(), parallel.computations());
+        assertEquals(serial.updates(), parallel.updates());
+        assertEquals(serialGraph.computeBeliefs(), parallelGraph.computeBeliefs());
+    }
+
+    @Test
+    void recalculateAllMessages_separateLines_propagatesPerComponent() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        Sheep founder = DomainFixtures.createTestSheep(Map.of(), 100);
+        Sheep otherParent1 = DomainFixtures.createTestSheep(Map.of(), 101);
+        Sheep otherParent2 = DomainFixtures.createTestSheep(Map.of(), 102);
+        Relationship otherLine = DomainFixtures.createEmptyRelationship(otherParent1, otherParent2);
+
+        List<Sheep> sheep = new ArrayList<>(demoGraph.sheep());
+        sheep.addAll(List.of(founder, otherParent1, otherParent2));
+        List<Relationship> relationships = new ArrayList<>(demoGraph.relationships());
+        relationships.add(otherLine);
+
+        CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+
+        // Act
+        PropagationResult result = graph.recalculateAllMessages(MessageSchedule.FIFO);
+        Map<Category, Map<String, Double>> founderBelief = graph.computeBeliefForSheep(founder);
+
+        // Assert
+        assertEquals(3, graph.componentCount(), "Demo flock, the other line and the lone founder");
+        assertEquals(graph.componentOf(otherParent1), graph.componentOf(otherParent2));
+        assertNotEquals(graph.componentOf(founder), graph.componentOf(otherParent1));
+
+        assertEquals(2, result.components().size(), "The lone founder has no messages to pass");
+        ComponentPropagation demoComponent = result.components().get(0);
+        assertEquals(10, demoComponent.sheepCount());
+        assertEquals(6, demoComponent.relationshipCount());
+        ComponentPropagation otherComponent = result.components().get(1);
+        assertEquals(2, otherComponent.sheepCount());
+        assertEquals(1, otherComponent.relationshipCount());
+        assertEquals(result.computations(), demoComponent.computations() + otherComponent.computations());
+        assertFalse(demoComponent.exact(), "The demo flock has cycles");
+        assertTrue(otherComponent.exact(), "A single pairing is a tree");
+
+        assertEquals(founder.getAllDistributionsByType(DistributionType.PRIOR), founderBelief,
+                "A sheep without relationships keeps its prior");
+    }
+
+    @Test
+    void recalculateAllMessages_treeComponent_computesEachMessageOnce() {
+        // Arrange
+        Sheep grandparent1 = DomainFixtures.createTestSheep(Map.of(), 100);
+        Sheep grandparent2 = DomainFixtures.createTestSheep(Map.of(), 101);
+        Sheep outsider = DomainFixtures.createTestSheep(Map.of(), 102);
+        Relationship firstPairing = DomainFixtures.createEmptyRelationship(grandparent1, grandparent2);
+        Sheep parent = DomainFixtures.createTestSheep(inheritedPhenotypes(grandparent1), 103);
+        firstPairing.addChildToRelationship(parent);
+        Relationship secondPairing = DomainFixtures.createEmptyRelationship(parent, outsider);
+        Sheep child = DomainFixtures.createTestSheep(inheritedPhenotypes(outsider), 104);
+        secondPairing.addChildToRelationship(child);
+
+        List<Sheep> sheep = List.of(grandparent1, grandparent2, outsider, parent, child);
+        List<Relationship> relationships = List.of(firstPairing, secondPairing);
+        CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+        FactorGraph legacy = new FactorGraph(sheep, relationships);
+
+        // Act
+        PropagationResult result = graph.recalculateAllMessages(MessageSchedule.RESIDUAL);
+        legacy.recalculateAllMessages();
+
+        // Assert
+        assertEquals(1, result.components().size());
+        assertTrue(result.components().get(0).exact());
+        int directedEdges = 2 * (sheep.size() + relationships.size() - 1);
+        assertEquals(directedEdges * Category.values().length, result.computations(),
+                "Every message is computed exactly once");
+        for (Sheep member : sheep) {
+            Map<Category, Map<String, Double>> expected = legacy.computeBeliefForSheep(member);
+            Map<Category, Map<String, Double>> actual = graph.computeBeliefForSheep(member);
+            for (Category category : Category.values()) {
+                for (Map.Entry<String, Double> entry : expected.get(category).entrySet()) {
+                    assertEquals(entry.getValue(), actual.get(category).get(entry.getKey()), 1e-2,
+                            "Exact and loopy beliefs should agree on " + category + " " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    @Test
+    void recalculateAllMessages_prolificRelationship_matchesMessagesComputedOneByOne() {
+        // Arrange
+        Sheep ram = DomainFixtures.createTestSheep(Map.of(
+                Category.SWIM, Grade.B.code(),
+                Category.FLY, Grade.C.code(),
+                Category.RUN, Grade.D.code()
+        ), 100);
+        Sheep ewe = DomainFixtures.createTestSheep(Map.of(
+                Category.SWIM, Grade.A.code(),
+                Category.FLY, Grade.C.code(),
+                Category.RUN, Grade.S.code()
+        ), 101);
+        Relationship pairing = DomainFixtures.createEmptyRelationship(ram, ewe);
+        List<Sheep> sheep = new ArrayList<>(List.of(ram, ewe));
+        List<Relationship> relationships = new ArrayList<>(List.of(pairing));
+        for (int i = 0; i < 12; i++) {
+            Sheep lamb = DomainFixtures.createTestSheep(inheritedPhenotypes(i % 3 == 0 ? ewe : ram), 200 + i);
+            pairing.addChildToRelationship(lamb);
+
+            // the lamb's own offspring make its message to the pairing differ from its siblings'
+            Sheep mate = DomainFixtures.createTestSheep(inheritedPhenotypes(i % 2 == 0 ? ewe : ram), 300 + i);
+            Relationship lambPairing = DomainFixtures.createEmptyRelationship(lamb, mate);
+            Sheep grandchild = DomainFixtures.createTestSheep(inheritedPhenotypes(mate), 400 + i);
+            lambPairing.addChildToRelationship(grandchild);
+
+            sheep.addAll(List.of(lamb, mate, grandchild));
+            relationships.add(lambPairing);
+        }
+        CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+
+        // Act
+        graph.recalculateAllMessages(MessageSchedule.FIFO);
+
+        // Assert
+        assertMessagesMatchOneByOne(graph);
+    }
+
+    @Test
+    void recalculateAllMessages_studRam_matchesMessagesComputedOneByOne() {
+        // Arrange
+        Sheep ram = DomainFixtures.createTestSheep(Map.of(
+                Category.SWIM, Grade.B.code(),
+                Category.FLY, Grade.C.code(),
+                Category.RUN, Grade.D.code()
+        ), 100);
+        List<Sheep> sheep = new ArrayList<>(List.of(ram));
+        List<Relationship> relationships = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Sheep ewe = DomainFixtures.createTestSheep(Map.of(
+                    Category.SWIM, (i % 2 == 0 ? Grade.A : Grade.C).code(),
+                    Category.RUN, (i % 3 == 0 ? Grade.S : Grade.D).code()
+            ), 200 + i);
+            Relationship pairing = DomainFixtures.createEmptyRelationship(ram, ewe);
+            Sheep lamb = DomainFixtures.createTestSheep(inheritedPhenotypes(i % 2 == 0 ? ewe : ram), 300 + i);
+            pairing.addChildToRelationship(lamb);
+
+            sheep.addAll(List.of(ewe, lamb));
+            relationships.add(pairing);
+        }
+        CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+
+        // Act
+        graph.recalculateAllMessages(MessageSchedule.FIFO);
+
+        // Assert
+        assertMessagesMatchOneByOne(graph);
+    }
+
+    @Test
+    void recalculateAllMessages_fiftyLambsInLoopyLine_buildsPairingProductOncePerCategory() {
+        // Arrange
+        Sheep ram = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.B.code(), Category.RUN, Grade.D.code()), 100);
+        Sheep ewe = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.A.code(), Category.RUN, Grade.S.code()), 101);
+        Sheep mate = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.C.code(), Category.RUN, Grade.A.code()), 102);
+        Relationship pairing = DomainFixtures.createEmptyRelationship(ram, ewe);
+        List<Sheep> sheep = new ArrayList<>(List.of(ram, ewe, mate));
+        List<Relationship> relationships = new ArrayList<>(List.of(pairing));
+        for (int i = 0; i < 50; i++) {
+            Sheep lamb = DomainFixtures.createTestSheep(inheritedPhenotypes(i % 3 == 0 ? ewe : ram), 200 + i);
+            pairing.addChildToRelationship(lamb);
+
+            // every lamb bred to the same mate, so messages into the pairing keep changing between its own
+            Relationship lambPairing = DomainFixtures.createEmptyRelationship(lamb, mate);
+            Sheep grandchild = DomainFixtures.createTestSheep(inheritedPhenotypes(i % 2 == 0 ? mate : lamb), 300 + i);
+            lambPairing.addChildToRelationship(grandchild);
+
+            sheep.addAll(List.of(lamb, grandchild));
+            relationships.add(lambPairing);
+        }
+
+        for (MessageSchedule schedule : MessageSchedule.values()) {
+            CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+
+            // Act
+            PropagationResult result = graph.recalculateAllMessages(schedule);
+
+            // Assert
+            assertFalse(result.components().get(0).exact());
+            assertTrue(result.converged());
+            assertEquals(Category.values().length, graph.productLoads(pairing),
+                    schedule + " should build the pairing's product once per category and keep it up to date");
+            assertMessagesFromMatchOneByOne(graph, pairing, schedule);
+        }
+    }
+
+    @Test
+    void recalculateAllMessages_studRamInLoopyFlock_buildsRamProductOncePerCategory() {
+        // Arrange
+        Sheep ram = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.B.code(), Category.RUN, Grade.D.code()), 100);
+        Sheep teaser = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.C.code(), Category.RUN, Grade.A.code()), 101);
+        List<Sheep> sheep = new ArrayList<>(List.of(ram, teaser));
+        List<Relationship> relationships = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            Sheep ewe = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.values()[i % 5].code(), Category.RUN, Grade.A.code()), 200 + i);
+            Relationship pairing = DomainFixtures.createEmptyRelationship(ram, ewe);
+            Sheep lamb = DomainFixtures.createTestSheep(inheritedPhenotypes(i % 2 == 0 ? ram : ewe), 300 + i);
+            pairing.addChildToRelationship(lamb);
+
+            // every ewe also bred to the teaser, so messages into the ram keep changing between its own
+            Relationship teaserPairing = DomainFixtures.createEmptyRelationship(teaser, ewe);
+            Sheep teaserLamb = DomainFixtures.createTestSheep(inheritedPhenotypes(ewe), 400 + i);
+            teaserPairing.addChildToRelationship(teaserLamb);
+
+            sheep.addAll(List.of(ewe, lamb, teaserLamb));
+            relationships.addAll(List.of(pairing, teaserPairing));
+        }
+
+        for (MessageSchedule schedule : MessageSchedule.values()) {
+            CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+
+            // Act
+            PropagationResult result = graph.recalculateAllMessages(schedule);
+
+            // Assert
+            assertFalse(result.components().get(0).exact());
+            assertTrue(result.converged());
+            assertEquals(Category.values().length, graph.productLoads(ram),
+                    schedule + " should build the ram's product once per category and keep it up to date");
+            assertMessagesFromMatchOneByOne(graph, ram, schedule);
+        }
+    }
+
+    // on a tree every stored message is final, so computing it again from its operands gives it back
+    private static void assertMessagesMatchOneByOne(CompiledFactorGraph graph) {
+        for (int edge = 0; edge < graph.edgeCount(); edge++) {
+            Message message = graph.message(edge);
+            for (Category category : Category.values()) {
+                Map<? extends Enum<?>, Double> expected = graph.computeMessageForCategory(edge, category);
+                Map<? extends Enum<?>, Double> actual = message.getDistributionByCategory(category);
+                for (Map.Entry<? extends Enum<?>, Double> entry : expected.entrySet()) {
+                    assertEquals(entry.getValue(), actual.get(entry.getKey()), 1e-9,
+                            "Edge " + edge + " " + category + " " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    // on a loopy graph a converged message only matches its recomputation to within the convergence bound
+    private static void assertMessagesFromMatchOneByOne(CompiledFactorGraph graph, Object source, MessageSchedule schedule) {
+        for (int edge = 0; edge < graph.edgeCount(); edge++) {
+            Message message = graph.message(edge);
+            if (message.getSource().getValue() != source) continue;
+            for (Category category : Category.values()) {
+                Map<? extends Enum<?>, Double> expected = graph.computeMessageForCategory(edge, category);
+                Map<? extends Enum<?>, Double> actual = message.getDistributionByCategory(category);
+                for (Map.Entry<? extends Enum<?>, Double> entry : expected.entrySet()) {
+                    assertEquals(entry.getValue(), actual.get(entry.getKey()), FactorGraph.CONVERGENCE_EPSILON,
+                            schedule + " edge " + edge + " " + category + " " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    @Test
+    void recalculateAllMessages_monitor_receivesEveryUpdateAndComponent() {
+        // Arrange
+        CompiledFactorGraph graph = compileDemoGraph();
+        AtomicInteger updates = new AtomicInteger();
+        AtomicInteger components = new AtomicInteger();
+        PropagationMonitor monitor = new PropagationMonitor() {
+            @Override
+            public void progressed(int count, double residual) {
+                updates.addAndGet(count);
+            }
+
+            @Override
+            public void componentSolved(ComponentPropagation component) {
+                components.incrementAndGet();
+            }
+        };
+
+        // Act
+        PropagationResult result = graph.recalculateAllMessages(MessageSchedule.FIFO, POOL, monitor);
+
+        // Assert
+        assertEquals(result.updates(), updates.get(), "Every worker should report all of its updates by the time it finishes");
+        assertEquals(result.components().size(), components.get());
+    }
+
+    @Test
+    void recalculateAllMessages_cancelledMonitor_stopsTheRun() {
+        // Arrange
+        CompiledFactorGraph graph = compileDemoGraph();
+        PropagationMonitor cancelled = new PropagationMonitor() {
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        };
+
+        // Act & Assert
+        assertThrows(CancellationException.class,
+                () -> graph.recalculateAllMessages(MessageSchedule.FIFO, POOL, cancelled));
+    }
+
+    @Test
+    void recalculateAllMessages_cancelledMidRun_returnsOnlyOnceEveryWorkerStopped() throws InterruptedException {
+        // Arrange: the demo flock comes first, so its small components are joined first and their
+        // workers are the first to see the cancellation, while the large flock's are mid-run
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        SyntheticPedigree pedigree = SyntheticPedigreeService.generate(new PedigreeSpec(200, 4, 2, 2, 0.3, 2000, 9));
+        List<Sheep> sheep = new ArrayList<>(demoGraph.sheep());
+        sheep.addAll(pedigree.sheep());
+        List<Relationship> relationships = new ArrayList<>(demoGraph.relationships());
+        relationships.addAll(pedigree.relationships());
+        CompiledFactorGraph graph = new FactorGraph(sheep, relationships).compile();
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicBoolean returned = new AtomicBoolean();
+        AtomicInteger callsAfterReturn = new AtomicInteger();
+        PropagationMonitor monitor = new PropagationMonitor() {
+            @Override
+            public void progressed(int updates, double residual) {
+                cancelled.set(true);
+                countAfterReturn();
+            }
+
+            @Override
+            public boolean isCancelled() {
+                countAfterReturn();
+                return cancelled.get();
+            }
+
+            private void countAfterReturn() {
+                if (returned.get()) {
+                    callsAfterReturn.incrementAndGet();
+                }
+            }
+        };
+        // a thread per worker, so every worker is running before the first one stops
+        ForkJoinPool pool = new ForkJoinPool(Category.values().length * graph.componentCount());
+
+        try {
+            // Act
+            assertThrows(CancellationException.class,
+                    () -> graph.recalculateAllMessages(MessageSchedule.FIFO, pool, monitor));
+            returned.set(true);
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+
+            // Assert
+            assertEquals(0, callsAfterReturn.get(), "No worker should still be running once the run has thrown");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Map<Category, String> inheritedPhenotypes(Sheep parent) {
+        Map<Category, String> phenotypes = new EnumMap<>(Category.class);
+        for (Category category : Category.values()) {
+            phenotypes.put(category, parent.getPhenotype(category).code());
+        }
+        return phenotypes;
+    }
+
+    @Test
+    void propagateChangesSince_unchangedFlock_doesNoWork() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph converged = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        converged.recalculateAllMessages();
+        converged.computeBeliefs();
+        MessageSnapshot snapshot = converged.snapshot();
+
+        // Act
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        BeliefUpdate update = graph.propagateChangesSince(snapshot);
+
+        // Assert
+        assertEquals(0, update.propagation().computations());
+        assertTrue(update.changedSheep().isEmpty());
+        assertEquals(converged.computeBeliefs(), graph.computeBeliefs(), "Restored messages give the same beliefs");
+    }
+
+    @Test
+    void propagateChangesSince_newBirth_updatesFromConvergedMessages() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph converged = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PropagationResult full = converged.recalculateAllMessages();
+        converged.computeBeliefs();
+        MessageSnapshot snapshot = converged.snapshot();
+
+        Relationship relationship = demoGraph.relationships().get(0);
+        Map<Category, String> inheritedPhenotypes = new EnumMap<>(Category.class);
+        for (Category category : Category.values()) {
+            inheritedPhenotypes.put(category, relationship.getParent1().getPhenotype(category).code());
+        }
+        Sheep child = DomainFixtures.createTestSheep(inheritedPhenotypes, 100);
+        relationship.addChildToRelationship(child);
+
+        List<Sheep> sheep = new ArrayList<>(demoGraph.sheep());
+        sheep.add(child);
+
+        // Act
+        CompiledFactorGraph graph = new FactorGraph(sheep, demoGraph.relationships()).compile();
+        BeliefUpdate update = graph.propagateChangesSince(snapshot);
+
+        CompiledFactorGraph reference = new FactorGraph(sheep, demoGraph.relationships()).compile();
+        reference.recalculateAllMessages();
+
+        // Assert
+        assertTrue(update.propagation().computations() < full.computations(),
+                "Incremental update computed " + update.propagation().computations() + " messages, the full run " + full.computations());
+        assertTrue(update.changedSheep().contains(child), "The new child should receive beliefs");
+        for (int i = 0; i < update.changedSheep().size(); i++) {
+            Map<Category, Map<String, Double>> expected = reference.computeBeliefForSheep(update.changedSheep().get(i));
+            Map<Category, Map<String, Double>> actual = update.changedBeliefs().get(i);
+            for (Category category : Category.values()) {
+                for (Map.Entry<String, Double> entry : expected.get(category).entrySet()) {
+                    assertEquals(entry.getValue(), actual.get(category).get(entry.getKey()), 0.05,
+                            "Incremental and full beliefs should agree on " + category + " " + entry.getKey());
+                }
+            }
+        }
+    }
+
+    @Test
+    void restoreMessages_convergedSnapshot_fullRunStartsAtFixedPoint() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph converged = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PropagationResult cold = converged.recalculateAllMessages(MessageSchedule.FIFO, POOL);
+        MessageSnapshot snapshot = converged.snapshot();
+
+        // Act
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        graph.restoreMessages(snapshot);
+        PropagationResult warm = graph.recalculateAllMessages(MessageSchedule.FIFO, POOL);
+
+        // Assert
+        assertTrue(cold.updates() > 0);
+        assertEquals(0, warm.updates(), "Every restored message is already at its fixed point");
+        assertTrue(warm.converged());
+        assertEquals(converged.inferBeliefs(), graph.inferBeliefs());
+    }
+
+    @Test
+    void inferBeliefs_matchesComputeBeliefsWithoutWritingToSheep() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        graph.recalculateAllMessages();
+        List<Map<Category, Map<String, Double>>> before = new ArrayList<>();
+        for (Sheep sheep : graph.sheep()) {
+            before.add(sheep.getAllDistributionsByType(DistributionType.INFERRED));
+        }
+
+        // Act
+        List<Map<Category, Map<String, Double>>> inferred = graph.inferBeliefs();
+
+        // Assert
+        for (int i = 0; i < graph.sheepCount(); i++) {
+            assertEquals(before.get(i), graph.sheep().get(i).getAllDistributionsByType(DistributionType.INFERRED),
+                    "Inferring beliefs should leave the sheep untouched");
+        }
+        assertEquals(graph.computeBeliefs(), inferred);
+    }
+}
@@ -0,0 +1,94 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.testutil.DomainFixtures;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DistributionVectorsTest {
+
+    @Test
+    void pack_missingAllele_isZeroAndUnpacksToEveryAllele() {
+        // Arrange
+        Map<String, Double> distribution = Map.of(Grade.S.code(), 0.25, Grade.A.code(), 0.75);
+
+        // Act
+        double[] vector = DistributionVectors.pack(Category.SWIM, distribution);
+        Map<String, Double> unpacked = DistributionVectors.unpack(Category.SWIM, vector);
+
+        // Assert
+        assertEquals(Grade.values().length, vector.length);
+        assertEquals(0.25, vector[Grade.S.ordinal()]);
+        assertEquals(0.75, vector[Grade.A.ordinal()]);
+        assertEquals(Grade.values().length, unpacked.size());
+        assertEquals(0.0, unpacked.get(Grade.E.code()));
+        assertEquals(0.75, unpacked.get(Grade.A.code()));
+    }
+
+    @Test
+    void unpack_wrongLength_throws() {
+        assertThrows(IllegalArgumentException.class, () -> DistributionVectors.unpack(Category.COLOR, new double[3]));
+    }
+
+    @Test
+    void readDistributionsFromVectors_matchesRowsUntilNextWrite() {
+        // Arrange
+        Sheep sheep = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.A.code()));
+        Map<Category, Map<String, Double>> priors = sheep.getAllDistributionsByType(DistributionType.PRIOR);
+        Map<Grade, Double> inferredSwim = sheep.getDistribution(Category.SWIM, DistributionType.INFERRED);
+
+        // Act
+        boolean fromVectors = sheep.readDistributionsFromVectors();
+
+        // Assert
+        assertTrue(fromVectors, "Writing every distribution should have packed every vector");
+        assertEquals(inferredSwim, sheep.getDistribution(Category.SWIM, DistributionType.INFERRED));
+        Map<Category, Map<String, Double>> unpackedPriors = sheep.getAllDistributionsByType(DistributionType.PRIOR);
+        for (Category category : Category.values()) {
+            for (Map.Entry<String, Double> entry : unpackedPriors.get(category).entrySet()) {
+                assertEquals(priors.get(category).getOrDefault(entry.getKey(), 0.0), entry.getValue(), category + " " + entry.getKey());
+            }
+        }
+
+        Map<Grade, Double> certain = new EnumMap<>(Grade.class);
+        for (Grade grade : Grade.values()) {
+            certain.put(grade, grade == Grade.S ? 1.0 : 0.0);
+        }
+        sheep.setDistribution(Category.SWIM, DistributionType.INFERRED, certain);
+        assertEquals(certain, sheep.getDistribution(Category.SWIM, DistributionType.INFERRED),
+                "A write should be read back instead of the unpacked vector");
+        assertTrue(sheep.readDistributionsFromVectors());
+        assertEquals(certain, sheep.getDistribution(Category.SWIM, DistributionType.INFERRED),
+                "The write should also have been packed");
+    }
+
+    @Test
+    void setDistributionVectors_sheepReadsThemWithoutRows() {
+        // Arrange
+        Sheep sheep = new Sheep();
+        sheep.setId(7);
+        Map<Category, Map<DistributionType, double[]>> vectors = new EnumMap<>(Category.class);
+        for (Category category : Category.values()) {
+            Map<DistributionType, double[]> byType = new EnumMap<>(DistributionType.class);
+            double[] uniform = DistributionVectors.pack(category, Map.of());
+            Arrays.fill(uniform, 1.0 / uniform.length);
+            byType.put(DistributionType.PRIOR, uniform);
+            byType.put(DistributionType.INFERRED, uniform.clone());
+            vectors.put(category, byType);
+        }
+
+        // Act
+        sheep.setDistributionVectors(vectors);
+
+        // Assert
+        assertEquals(1.0 / Grade.values().length, sheep.getDistribution(Category.RUN, DistributionType.PRIOR).get(Grade.B), 1e-12);
+        assertEquals(Category.values().length, sheep.getAllDistributionsByType(DistributionType.INFERRED).size());
+    }
+}
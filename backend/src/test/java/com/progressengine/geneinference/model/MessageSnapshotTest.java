@@ -0,0 +1,123 @@
+package com.progressengine.geneinference.model;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.service.DemoGraphService;
+import com.progressengine.geneinference.testutil.DomainFixtures;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageSnapshotTest {
+
+    private static final UUID USER_ID = DomainFixtures.TEST_USER_ID;
+
+    @Test
+    void fromStoredMessages_roundTrip_restoresConvergedGraph() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph converged = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        converged.recalculateAllMessages();
+        MessageSnapshot snapshot = converged.snapshot();
+
+        // Act
+        List<InferenceMessage> rows = snapshot.messagesChangedSince(MessageSnapshot.EMPTY, USER_ID);
+        MessageSnapshot restored = MessageSnapshot.fromStoredMessages(rows);
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        BeliefUpdate update = graph.propagateChangesSince(restored);
+
+        // Assert
+        assertEquals(converged.edgeCount() * Category.values().length, rows.size(), "One row per edge and category");
+        assertTrue(rows.stream().allMatch(InferenceMessage::isNew), "Nothing was stored before");
+        assertEquals(converged.edgeCount(), restored.messageCount());
+        assertEquals(0, update.propagation().computations(), "Stored messages are already converged");
+        assertEquals(converged.computeBeliefs(), graph.computeBeliefs());
+    }
+
+    @Test
+    void fromStoredMessages_missingCategory_dropsEdge() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph converged = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        converged.recalculateAllMessages();
+        List<InferenceMessage> rows = converged.snapshot().messagesChangedSince(MessageSnapshot.EMPTY, USER_ID);
+
+        // Act
+        MessageSnapshot restored = MessageSnapshot.fromStoredMessages(rows.subList(1, rows.size()));
+
+        // Assert
+        assertEquals(converged.edgeCount() - 1, restored.messageCount());
+    }
+
+    @Test
+    void messagesChangedSince_partiallyStoredEdge_insertsOnlyItsMissingRows() {
+        // Arrange: a save interrupted between two batches left one category of an edge unwritten
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph converged = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        converged.recalculateAllMessages();
+        List<InferenceMessage> rows = converged.snapshot().messagesChangedSince(MessageSnapshot.EMPTY, USER_ID);
+        InferenceMessage missing = rows.get(0);
+        MessageSnapshot stored = MessageSnapshot.fromStoredMessages(rows.subList(1, rows.size()));
+
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        graph.propagateChangesSince(stored);
+
+        // Act
+        List<InferenceMessage> changed = graph.snapshot().messagesChangedSince(stored, USER_ID);
+
+        // Assert
+        List<InferenceMessage> edgeRows = changed.stream()
+                .filter(row -> row.getSheepId().equals(missing.getSheepId())
+                        && row.getRelationshipId().equals(missing.getRelationshipId())
+                        && row.getDirection() == missing.getDirection())
+                .toList();
+        assertEquals(Category.values().length, edgeRows.size(), "The dropped edge is written again");
+        for (InferenceMessage row : edgeRows) {
+            assertEquals(row.getCategory() == missing.getCategory(), row.isNew(),
+                    row.getCategory() + " is inserted only if it had no row");
+        }
+        assertEquals(1, changed.stream().filter(InferenceMessage::isNew).count(), "Every other row already exists");
+        assertTrue(graph.snapshot().messagesRemovedSince(stored, USER_ID).isEmpty());
+    }
+
+    @Test
+    void messagesChangedSince_newBirth_writesOnlyAffectedMessages() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph converged = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        converged.recalculateAllMessages();
+        converged.computeBeliefs();
+        MessageSnapshot previous = converged.snapshot();
+        int storedRows = previous.messagesChangedSince(MessageSnapshot.EMPTY, USER_ID).size();
+
+        // the last relationship has the grandchild, so its line is a small part of the flock
+        Relationship relationship = demoGraph.relationships().get(demoGraph.relationships().size() - 1);
+        Map<Category, String> inheritedPhenotypes = new EnumMap<>(Category.class);
+        for (Category category : Category.values()) {
+            inheritedPhenotypes.put(category, relationship.getParent2().getPhenotype(category).code());
+        }
+        Sheep child = DomainFixtures.createTestSheep(inheritedPhenotypes, 100);
+        relationship.addChildToRelationship(child);
+
+        List<Sheep> sheep = new ArrayList<>(demoGraph.sheep());
+        sheep.add(child);
+        CompiledFactorGraph graph = new FactorGraph(sheep, demoGraph.relationships()).compile();
+        graph.propagateChangesSince(previous);
+
+        // Act
+        MessageSnapshot current = graph.snapshot();
+        List<InferenceMessage> changed = current.messagesChangedSince(previous, USER_ID);
+        List<InferenceMessageKey> removed = current.messagesRemovedSince(previous, USER_ID);
+
+        // Assert
+        assertTrue(changed.size() < storedRows, "Wrote " + changed.size() + " of " + storedRows + " rows");
+        assertTrue(changed.stream().anyMatch(row -> row.getSheepId() == 100 && row.isNew()),
+                "The new child's edges are inserted");
+        assertTrue(removed.isEmpty(), "No edge was removed");
+    }
+}
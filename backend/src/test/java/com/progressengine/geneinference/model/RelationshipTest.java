@@ -12,6 +12,7 @@ import org.junit.jupiter.api.Test;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -728,6 +729,75 @@ public class RelationshipTest {
         assertEquals(1, distinctValues);
     }
 
+    @Test
+    void getJointDistributions_threeIncompatibleLambs_keepsPairsContradictingFewestBirths() {
+        // Arrange: two S parents carry two hidden alleles between them, too few for A, B and C lambs
+        Sheep parent1 = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.S.code()));
+        Sheep parent2 = DomainFixtures.createTestSheep(Map.of(Category.SWIM, Grade.S.code()));
+        Relationship relationship = DomainFixtures.createTestRelationship(parent1, parent2, Map.of(
+                Category.SWIM, Map.of(Grade.A.code(), 1, Grade.B.code(), 1, Grade.C.code(), 1)
+        ));
+
+        // Act
+        Map<AlleleCodePair, Double> swimJoint = relationship.getJointDistributions().get(Category.SWIM);
+
+        // Assert
+        assertEquals(1.0, swimJoint.values().stream().mapToDouble(Double::doubleValue).sum(), 1e-9);
+        Set<String> lambs = Set.of(Grade.A.code(), Grade.B.code(), Grade.C.code());
+        for (Map.Entry<AlleleCodePair, Double> entry : swimJoint.entrySet()) {
+            // only two different lamb grades as the hidden pair leave out a single birth
+            boolean explainsTwoLambs = lambs.contains(entry.getKey().first())
+                    && lambs.contains(entry.getKey().second())
+                    && !entry.getKey().first().equals(entry.getKey().second());
+            assertEquals(explainsTwoLambs, entry.getValue() > 0.0, entry.getKey().toString());
+        }
+    }
+
+    @Test
+    void removeChildFromRelationship_afterCachesBuilt_matchesRelationshipBuiltWithoutThatChild() {
+        // Arrange
+        Sheep parent1 = DomainFixtures.createTestSheep(Map.of(
+                Category.SWIM, Grade.B.code(),
+                Category.FLY, Grade.C.code()
+        ));
+        Sheep parent2 = DomainFixtures.createTestSheep(Map.of(
+                Category.SWIM, Grade.B.code(),
+                Category.FLY, Grade.A.code()
+        ));
+        Sheep kept = DomainFixtures.createTestSheep(Map.of(
+                Category.SWIM, Grade.C.code(),
+                Category.FLY, Grade.A.code()
+        ));
+        Sheep removed = DomainFixtures.createTestSheep(Map.of(
+                Category.SWIM, Grade.B.code(),
+                Category.FLY, Grade.C.code()
+        ));
+
+        Relationship relationship = DomainFixtures.createEmptyRelationship(parent1, parent2);
+        relationship.getJointDistributions();
+        relationship.addChildToRelationship(kept);
+        relationship.getJointDistributions();
+        relationship.addChildToRelationship(removed);
+        relationship.getJointDistributions();
+
+        Relationship rebuilt = DomainFixtures.createEmptyRelationship(parent1, parent2);
+        rebuilt.addBirthRecord(BirthRecord.create(rebuilt, kept.getGenotypes(), null));
+
+        // Act
+        relationship.removeChildFromRelationship(removed);
+
+        // Assert
+        assertEquals(rebuilt.getPhenotypeFrequencies(), relationship.getPhenotypeFrequencies());
+        for (Category category : Category.values()) {
+            Map<AlleleCodePair, Double> expected = rebuilt.getJointDistributions().get(category);
+            Map<AlleleCodePair, Double> actual = relationship.getJointDistributions().get(category);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (Map.Entry<AlleleCodePair, Double> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), actual.get(entry.getKey()), 1e-9, category + " " + entry.getKey());
+            }
+        }
+    }
+
     private static Map<Category, Map<AlleleCodePair, Map<String, Integer>>> withEmptyFrequencyCategories(
             Map<Category, Map<AlleleCodePair, Map<String, Integer>>> input
     ) {
@@ -0,0 +1,61 @@
+package com.progressengine.geneinference.service.AlleleDomains;
+
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.Color;
+import com.progressengine.geneinference.model.enums.Grade;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AlleleKernelTest {
+
+    @Test
+    void expressionBias_matchesDomainForEveryPair() {
+        GradeAlleleDomain domain = new GradeAlleleDomain();
+        AlleleKernel kernel = CategoryDomains.kernelFor(domain);
+
+        for (Grade first : Grade.values()) {
+            for (Grade second : Grade.values()) {
+                double[] bias = domain.expressionBias(first, second);
+
+                assertEquals(bias[0], kernel.expressionBias(first.ordinal(), second.ordinal(), 0), 1e-12);
+                assertEquals(bias[1], kernel.expressionBias(first.ordinal(), second.ordinal(), 1), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void kernelFor_sameDomainType_sharesKernel() {
+        assertSame(CategoryDomains.kernelFor(Category.SWIM), CategoryDomains.kernelFor(Category.STAMINA));
+        assertSame(CategoryDomains.kernelFor(Category.SWIM), CategoryDomains.kernelFor(new GradeAlleleDomain()));
+    }
+
+    @Test
+    void childHiddenBlock_givenPhenotypeB_forSB_BE_returnsExpectedDistribution() {
+        AlleleKernel kernel = CategoryDomains.kernelFor(Category.SWIM);
+
+        double[] block = kernel.childHiddenBlock(Grade.S.ordinal(), Grade.B.ordinal(), Grade.B.ordinal());
+        int base = kernel.genotypeIndex(Grade.B.ordinal(), Grade.E.ordinal());
+
+        assertEquals(0.15, block[base + Grade.S.ordinal()], 1e-12);
+        assertEquals(0.50, block[base + Grade.B.ordinal()], 1e-12);
+        assertEquals(0.35, block[base + Grade.E.ordinal()], 1e-12);
+        assertEquals(0.0, block[base + Grade.A.ordinal()], 1e-12);
+    }
+
+    @Test
+    void childPhenotypeBlock_recessiveParents_onlyProduceRecessiveOrShared() {
+        AlleleKernel kernel = CategoryDomains.kernelFor(Category.COLOR);
+
+        // both parents show NORMAL and carry NORMAL, so every child shows NORMAL
+        double[] block = kernel.childPhenotypeBlock(Color.NORMAL.ordinal(), Color.NORMAL.ordinal());
+        int base = kernel.genotypeIndex(Color.NORMAL.ordinal(), Color.NORMAL.ordinal());
+
+        assertEquals(1.0, block[base + Color.NORMAL.ordinal()], 1e-12);
+        double total = 0.0;
+        for (int allele = 0; allele < kernel.size(); allele++) {
+            total += block[base + allele];
+        }
+        assertEquals(1.0, total, 1e-12);
+    }
+}
@@ -0,0 +1,129 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.DistributionType;
+import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.testutil.DomainFixtures;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BreedingPlannerTest {
+
+    private static final List<Category> TARGETS = List.of(Category.SWIM, Category.POWER);
+    private static final long BUDGET = TimeUnit.SECONDS.toNanos(10);
+
+    // one pool for every plan of the class, shut down once they are done
+    private static final ForkJoinPool POOL = new ForkJoinPool(2);
+
+    @AfterAll
+    static void shutDownPool() {
+        POOL.shutdownNow();
+    }
+
+    @Test
+    void plan_oneGeneration_findsBestPairByPredictedChildren() {
+        List<Sheep> flock = DomainFixtures.createRandomGradeFlock(30, TARGETS, new Random(3));
+
+        BreedingPlanner.PlanResult result = new BreedingPlanner(flock, TARGETS, Grade.A).plan(1, 5, POOL, BUDGET);
+
+        double best = 0.0;
+        for (int i = 0; i < flock.size(); i++) {
+            for (int j = i + 1; j < flock.size(); j++) {
+                best = Math.max(best, reachedByPredictedChild(flock.get(i), flock.get(j), Grade.A));
+            }
+        }
+
+        assertTrue(result.complete());
+        assertEquals(5, result.plans().size());
+        BreedingPlanner.Plan top = result.plans().get(0);
+        assertEquals(1, top.generations());
+        assertEquals(best, top.probability(), 1e-12);
+
+        BreedingPlanner.Step step = top.steps().get(0);
+        assertEquals(reachedByPredictedChild(step.parent1().sheep(), step.parent2().sheep(), Grade.A), top.probability(), 1e-12);
+        for (int rank = 1; rank < result.plans().size(); rank++) {
+            assertTrue(result.plans().get(rank - 1).probability() >= result.plans().get(rank).probability());
+        }
+    }
+
+    @Test
+    void plan_twoGenerations_breedsExpectedChildWithAnotherParent() {
+        // each ram carries S in only one of the categories, for certain
+        Sheep swimmer = certainSheep(1, Grade.S, Grade.E);
+        Sheep lifter = certainSheep(2, Grade.E, Grade.S);
+
+        BreedingPlanner.PlanResult result = new BreedingPlanner(List.of(swimmer, lifter), TARGETS, Grade.S).plan(2, 3, POOL, BUDGET);
+
+        List<BreedingPlanner.Plan> plans = result.plans();
+        assertEquals(3, plans.size());
+
+        // S with E expresses S 70% of the time, in each category
+        assertEquals(0.7 * 0.7, plans.get(0).probability(), 1e-12);
+        assertEquals(1, plans.get(0).generations());
+
+        // their child passes S half the time in each; with the swimmer, SWIM reaches S for certain
+        // when the child passes S and 70% otherwise, POWER only when the child passes S
+        BreedingPlanner.Plan backcross = plans.get(1);
+        assertEquals(2, backcross.generations());
+        assertEquals((0.5 + 0.5 * 0.7) * (0.5 * 0.7), backcross.probability(), 1e-12);
+        assertEquals(2, backcross.steps().size());
+        BreedingPlanner.Step last = backcross.steps().get(1);
+        assertEquals(0, last.parent1().step());
+        assertSame(swimmer, last.parent2().sheep());
+        assertEquals(backcross.probability(), last.probability(), 1e-12);
+    }
+
+    @Test
+    void plan_noTimeLeft_isIncomplete() {
+        BreedingPlanner.PlanResult result = new BreedingPlanner(DomainFixtures.createRandomGradeFlock(10, TARGETS, new Random(5)), TARGETS, Grade.S).plan(3, 5, POOL, 0);
+
+        assertFalse(result.complete());
+    }
+
+    @Test
+    void constructor_nonGradeOrMissingCategory_throws() {
+        List<Sheep> flock = DomainFixtures.createRandomGradeFlock(3, TARGETS, new Random(1));
+        assertThrows(IllegalArgumentException.class, () -> new BreedingPlanner(flock, List.of(Category.COLOR), Grade.S));
+        assertThrows(IllegalArgumentException.class, () -> new BreedingPlanner(flock, List.of(), Grade.S));
+    }
+
+    private static double reachedByPredictedChild(Sheep a, Sheep b, Grade target) {
+        Map<Category, Map<String, Double>> predicted = InferenceMath.predictChildrenDistributions(a, b);
+        double probability = 1.0;
+        for (Category category : TARGETS) {
+            double reached = 0.0;
+            for (Map.Entry<String, Double> entry : predicted.get(category).entrySet()) {
+                if (Grade.fromCode(entry.getKey()).rank() >= target.rank()) {
+                    reached += entry.getValue();
+                }
+            }
+            probability *= reached;
+        }
+        return probability;
+    }
+
+    private static Sheep certainSheep(int id, Grade swim, Grade power) {
+        Sheep sheep = DomainFixtures.createTestSheep(Map.of(Category.SWIM, swim.code(), Category.POWER, power.code()), id);
+        sheep.setDistribution(Category.SWIM, DistributionType.INFERRED, certain(swim));
+        sheep.setDistribution(Category.POWER, DistributionType.INFERRED, certain(power));
+        return sheep;
+    }
+
+    private static Map<Grade, Double> certain(Grade grade) {
+        Map<Grade, Double> distribution = new EnumMap<>(Grade.class);
+        for (Grade g : Grade.values()) {
+            distribution.put(g, g == grade ? 1.0 : 0.0);
+        }
+        return distribution;
+    }
+}
@@ -0,0 +1,172 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.CompiledFactorGraph;
+import com.progressengine.geneinference.model.DemoGraphData;
+import com.progressengine.geneinference.model.InferenceFlock;
+import com.progressengine.geneinference.repository.InferenceFlockLoader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class InferenceGraphCacheTest {
+
+    private static final UUID USER_ID = UUID.randomUUID();
+    private static final UUID OTHER_USER_ID = UUID.randomUUID();
+
+    @Mock
+    private InferenceFlockLoader inferenceFlockLoader;
+
+    private SimpleMeterRegistry registry;
+    private InferenceMetrics inferenceMetrics;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        inferenceMetrics = new InferenceMetrics(registry);
+        lenient().when(inferenceFlockLoader.load(any())).thenAnswer(invocation -> demoFlock());
+    }
+
+    @Test
+    void getFlock_secondRequest_isServedFromCache() {
+        // Arrange
+        InferenceGraphCache cache = new InferenceGraphCache(inferenceFlockLoader, inferenceMetrics, Long.MAX_VALUE);
+
+        // Act
+        InferenceFlock first = cache.getFlock(USER_ID);
+        InferenceFlock second = cache.getFlock(USER_ID);
+
+        // Assert
+        assertSame(first, second);
+        verify(inferenceFlockLoader, times(1)).load(USER_ID);
+        assertEquals(0.5, cache.hitRatio(), 1e-12);
+        assertEquals(1, registry.get("inference.graph.cache.requests").tag("result", "hit").counter().count(), 0.0);
+        assertTrue(cache.estimatedBytes() > 0);
+    }
+
+    @Test
+    void invalidate_dropsOnlyThatUsersFlock() {
+        // Arrange
+        InferenceGraphCache cache = new InferenceGraphCache(inferenceFlockLoader, inferenceMetrics, Long.MAX_VALUE);
+        InferenceFlock before = cache.getFlock(USER_ID);
+        InferenceFlock other = cache.getFlock(OTHER_USER_ID);
+
+        // Act
+        cache.invalidate(USER_ID);
+
+        // Assert
+        assertNotSame(before, cache.getFlock(USER_ID));
+        assertSame(other, cache.getFlock(OTHER_USER_ID));
+        assertEquals(1, registry.get("inference.graph.cache.evictions").tag("cause", "invalidated").counter().count(), 0.0);
+    }
+
+    @Test
+    void borrowGraph_returnedGraph_isLentAgainWithUniformMessages() {
+        // Arrange
+        InferenceGraphCache cache = new InferenceGraphCache(inferenceFlockLoader, inferenceMetrics, Long.MAX_VALUE);
+        CompiledFactorGraph graph = cache.borrowGraph(USER_ID);
+        CompiledFactorGraph uniform = cache.borrowGraph(USER_ID);
+        graph.recalculateAllMessages();
+
+        // Act
+        cache.returnGraph(graph);
+        CompiledFactorGraph again = cache.borrowGraph(USER_ID);
+
+        // Assert
+        assertNotSame(graph, uniform, "A lent graph must not be lent twice");
+        assertSame(graph, again);
+        for (int edge = 0; edge < again.edgeCount(); edge++) {
+            assertEquals(uniform.message(edge).getDistribution(), again.message(edge).getDistribution());
+        }
+        verify(inferenceFlockLoader, times(1)).load(USER_ID);
+    }
+
+    @Test
+    void returnGraph_afterInvalidation_isNotKept() {
+        // Arrange
+        InferenceGraphCache cache = new InferenceGraphCache(inferenceFlockLoader, inferenceMetrics, Long.MAX_VALUE);
+        CompiledFactorGraph graph = cache.borrowGraph(USER_ID);
+        cache.invalidate(USER_ID);
+
+        // Act
+        cache.returnGraph(graph);
+
+        // Assert
+        assertNotSame(graph, cache.borrowGraph(USER_ID));
+        verify(inferenceFlockLoader, times(2)).load(USER_ID);
+    }
+
+    @Test
+    void isCurrent_lentGraph_turnsFalseOnlyWhenItsUsersFlockChanges() {
+        // Arrange
+        InferenceGraphCache cache = new InferenceGraphCache(inferenceFlockLoader, inferenceMetrics, Long.MAX_VALUE);
+        CompiledFactorGraph graph = cache.borrowGraph(USER_ID);
+
+        // Act
+        boolean beforeChange = cache.isCurrent(graph);
+        cache.invalidate(OTHER_USER_ID);
+        boolean afterOtherChange = cache.isCurrent(graph);
+        cache.invalidate(USER_ID);
+
+        // Assert
+        assertTrue(beforeChange);
+        assertTrue(afterOtherChange);
+        assertFalse(cache.isCurrent(graph));
+        assertTrue(cache.isCurrent(cache.borrowGraph(USER_ID)), "A graph of the changed flock is current again");
+    }
+
+    @Test
+    void getFlock_invalidatedWhileLoading_isNotCached() {
+        // Arrange
+        InferenceGraphCache cache = new InferenceGraphCache(inferenceFlockLoader, inferenceMetrics, Long.MAX_VALUE);
+        when(inferenceFlockLoader.load(USER_ID)).thenAnswer(invocation -> {
+            cache.invalidate(USER_ID);
+            return demoFlock();
+        });
+
+        // Act
+        cache.getFlock(USER_ID);
+
+        // Assert
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void getFlock_overSizeLimit_evictsLeastRecentlyUsed() {
+        // Arrange
+        InferenceGraphCache sizing = new InferenceGraphCache(inferenceFlockLoader, new InferenceMetrics(new SimpleMeterRegistry()), Long.MAX_VALUE);
+        sizing.getFlock(USER_ID);
+        long flockBytes = sizing.estimatedBytes();
+        clearInvocations(inferenceFlockLoader);
+        InferenceGraphCache cache = new InferenceGraphCache(inferenceFlockLoader, inferenceMetrics, flockBytes * 2);
+        UUID thirdUserId = UUID.randomUUID();
+        cache.getFlock(USER_ID);
+        cache.getFlock(OTHER_USER_ID);
+        cache.getFlock(USER_ID);
+
+        // Act
+        cache.getFlock(thirdUserId);
+
+        // Assert
+        assertEquals(2, cache.size());
+        assertEquals(flockBytes * 2, cache.estimatedBytes());
+        assertEquals(1, registry.get("inference.graph.cache.evictions").tag("cause", "size").counter().count(), 0.0);
+        cache.getFlock(USER_ID);
+        verify(inferenceFlockLoader, times(1)).load(USER_ID);
+        verify(inferenceFlockLoader, times(1)).load(OTHER_USER_ID);
+    }
+
+    private static InferenceFlock demoFlock() {
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        return new InferenceFlock(demoGraph.sheep(), demoGraph.relationships());
+    }
+}
@@ -12,6 +12,7 @@ import java.util.EnumMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class InferenceMathTest {
     @Test
@@ -82,6 +83,92 @@ public class InferenceMathTest {
         ProbabilityAssertions.assertValidDistribution(existingDistribution);
     }
 
+    @Test
+    public void testProductOfExpertsArrayMatchesMap() {
+        // Arrange
+        Map<Grade, Double> existingDistribution = new EnumMap<>(Map.of(
+                Grade.S, 0.1,
+                Grade.A, 0.2,
+                Grade.B, 0.3,
+                Grade.C, 0.1,
+                Grade.D, 0.2,
+                Grade.E, 0.1
+        ));
+        Map<Grade, Double> newDistribution = Map.of(
+                Grade.S, 0.4,
+                Grade.A, 0.1,
+                Grade.B, 0.1,
+                Grade.C, 0.2,
+                Grade.D, 0.1,
+                Grade.E, 0.1
+        );
+        // slice of the existing array starts at offset 2
+        double[] existingArray = new double[8];
+        double[] newArray = new double[6];
+        for (Grade grade : Grade.values()) {
+            existingArray[2 + grade.ordinal()] = existingDistribution.get(grade);
+            newArray[grade.ordinal()] = newDistribution.get(grade);
+        }
+
+        // Act
+        InferenceMath.productOfExperts(existingDistribution, newDistribution);
+        InferenceMath.productOfExperts(existingArray, 2, newArray, 0, Grade.values().length);
+
+        // Assert
+        for (Grade grade : Grade.values()) {
+            assertEquals(existingDistribution.get(grade), existingArray[2 + grade.ordinal()], 1e-12, "Array and map products should agree for " + grade);
+        }
+        assertEquals(0.0, existingArray[0], 0.0, "Values outside the slice should be untouched");
+    }
+
+    @Test
+    void normalizeWithSquaredDistance_matchesNormalizingThenMeasuring() {
+        // Arrange
+        double[] scores = {0.0, 2.0, 1.0, 5.0, 2.0, 0.0};
+        double[] separate = scores.clone();
+        // reference slice starts at offset 3
+        double[] reference = {9.0, 9.0, 9.0, 0.1, 0.2, 0.3, 0.2, 0.1, 0.1};
+
+        // Act
+        double distance = InferenceMath.normalizeWithSquaredDistance(scores, 1, 4, reference, 3);
+        InferenceMath.normalizeScores(separate, 1, 4);
+
+        // Assert
+        double expected = 0.0;
+        for (int i = 0; i < 4; i++) {
+            assertEquals(separate[1 + i], scores[1 + i], 1e-15);
+            double diff = separate[1 + i] - reference[3 + i];
+            expected += diff * diff;
+        }
+        assertEquals(expected, distance, 1e-15);
+        assertEquals(0.0, scores[0], 0.0, "Values outside the slice should be untouched");
+        assertEquals(0.0, scores[5], 0.0, "Values outside the slice should be untouched");
+    }
+
+    @Test
+    void entropy_arrayMatchesMap() {
+        // Arrange
+        Map<Grade, Double> distribution = new EnumMap<>(Map.of(
+                Grade.S, 0.4,
+                Grade.A, 0.1,
+                Grade.B, 0.0,
+                Grade.C, 0.2,
+                Grade.D, 0.2,
+                Grade.E, 0.1
+        ));
+        double[] array = new double[Grade.values().length];
+        for (Grade grade : Grade.values()) {
+            array[grade.ordinal()] = distribution.get(grade);
+        }
+
+        // Act
+        double mapEntropy = InferenceMath.entropy(distribution);
+        double arrayEntropy = InferenceMath.entropy(array, 0, array.length);
+
+        // Assert
+        assertEquals(mapEntropy, arrayEntropy, 1e-12);
+    }
+
     @Test
     public void testNormalizeScoresGradeDistribution() {
         // Arrange
@@ -124,6 +211,26 @@ public class InferenceMathTest {
         assertEquals(0.4196433367352421, jointDist.get(new AllelePair<>(Grade.E, Grade.B)), 1e-6);
     }
 
+    @Test
+    void multinomialJointScores_longHistory_doesNotUnderflow() {
+        // Arrange
+        Map<Grade, Integer> phenotypeFrequencies = new EnumMap<>(Map.of(
+                Grade.S, 400,
+                Grade.B, 400,
+                Grade.C, 200,
+                Grade.E, 100
+        ));
+        AlleleDomain<Grade> domain = gradeDomain();
+
+        // Act
+        Map<AllelePair<Grade>, Double> jointDist = InferenceMath.multinomialJointScores(Grade.S, Grade.C, phenotypeFrequencies, domain);
+
+        // Assert
+        ProbabilityAssertions.assertValidDistribution(jointDist);
+        assertTrue(jointDist.get(new AllelePair<>(Grade.B, Grade.E)) > 0.99,
+                "A hundred times the evidence should all but settle the pair the short history favours");
+    }
+
     @Test
     void multinomialScore_shouldGiveSameScoreFor_BE_and_EB_whenPhenotypesAreSAndB() {
         AlleleDomain<Grade> domain = gradeDomain();
@@ -0,0 +1,52 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.CompiledFactorGraph;
+import com.progressengine.geneinference.model.DemoGraphData;
+import com.progressengine.geneinference.model.FactorGraph;
+import com.progressengine.geneinference.model.PropagationResult;
+import com.progressengine.geneinference.model.enums.Category;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class InferenceMetricsTest {
+
+    @Test
+    void flockSizeBucket_boundaries_fallInUpperBucket() {
+        assertEquals("0-49", InferenceMetrics.flockSizeBucket(0));
+        assertEquals("0-49", InferenceMetrics.flockSizeBucket(49));
+        assertEquals("50-199", InferenceMetrics.flockSizeBucket(50));
+        assertEquals("200-999", InferenceMetrics.flockSizeBucket(999));
+        assertEquals("1000+", InferenceMetrics.flockSizeBucket(1000));
+    }
+
+    @Test
+    void recordPropagation_demoGraph_tagsMetersWithFlockSize() {
+        // Arrange
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        InferenceMetrics metrics = new InferenceMetrics(registry);
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PropagationResult result = graph.recalculateAllMessages();
+
+        // Act
+        metrics.recordPropagation(result, "full", demoGraph.sheep().size(), 1_000_000L);
+
+        // Assert
+        assertEquals(1, registry.get("inference.propagation")
+                .tag(InferenceMetrics.FLOCK_SIZE_TAG, "0-49")
+                .tag("mode", "full")
+                .timer()
+                .count());
+        assertEquals(result.updates(), registry.get("inference.propagation.iterations")
+                .tag(InferenceMetrics.FLOCK_SIZE_TAG, "0-49")
+                .summary()
+                .totalAmount(), 0.0);
+        assertEquals(result.updatesByCategory().get(Category.COLOR).doubleValue(), registry.get("inference.message.updates")
+                .tag(InferenceMetrics.FLOCK_SIZE_TAG, "0-49")
+                .tag("category", Category.COLOR.name())
+                .counter()
+                .count(), 0.0);
+    }
+}
@@ -0,0 +1,103 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.enums.Category;
+import com.progressengine.geneinference.model.enums.Grade;
+import com.progressengine.geneinference.testutil.DomainFixtures;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PairingLeaderboardTest {
+
+    private static final List<Category> GRADE_CATEGORIES =
+            List.of(Category.SWIM, Category.FLY, Category.RUN, Category.POWER, Category.STAMINA);
+
+    // one pool for every ranking of the class, shut down once they are done
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    static void shutDownPool() {
+        POOL.shutdownNow();
+    }
+
+    @Test
+    void top_everyGradeCategory_matchesRankingEveryPairByPredictedChildren() {
+        // more sheep than one tile holds, so pairs are pruned across tiles
+        assertMatchesRankingEveryPair(DomainFixtures.createRandomGradeFlock(150, GRADE_CATEGORIES, new Random(7)), List.of(), GRADE_CATEGORIES);
+    }
+
+    @Test
+    void top_someCategories_ranksByThoseCategoriesOnly() {
+        assertMatchesRankingEveryPair(DomainFixtures.createRandomGradeFlock(90, GRADE_CATEGORIES, new Random(11)), List.of(Category.SWIM, Category.RUN), List.of(Category.SWIM, Category.RUN));
+    }
+
+    @Test
+    void top_equalScores_orderedBySheepIds() {
+        List<Sheep> flock = new ArrayList<>();
+        for (int id = 5; id >= 1; id--) {
+            flock.add(DomainFixtures.createTestSheep(Map.of(Category.SWIM, "A"), id));
+        }
+
+        List<PairingLeaderboard.RankedPair> top = new PairingLeaderboard(flock, List.of()).top(10, POOL);
+
+        List<String> pairs = top.stream().map(pair -> pair.first().getId() + "-" + pair.second().getId()).toList();
+        assertEquals(List.of("1-2", "1-3", "1-4", "1-5", "2-3", "2-4", "2-5", "3-4", "3-5", "4-5"), pairs);
+    }
+
+    @Test
+    void constructor_nonGradeCategory_throws() {
+        List<Sheep> flock = DomainFixtures.createRandomGradeFlock(3, GRADE_CATEGORIES, new Random(1));
+        assertThrows(IllegalArgumentException.class, () -> new PairingLeaderboard(flock, List.of(Category.COLOR)));
+    }
+
+    private static void assertMatchesRankingEveryPair(List<Sheep> flock, List<Category> requested, List<Category> scored) {
+        PairingLeaderboard leaderboard = new PairingLeaderboard(flock, requested);
+        List<PairingLeaderboard.RankedPair> top = leaderboard.top(40, POOL);
+
+        List<double[]> expected = new ArrayList<>(); // {first id, second id, score}
+        for (int i = 0; i < flock.size(); i++) {
+            for (int j = i + 1; j < flock.size(); j++) {
+                Sheep a = flock.get(i);
+                Sheep b = flock.get(j);
+                double score = 0.0;
+                for (Category category : scored) {
+                    score += predictedRank(a, b, category);
+                }
+                expected.add(new double[]{Math.min(a.getId(), b.getId()), Math.max(a.getId(), b.getId()), score / scored.size()});
+            }
+        }
+        expected.sort(Comparator.<double[]>comparingDouble(pair -> -pair[2])
+                .thenComparingDouble(pair -> pair[0])
+                .thenComparingDouble(pair -> pair[1]));
+
+        assertEquals(40, top.size());
+        for (int rank = 0; rank < top.size(); rank++) {
+            PairingLeaderboard.RankedPair pair = top.get(rank);
+            assertEquals((int) expected.get(rank)[0], pair.first().getId().intValue(), "first sheep at rank " + rank);
+            assertEquals((int) expected.get(rank)[1], pair.second().getId().intValue(), "second sheep at rank " + rank);
+            assertEquals(expected.get(rank)[2], pair.score(), 1e-9);
+
+            double[] ranks = leaderboard.expectedRanks(pair);
+            for (int c = 0; c < scored.size(); c++) {
+                assertEquals(predictedRank(pair.first(), pair.second(), scored.get(c)), ranks[c], 1e-9);
+            }
+        }
+    }
+
+    private static double predictedRank(Sheep a, Sheep b, Category category) {
+        double rank = 0.0;
+        for (Map.Entry<String, Double> entry : InferenceMath.predictChildrenDistributions(a, b).get(category).entrySet()) {
+            rank += Grade.fromCode(entry.getKey()).rank() * entry.getValue();
+        }
+        return rank;
+    }
+}
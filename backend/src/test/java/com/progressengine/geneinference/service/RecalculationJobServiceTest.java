@@ -0,0 +1,284 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.exception.ResourceNotFoundException;
+import com.progressengine.geneinference.model.*;
+import com.progressengine.geneinference.model.enums.RecalculationJobStatus;
+import com.progressengine.geneinference.repository.InferredBeliefRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RecalculationJobServiceTest {
+
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    @Mock
+    private BreedingService breedingService;
+
+    @Mock
+    private InferredBeliefRepository inferredBeliefRepository;
+
+    @Mock
+    private MessageStoreService messageStoreService;
+
+    // never runs what it is given, so submitted jobs stay queued until a test runs them
+    @Mock
+    private ExecutorService recalculationExecutor;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private RecalculationJobService recalculationJobService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        recalculationJobService = new RecalculationJobService(
+                breedingService,
+                inferredBeliefRepository,
+                messageStoreService,
+                new InferenceMetrics(meterRegistry),
+                recalculationExecutor
+        );
+    }
+
+    @Test
+    void submit_whileJobQueued_returnsSameJob() {
+        // Act
+        RecalculationJob first = recalculationJobService.submit(USER_ID);
+        RecalculationJob second = recalculationJobService.submit(USER_ID);
+
+        // Assert
+        assertSame(first, second, "Duplicate submissions should be coalesced into the active job");
+        verify(recalculationExecutor, times(1)).execute(any());
+    }
+
+    @Test
+    void submit_afterJobFinished_startsNewJob() {
+        // Arrange
+        RecalculationJob first = recalculationJobService.submit(USER_ID);
+        first.cancel();
+
+        // Act
+        RecalculationJob second = recalculationJobService.submit(USER_ID);
+
+        // Assert
+        assertNotEquals(first.getJobId(), second.getJobId());
+        assertEquals(RecalculationJobStatus.QUEUED, second.getStatus());
+    }
+
+    @Test
+    void cancel_queuedJob_neverLoadsTheFlock() {
+        // Arrange
+        RecalculationJob job = recalculationJobService.submit(USER_ID);
+
+        // Act
+        recalculationJobService.cancel(USER_ID, job.getJobId());
+        recalculationJobService.run(job);
+
+        // Assert
+        assertEquals(RecalculationJobStatus.CANCELLED, job.getStatus());
+        verify(breedingService, never()).prepareRecalculation(any(), anyBoolean());
+    }
+
+    @Test
+    void run_demoFlock_savesBeliefsAndCompletes() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PreparedRecalculation prepared = new PreparedRecalculation(USER_ID, demoGraph.sheep(), graph, MessageSnapshot.EMPTY, false);
+        when(breedingService.prepareRecalculation(USER_ID, false)).thenReturn(prepared);
+        when(breedingService.propagate(eq(prepared), any())).thenAnswer(invocation -> graph.recalculateAllMessages());
+        savesWhileCurrent(prepared, true);
+        RecalculationJob job = recalculationJobService.submit(USER_ID);
+
+        // Act
+        recalculationJobService.run(job);
+
+        // Assert
+        assertEquals(RecalculationJobStatus.COMPLETED, job.getStatus());
+        assertTrue(job.isConverged());
+        assertEquals(demoGraph.sheep().size(), job.getSheepSaved());
+        verify(inferredBeliefRepository).saveAll(eq(graph.sheep()), eq(graph.inferBeliefs()));
+        verify(messageStoreService).saveInBatches(eq(USER_ID), eq(MessageSnapshot.EMPTY), any(), anyInt(), any());
+        assertEquals(1.0, meterRegistry.counter("inference.recalculation.jobs", "outcome", "completed").count());
+    }
+
+    @Test
+    void run_coldStart_preparesRunWithoutStoredMessages() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PreparedRecalculation prepared = new PreparedRecalculation(USER_ID, demoGraph.sheep(), graph, MessageSnapshot.EMPTY, true);
+        when(breedingService.prepareRecalculation(USER_ID, true)).thenReturn(prepared);
+        when(breedingService.propagate(eq(prepared), any())).thenAnswer(invocation -> graph.recalculateAllMessages());
+        savesWhileCurrent(prepared, true);
+        RecalculationJob job = recalculationJobService.submit(USER_ID, true);
+
+        // Act
+        recalculationJobService.run(job);
+
+        // Assert
+        assertTrue(job.isColdStart());
+        assertEquals(RecalculationJobStatus.COMPLETED, job.getStatus());
+        verify(breedingService, never()).prepareRecalculation(USER_ID, false);
+    }
+
+    @Test
+    void run_flockChangedBeforeSaving_runsAgainAndSavesOnlyTheNewRun() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph staleGraph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PreparedRecalculation stale = new PreparedRecalculation(USER_ID, demoGraph.sheep(), staleGraph, MessageSnapshot.EMPTY, false);
+        PreparedRecalculation prepared = new PreparedRecalculation(USER_ID, demoGraph.sheep(), graph, MessageSnapshot.EMPTY, false);
+        when(breedingService.prepareRecalculation(USER_ID, false)).thenReturn(stale, prepared);
+        when(breedingService.propagate(any(), any())).thenAnswer(invocation ->
+                invocation.<PreparedRecalculation>getArgument(0).graph().recalculateAllMessages());
+        savesWhileCurrent(stale, false);
+        savesWhileCurrent(prepared, true);
+        RecalculationJob job = recalculationJobService.submit(USER_ID);
+
+        // Act
+        recalculationJobService.run(job);
+
+        // Assert
+        assertEquals(RecalculationJobStatus.COMPLETED, job.getStatus());
+        assertEquals(demoGraph.sheep().size(), job.getSheepSaved());
+        verify(messageStoreService, times(1)).saveInBatches(eq(USER_ID), any(), any(), anyInt(), any());
+        verify(messageStoreService, never()).discard(any());
+        verify(breedingService).releaseRecalculation(stale);
+        verify(breedingService).releaseRecalculation(prepared);
+    }
+
+    @Test
+    void run_flockKeepsChanging_failsAndDiscardsStoredMessages() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PreparedRecalculation prepared = new PreparedRecalculation(USER_ID, demoGraph.sheep(), graph, MessageSnapshot.EMPTY, false);
+        when(breedingService.prepareRecalculation(USER_ID, false)).thenReturn(prepared);
+        when(breedingService.propagate(eq(prepared), any())).thenAnswer(invocation -> graph.recalculateAllMessages());
+        savesWhileCurrent(prepared, false);
+        RecalculationJob job = recalculationJobService.submit(USER_ID);
+
+        // Act
+        recalculationJobService.run(job);
+
+        // Assert
+        assertEquals(RecalculationJobStatus.FAILED, job.getStatus());
+        assertEquals(0, job.getSheepSaved());
+        verify(breedingService, times(3)).prepareRecalculation(USER_ID, false);
+        verify(messageStoreService, never()).saveInBatches(any(), any(), any(), anyInt(), any());
+        verify(messageStoreService).discard(USER_ID);
+        assertEquals(1.0, meterRegistry.counter("inference.recalculation.jobs", "outcome", "abandoned").count());
+    }
+
+    @Test
+    void run_batchLosesLockToAnotherWrite_runsAgain() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PreparedRecalculation prepared = new PreparedRecalculation(USER_ID, demoGraph.sheep(), graph, MessageSnapshot.EMPTY, false);
+        when(breedingService.prepareRecalculation(USER_ID, false)).thenReturn(prepared);
+        when(breedingService.propagate(eq(prepared), any())).thenAnswer(invocation -> graph.recalculateAllMessages());
+        when(breedingService.saveIfCurrent(eq(prepared), any()))
+                .thenThrow(new CannotAcquireLockException("deadlock detected"))
+                .thenReturn(true);
+        when(messageStoreService.saveInBatches(eq(USER_ID), any(), any(), anyInt(), any())).thenReturn(true);
+        RecalculationJob job = recalculationJobService.submit(USER_ID);
+
+        // Act
+        recalculationJobService.run(job);
+
+        // Assert
+        assertEquals(RecalculationJobStatus.COMPLETED, job.getStatus());
+        verify(breedingService, times(2)).prepareRecalculation(USER_ID, false);
+    }
+
+    @Test
+    void submit_coldStartWhileWarmJobPropagating_cancelsItAndQueuesColdJob() {
+        // Arrange
+        RecalculationJob warm = recalculationJobService.submit(USER_ID);
+        warm.start(1);
+
+        // Act
+        RecalculationJob cold = recalculationJobService.submit(USER_ID, true);
+
+        // Assert
+        assertNotEquals(warm.getJobId(), cold.getJobId());
+        assertTrue(cold.isColdStart());
+        assertTrue(warm.isCancelled());
+        assertSame(cold, recalculationJobService.getJob(USER_ID, cold.getJobId()));
+        verify(recalculationExecutor, times(2)).execute(any());
+    }
+
+    @Test
+    void submit_warmWhileColdJobQueued_returnsColdJob() {
+        // Act
+        RecalculationJob cold = recalculationJobService.submit(USER_ID, true);
+        RecalculationJob warm = recalculationJobService.submit(USER_ID);
+
+        // Assert
+        assertSame(cold, warm);
+    }
+
+    @Test
+    void run_cancelledWhilePropagating_savesNothing() {
+        // Arrange
+        DemoGraphData demoGraph = new DemoGraphService().getDefaultDemoGraph();
+        CompiledFactorGraph graph = new FactorGraph(demoGraph.sheep(), demoGraph.relationships()).compile();
+        PreparedRecalculation prepared = new PreparedRecalculation(USER_ID, demoGraph.sheep(), graph, MessageSnapshot.EMPTY, false);
+        when(breedingService.prepareRecalculation(USER_ID, false)).thenReturn(prepared);
+        RecalculationJob job = recalculationJobService.submit(USER_ID);
+        when(breedingService.propagate(eq(prepared), any())).thenAnswer(invocation -> {
+            job.cancel();
+            return graph.recalculateAllMessages();
+        });
+
+        // Act
+        recalculationJobService.run(job);
+
+        // Assert
+        assertEquals(RecalculationJobStatus.CANCELLED, job.getStatus());
+        verifyNoInteractions(inferredBeliefRepository);
+        verifyNoInteractions(messageStoreService);
+    }
+
+    @Test
+    void getJob_otherJobId_throwsNotFound() {
+        // Arrange
+        recalculationJobService.submit(USER_ID);
+
+        // Act & Assert
+        assertThrows(ResourceNotFoundException.class,
+                () -> recalculationJobService.getJob(USER_ID, UUID.randomUUID().toString()));
+        assertThrows(ResourceNotFoundException.class,
+                () -> recalculationJobService.getJob(UUID.randomUUID(), "missing"));
+    }
+
+    // runs every write the job hands over, message batches included, and reports whether the flock
+    // was still current; a write that is not is taken as rolled back
+    private void savesWhileCurrent(PreparedRecalculation prepared, boolean current) {
+        lenient().when(breedingService.saveIfCurrent(eq(prepared), any())).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return current;
+        });
+        lenient().when(messageStoreService.saveInBatches(eq(USER_ID), eq(prepared.previous()), any(), anyInt(), any()))
+                .thenReturn(current);
+    }
+}
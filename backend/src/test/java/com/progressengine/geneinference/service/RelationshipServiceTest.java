@@ -26,6 +26,9 @@ public class RelationshipServiceTest {
     @Mock
     private RelationshipRepository relationshipRepository;
 
+    @Mock
+    private InferenceGraphCache inferenceGraphCache;
+
     @InjectMocks
     private RelationshipService relationshipService;
 
@@ -0,0 +1,116 @@
+package com.progressengine.geneinference.service;
+
+import com.progressengine.geneinference.model.PedigreeSpec;
+import com.progressengine.geneinference.model.Relationship;
+import com.progressengine.geneinference.model.Sheep;
+import com.progressengine.geneinference.model.SyntheticPedigree;
+import com.progressengine.geneinference.model.enums.Category;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyntheticPedigreeServiceTest {
+
+    @Test
+    void generate_sameSpec_producesSameFlock() {
+        PedigreeSpec spec = new PedigreeSpec(10, 3, 2, 2, 0.3, 0, 7);
+
+        SyntheticPedigree first = SyntheticPedigreeService.generate(spec);
+        SyntheticPedigree second = SyntheticPedigreeService.generate(spec);
+
+        assertEquals(describe(first), describe(second));
+    }
+
+    @Test
+    void generate_differentSeed_producesDifferentFlock() {
+        SyntheticPedigree first = SyntheticPedigreeService.generate(new PedigreeSpec(10, 3, 2, 2, 0.3, 0, 7));
+        SyntheticPedigree second = SyntheticPedigreeService.generate(new PedigreeSpec(10, 3, 2, 2, 0.3, 0, 8));
+
+        assertNotEquals(describe(first), describe(second));
+    }
+
+    @Test
+    void generate_everySheepHasKnownHiddenAlleles() {
+        SyntheticPedigree pedigree = SyntheticPedigreeService.generate(new PedigreeSpec(8, 3, 3, 1, 0.5, 0, 1));
+
+        for (Sheep sheep : pedigree.sheep()) {
+            for (Category category : Category.values()) {
+                assertNotNull(sheep.getPhenotype(category), sheep.getName() + " " + category);
+                assertNotNull(sheep.getHiddenAllele(category), sheep.getName() + " " + category);
+            }
+        }
+    }
+
+    @Test
+    void generate_maxSheep_capsFlockSize() {
+        SyntheticPedigree pedigree = SyntheticPedigreeService.generate(PedigreeSpec.ofSize(500, 0.1, 3));
+
+        assertEquals(500, pedigree.sheep().size());
+    }
+
+    @Test
+    void generate_litterSize_isChildrenPerPairing() {
+        SyntheticPedigree pedigree = SyntheticPedigreeService.generate(new PedigreeSpec(6, 1, 4, 1, 0.0, 0, 5));
+
+        assertEquals(3, pedigree.relationships().size());
+        for (Relationship relationship : pedigree.relationships()) {
+            assertEquals(4, relationship.getBirthRecords().size());
+        }
+        assertEquals(6 + 12, pedigree.sheep().size());
+    }
+
+    @Test
+    void generate_fullInbreeding_pairsRelatives() {
+        SyntheticPedigree pedigree = SyntheticPedigreeService.generate(new PedigreeSpec(10, 3, 2, 1, 1.0, 0, 11));
+
+        List<Relationship> bredAfterFounders = pedigree.relationships().stream()
+                .filter(relationship -> relationship.getParent1().getBirthRecord() != null)
+                .toList();
+        assertFalse(bredAfterFounders.isEmpty());
+        for (Relationship relationship : bredAfterFounders) {
+            assertTrue(areRelated(relationship.getParent1(), relationship.getParent2()),
+                    relationship.getParent1().getName() + " x " + relationship.getParent2().getName());
+        }
+    }
+
+    @Test
+    void generate_firstParentIsTheOlderSheep() {
+        SyntheticPedigree pedigree = SyntheticPedigreeService.generate(new PedigreeSpec(10, 3, 2, 2, 0.5, 0, 13));
+
+        for (Relationship relationship : pedigree.relationships()) {
+            assertTrue(pedigree.sheep().indexOf(relationship.getParent1()) < pedigree.sheep().indexOf(relationship.getParent2()));
+        }
+    }
+
+    @Test
+    void pedigreeSpec_rejectsInvalidShape() {
+        assertThrows(IllegalArgumentException.class, () -> new PedigreeSpec(1, 3, 2, 1, 0.1, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PedigreeSpec(10, 3, 0, 1, 0.1, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PedigreeSpec(10, 3, 2, 1, 1.5, 0, 1));
+    }
+
+    private static boolean areRelated(Sheep sheep, Sheep other) {
+        Relationship parents = sheep.getBirthRecord() == null ? null : sheep.getBirthRecord().getParentRelationship();
+        Relationship otherParents = other.getBirthRecord() == null ? null : other.getBirthRecord().getParentRelationship();
+        boolean siblings = parents != null && parents == otherParents;
+        boolean parentAndChild = parents != null && (parents.getParent1() == other || parents.getParent2() == other)
+                || otherParents != null && (otherParents.getParent1() == sheep || otherParents.getParent2() == sheep);
+        return siblings || parentAndChild;
+    }
+
+    private static List<String> describe(SyntheticPedigree pedigree) {
+        List<String> description = new ArrayList<>();
+        for (Sheep sheep : pedigree.sheep()) {
+            for (Category category : Category.values()) {
+                description.add(sheep.getName() + " " + sheep.getPhenotype(category) + "/" + sheep.getHiddenAllele(category));
+            }
+        }
+        for (Relationship relationship : pedigree.relationships()) {
+            description.add(relationship.getParent1().getName() + " x " + relationship.getParent2().getName());
+        }
+        return description;
+    }
+}
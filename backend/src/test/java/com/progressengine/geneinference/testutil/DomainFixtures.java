@@ -4,6 +4,7 @@ import com.progressengine.geneinference.dto.SheepGenotypeDTO;
 import com.progressengine.geneinference.model.*;
 import com.progressengine.geneinference.model.enums.Category;
 import com.progressengine.geneinference.model.enums.DistributionType;
+import com.progressengine.geneinference.model.enums.Grade;
 import com.progressengine.geneinference.service.AlleleDomains.CategoryDomains;
 
 import java.util.*;
@@ -53,6 +54,38 @@ public class DomainFixtures {
         return sheep;
     }
 
+    /**
+     * Sheep with ids from 1 and random grades in the given categories, each with a random inferred
+     * hidden distribution skewed towards a few grades. The same random seed gives the same flock.
+     */
+    public static List<Sheep> createRandomGradeFlock(int size, List<Category> categories, Random random) {
+        Grade[] grades = Grade.values();
+        List<Sheep> flock = new ArrayList<>();
+        for (int id = 1; id <= size; id++) {
+            Map<Category, String> phenotypes = new EnumMap<>(Category.class);
+            for (Category category : categories) {
+                phenotypes.put(category, grades[random.nextInt(grades.length)].code());
+            }
+            Sheep sheep = createTestSheep(phenotypes, id);
+
+            for (Category category : categories) {
+                Map<Grade, Double> hidden = new EnumMap<>(Grade.class);
+                double sum = 0.0;
+                for (Grade grade : grades) {
+                    double weight = random.nextDouble() * random.nextDouble();
+                    hidden.put(grade, weight);
+                    sum += weight;
+                }
+                for (Grade grade : grades) {
+                    hidden.put(grade, hidden.get(grade) / sum);
+                }
+                sheep.setDistribution(category, DistributionType.INFERRED, hidden);
+            }
+            flock.add(sheep);
+        }
+        return flock;
+    }
+
     public static Sheep createTestSheepWithFullGenotype(Map<Category, SheepGenotypeDTO> phenotypes) {
         Sheep sheep = new Sheep();
 
@@ -0,0 +1,23 @@
+-- Converged factor graph messages, one row per directed edge and category
+create table if not exists public.inference_message (
+    user_id uuid not null,
+    sheep_id integer not null,
+    relationship_id integer not null,
+    direction text not null,
+    category text not null,
+    source_version bigint not null,
+    probabilities double precision[] not null,
+    constraint inference_message_pkey primary key (user_id, sheep_id, relationship_id, direction, category),
+    constraint inference_message_sheep_id_fkey foreign key (sheep_id)
+        references public.sheep (id) on delete cascade,
+    constraint inference_message_relationship_id_fkey foreign key (relationship_id)
+        references public.relationship (id) on delete cascade
+);
+
+create index if not exists idx_inference_message_relationship
+    on public.inference_message using btree (relationship_id);
+
+create index if not exists idx_inference_message_sheep
+    on public.inference_message using btree (sheep_id);
+
+alter table public.inference_message enable row level security;
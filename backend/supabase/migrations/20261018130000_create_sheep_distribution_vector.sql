@@ -0,0 +1,16 @@
+-- Sheep distributions packed into one row per category and type, replacing one row per allele.
+-- probabilities has one entry per allele of the category, in allele enum order. Rows in
+-- sheep_distribution are still written alongside; existing sheep are packed by running the app
+-- with --backfill-distribution-vectors, after which reads can switch with
+-- inference.distribution-storage=VECTORS.
+create table if not exists public.sheep_distribution_vector (
+    sheep_id integer not null,
+    category text not null,
+    distribution_type text not null,
+    probabilities double precision[] not null,
+    constraint sheep_distribution_vector_pkey primary key (sheep_id, category, distribution_type),
+    constraint sheep_distribution_vector_sheep_id_fkey foreign key (sheep_id)
+        references public.sheep (id) on delete cascade
+);
+
+alter table public.sheep_distribution_vector enable row level security;
@@ -1,6 +1,6 @@
 'use server'; // server actions
 
-import { Grade, Category, SheepCreateDTO, SheepUpdateDTO, SheepChildDTO, BirthRecord, ValidationFailed, GeneticConstraintViolation, ALL_CATEGORIES } from '@/app/lib/definitions';
+import { Grade, Category, SheepCreateDTO, SheepUpdateDTO, SheepChildDTO, BirthRecord, ValidationFailed, GeneticConstraintViolation, ALL_CATEGORIES, RecalculationJob } from '@/app/lib/definitions';
 import { revalidatePath } from 'next/cache';
 import { redirect } from 'next/navigation';
 import { createClient } from "@/app/lib/supabase/server";
@@ -361,7 +361,13 @@ export async function evolveSheep(sheepId: number, category: Category) {
 }
 
 
-export async function recalculateBeliefs() {
+export type RecalculateState = {
+    jobId?: string;
+    message?: string | null;
+};
+
+// starts a background recalculation; the button polls the job with getRecalculationJob
+export async function recalculateBeliefs(): Promise<RecalculateState> {
     const res = await fetch(`${API_BASE_URL}/breed/recalculate-beliefs`, {
         method: "POST",
         headers: await authHeaders(),
@@ -371,8 +377,25 @@ export async function recalculateBeliefs() {
         return await parseError(res);
     }
 
-    revalidatePath('/sheep');
-    //redirect('/sheep');
+    const job = await res.json() as RecalculationJob;
+    return { jobId: job.jobId };
+}
+
+
+export async function getRecalculationJob(jobId: string): Promise<RecalculationJob | null> {
+    const res = await fetch(`${API_BASE_URL}/breed/recalculate-beliefs/${jobId}`, {
+        headers: await authHeaders(),
+    });
+
+    if (!res.ok) {
+        return null;
+    }
+
+    const job = await res.json() as RecalculationJob;
+    if (job.status === "COMPLETED") {
+        revalidatePath('/sheep');
+    }
+    return job;
 }
 
 
@@ -432,3 +432,15 @@ export type RunEvent = {
     runId: string;
     payload: RunStartedPayload | StepEventPayload | CompletedPayload;
 };
+
+export type RecalculationJobStatus = "QUEUED" | "PROPAGATING" | "SAVING" | "COMPLETED" | "CANCELLED" | "FAILED";
+
+export type RecalculationJob = {
+    jobId: string;
+    status: RecalculationJobStatus;
+    componentsSolved: number;
+    componentCount: number;
+    sheepSaved: number;
+    sheepCount: number;
+    error: string | null;
+}
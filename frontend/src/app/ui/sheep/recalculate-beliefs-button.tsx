@@ -1,22 +1,80 @@
 "use client";
 
-import { useActionState } from "react";
-import { recalculateBeliefs } from "@/app/lib/actions";
+import { useActionState, useEffect, useState } from "react";
+import { getRecalculationJob, recalculateBeliefs, RecalculateState } from "@/app/lib/actions";
+import { RecalculationJob, RecalculationJobStatus } from "@/app/lib/definitions";
+
+const FINISHED: RecalculationJobStatus[] = ["COMPLETED", "CANCELLED", "FAILED"];
+const POLL_INTERVAL_MS = 1000;
+// stop watching after two minutes; the job keeps running on the server
+const MAX_POLLS = 120;
 
 export default function RecalcBeliefsButton() {
-    const [state, formAction, isPending] = useActionState(recalculateBeliefs, {});
+    const initialState: RecalculateState = {};
+    const [state, formAction, isPending] = useActionState(recalculateBeliefs, initialState);
+
+    const [job, setJob] = useState<RecalculationJob | null>(null);
+    const [polling, setPolling] = useState(false);
+    const [notice, setNotice] = useState<string | null>(null);
+
+    // the recalculation runs in the background; poll its job from here, not from the server action
+    useEffect(() => {
+        const jobId = state?.jobId;
+        if (!jobId) return;
+
+        let stopped = false;
+        let polls = 0;
+        let timer: ReturnType<typeof setTimeout>;
+
+        setJob(null);
+        setNotice(null);
+        setPolling(true);
+
+        const poll = async () => {
+            const current = await getRecalculationJob(jobId);
+            if (stopped) return;
+
+            if (!current) {
+                setPolling(false);
+                setNotice("Lost track of the recalculation; refresh later to see the new beliefs");
+                return;
+            }
+            setJob(current);
+            if (FINISHED.includes(current.status)) {
+                setPolling(false);
+                return;
+            }
+            if (++polls >= MAX_POLLS) {
+                setPolling(false);
+                setNotice("Still running in the background; refresh later to see the new beliefs");
+                return;
+            }
+            timer = setTimeout(poll, POLL_INTERVAL_MS);
+        };
+        timer = setTimeout(poll, POLL_INTERVAL_MS);
+
+        return () => {
+            stopped = true;
+            clearTimeout(timer);
+        };
+    }, [state]);
+
+    const busy = isPending || polling;
+    const error = state?.message
+        ?? (job?.status === "FAILED" ? job.error ?? "Recalculation failed" : null)
+        ?? (job?.status === "CANCELLED" ? "Recalculation was cancelled" : null);
 
     return (
         <form action={formAction} className="inline-flex items-center gap-3">
             <button
                 type="submit"
-                disabled={isPending}
+                disabled={busy}
                 className="px-4 py-2 rounded-lg bg-purple-600/80 hover:bg-purple-600
                    text-white font-medium text-sm h-10
                    disabled:opacity-50 disabled:cursor-not-allowed
                    transition-colors"
             >
-                {isPending ? (
+                {busy ? (
                     <span className="flex items-center gap-2">
                         <span className="h-4 w-4 animate-spin rounded-full border-2 border-white border-t-transparent" />
                         Recalculating...
@@ -26,8 +84,11 @@ export default function RecalcBeliefsButton() {
                 )}
             </button>
 
-            {state?.message && (
-                <span className="text-sm text-red-400">{state.message}</span>
+            {error && (
+                <span className="text-sm text-red-400">{error}</span>
+            )}
+            {notice && (
+                <span className="text-sm text-gray-300">{notice}</span>
             )}
         </form>
     );